@@ -27,21 +27,20 @@
 package au.id.soundadvice.systemdesign;
 
 import au.com.bytecode.opencsv.CSVReader;
-import au.com.bytecode.opencsv.CSVWriter;
 import au.id.soundadvice.systemdesign.fxml.ContextMenus;
 import au.id.soundadvice.systemdesign.storage.files.Merge;
 import au.id.soundadvice.systemdesign.state.EditState;
 import au.id.soundadvice.systemdesign.fxml.Interactions;
 import au.id.soundadvice.systemdesign.fxml.MainController;
-import au.id.soundadvice.systemdesign.storage.files.RecordReader;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executors;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
@@ -50,7 +49,6 @@ import javafx.scene.Scene;
 import javafx.scene.image.Image;
 import javafx.stage.Stage;
 import javafx.util.Callback;
-import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
 import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
 
 /**
@@ -101,40 +99,67 @@ public class SystemDesign extends Application {
         stage.show();
     }
 
+    /**
+     * Read the files to merge for --batch-merge, one per line as
+     * ancestor,left,right[,output]. Output defaults to left, as for a single
+     * merge.
+     */
+    private static List<Merge.FileMerge> readMergeList(BufferedReader input) throws IOException {
+        List<Merge.FileMerge> result = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(input)) {
+            for (String[] line = reader.readNext(); line != null; line = reader.readNext()) {
+                if (line.length == 1 && line[0].isEmpty()) {
+                    // Ignore empty lines
+                    continue;
+                }
+                if (line.length != 3 && line.length != 4) {
+                    throw new IOException("Unexpected merge line " + Arrays.toString(line));
+                }
+                Path left = Paths.get(line[1]);
+                result.add(new Merge.FileMerge(
+                        Paths.get(line[0]), left, Paths.get(line[2]),
+                        line.length == 4 ? Paths.get(line[3]) : left));
+            }
+        }
+        return result;
+    }
+
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        if (args.length > 0 && args[0].endsWith("-merge")) {
+        if (args.length > 0 && args[0].endsWith("-batch-merge")) {
+            if (args.length == 2) {
+                try {
+                    List<Merge.FileMerge> merges;
+                    if ("-".equals(args[1])) {
+                        merges = readMergeList(new BufferedReader(new InputStreamReader(System.in)));
+                    } else {
+                        merges = readMergeList(Files.newBufferedReader(Paths.get(args[1])));
+                    }
+                    List<Merge.FileMergeResult> results = Merge.threeWayBatch(merges, ISO8601.now());
+                    results.forEach(System.out::println);
+                    boolean failed = results.stream()
+                            .anyMatch(result -> result.getError().isPresent());
+                    System.exit(failed ? 1 : 0);
+                } catch (IOException ex) {
+                    System.err.println(ex.toString());
+                    System.exit(1);
+                }
+            } else {
+                System.out.println("Unexpected arguments " + Arrays.toString(args));
+                System.exit(1);
+            }
+        } else if (args.length > 0 && args[0].endsWith("-merge")) {
             if (args.length == 4) {
                 try {
                     Path ancestorFile = Paths.get(args[1]);
                     Path leftFile = Paths.get(args[2]);
                     Path rightFile = Paths.get(args[3]);
-                    Path tmpFile = Files.createTempFile("merge", "");
-                    Path outputFile = leftFile;
-                    Table dummyType = new Table.Default("");
-                    String now = ISO8601.now();
-                    try (
-                            BufferedReader ancestor = Files.newBufferedReader(ancestorFile);
-                            BufferedReader left = Files.newBufferedReader(leftFile);
-                            BufferedReader right = Files.newBufferedReader(rightFile);
-                            CSVReader ancestorCSVReader = new CSVReader(ancestor);
-                            CSVReader leftCSVReader = new CSVReader(left);
-                            CSVReader rightCSVReader = new CSVReader(right);
-                            RecordReader ancestorReader = new RecordReader(dummyType, ancestorCSVReader);
-                            RecordReader leftReader = new RecordReader(dummyType, leftCSVReader);
-                            RecordReader rightReader = new RecordReader(dummyType, rightCSVReader);
-                            CSVWriter out = new CSVWriter(Files.newBufferedWriter(
-                                    tmpFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
-                        Merge.threeWayCSV(ancestorReader, leftReader, rightReader, out, now);
-                        // Close to flush
-                        out.close();
-                        // Now we are supposed to overwrite left with the result of our merge
-                        Files.move(tmpFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
-                        // All done
-                        System.exit(0);
-                    }
+                    // We are supposed to overwrite left with the result of our merge
+                    Merge.threeWayFiles(ancestorFile, leftFile, rightFile, leftFile, ISO8601.now());
+                    // All done
+                    System.exit(0);
                 } catch (IOException ex) {
                     System.err.println(ex.toString());
                     System.exit(1);
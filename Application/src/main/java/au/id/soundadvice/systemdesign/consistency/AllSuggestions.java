@@ -47,19 +47,28 @@ import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
  */
 public class AllSuggestions {
 
-    public static Stream<EditProblem> getEditProblems(EditState edit) {
+    public static Stream<EditProblem> getEditProblems(
+            IncrementalTraceProblems traceProblems, EditState edit) {
         Stream<EditProblem> result = Stream.<Function<EditState, Stream<EditProblem>>>of(
                 DirectoryNameMismatch::getProblems)
                 .parallel()
                 .flatMap(f -> f.apply(edit));
-        return Stream.concat(result, getUndoProblems(edit.getState()).map(EditProblem::of));
+        return Stream.concat(result, getUndoProblems(traceProblems, edit.getState()).map(EditProblem::of));
     }
 
-    public static Stream<Problem> getUndoProblems(WhyHowPair<Baseline> baselines) {
-        return getAllTraceProblems(baselines);
+    public static Stream<Problem> getUndoProblems(
+            IncrementalTraceProblems traceProblems, WhyHowPair<Baseline> baselines) {
+        return traceProblems.getProblems(baselines).stream();
     }
 
-    private static Stream<Problem> getAllTraceProblems(WhyHowPair<Baseline> baselines) {
+    /**
+     * Find every trace problem from scratch. getUndoProblems finds the same
+     * problems incrementally.
+     *
+     * @param baselines The baselines to check
+     * @return The problems found
+     */
+    static Stream<Problem> getAllTraceProblems(WhyHowPair<Baseline> baselines) {
         // Resolve all of the traces
         Map<Optional<Record>, List<Record>> childTraceMap = baselines.getChild().stream()
                 .collect(Collectors.groupingBy(
@@ -0,0 +1,94 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.consistency;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.BaselineDiff;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The reads made against one baseline while a set of problems was being
+ * computed. The problems remain valid for as long as no change to the baseline
+ * could have altered the result of any of these reads.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+final class Dependencies {
+
+    private final Set<RecordID> identifiers = ConcurrentHashMap.newKeySet();
+    /**
+     * Each query is keyed by its arguments so that a module looking up the
+     * same thing many times only costs a single check per change.
+     */
+    private final Map<Object, Predicate<Record>> queries = new ConcurrentHashMap<>();
+    private volatile boolean everything = false;
+
+    /**
+     * Record a read of a single record, whether or not it was found.
+     */
+    void identifier(RecordID identifier) {
+        identifiers.add(identifier);
+    }
+
+    /**
+     * Record a query whose result includes exactly the records that match.
+     */
+    void query(Object key, Predicate<Record> matches) {
+        queries.putIfAbsent(key, matches);
+    }
+
+    /**
+     * Record a read that depends on every record in the baseline.
+     */
+    void everything() {
+        everything = true;
+    }
+
+    /**
+     * @param diff The changes made to the baseline since it was read
+     * @return true if any read might now give a different result
+     */
+    boolean isAffectedBy(BaselineDiff diff) {
+        if (diff.isEmpty()) {
+            return false;
+        } else if (everything) {
+            return true;
+        }
+        Collection<Predicate<Record>> matchers = queries.values();
+        // A change is relevant if either the old or the new version of the
+        // record would have been part of a query result
+        return diff.stream().anyMatch(pair
+                -> identifiers.contains(pair.getSample().getIdentifier())
+                || pair.stream().anyMatch(record
+                        -> matchers.stream().anyMatch(matches -> matches.test(record))));
+    }
+}
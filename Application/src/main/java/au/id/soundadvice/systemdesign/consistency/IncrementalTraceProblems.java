@@ -0,0 +1,285 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.consistency;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.BaselineDiff;
+import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.suggest.Problem;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds the same trace problems as AllSuggestions.getAllTraceProblems, but
+ * keeps the resolved traces and the problems found between calls so that only
+ * the parts of the model affected by a change are checked again.
+ * <p>
+ * Problems are found in units: the untraced children of each type, the
+ * untraced parents of each type, and the children of each trace parent. Table
+ * implementations are free to read any part of the model while finding
+ * problems, so each unit is computed against baselines that note every read. A
+ * unit is kept until its own records change or a change is made that one of
+ * its reads could have seen.
+ * <p>
+ * An instance is only fast when successive calls check related states, so
+ * each sequence of states being checked should have its own instance.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public final class IncrementalTraceProblems {
+
+    /**
+     * Beyond this many changes it is cheaper to start again than to check
+     * each unit against each change.
+     */
+    private static final int MAX_CHANGES = 256;
+
+    private static final class Unit {
+
+        Unit(List<Problem> problems, Dependencies parent, Dependencies child) {
+            this.problems = problems;
+            this.parent = parent;
+            this.child = child;
+        }
+        private final List<Problem> problems;
+        private final Dependencies parent;
+        private final Dependencies child;
+
+        boolean isAffectedBy(BaselineDiff parentDiff, BaselineDiff childDiff) {
+            return parent.isAffectedBy(parentDiff) || child.isAffectedBy(childDiff);
+        }
+    }
+
+    /**
+     * Record identifiers grouped by the type of their record.
+     */
+    private static final class ByType {
+
+        private final Map<RecordID, Table> types = new HashMap<>();
+        private final Map<Table, Set<RecordID>> identifiers = new HashMap<>();
+
+        void add(Record record) {
+            types.put(record.getIdentifier(), record.getType());
+            identifiers.computeIfAbsent(record.getType(), key -> new HashSet<>())
+                    .add(record.getIdentifier());
+        }
+
+        Optional<Table> remove(RecordID identifier) {
+            Table type = types.remove(identifier);
+            if (type != null) {
+                Set<RecordID> group = identifiers.get(type);
+                group.remove(identifier);
+                if (group.isEmpty()) {
+                    identifiers.remove(type);
+                }
+            }
+            return Optional.ofNullable(type);
+        }
+
+        Map<Table, Set<RecordID>> groups() {
+            return identifiers;
+        }
+
+        void clear() {
+            types.clear();
+            identifiers.clear();
+        }
+    }
+
+    private Optional<WhyHowPair<Baseline>> previous = Optional.empty();
+    // The trace of each child record, and its inverse. Traces are recorded
+    // whether or not the parent record exists.
+    private final Map<RecordID, RecordID> traces = new HashMap<>();
+    private final Map<RecordID, Set<RecordID>> children = new HashMap<>();
+    private final ByType untracedChildren = new ByType();
+    private final ByType untracedParents = new ByType();
+    private final Set<RecordID> tracedParents = new HashSet<>();
+    private final Map<Table, Unit> untracedChildUnits = new HashMap<>();
+    private final Map<Table, Unit> untracedParentUnits = new HashMap<>();
+    private final Map<RecordID, Unit> traceUnits = new HashMap<>();
+
+    synchronized List<Problem> getProblems(WhyHowPair<Baseline> baselines) {
+        Baseline parent = baselines.getParent();
+        Baseline child = baselines.getChild();
+        Set<RecordID> affectedParents = new HashSet<>();
+        Set<RecordID> affectedChildren = new HashSet<>();
+        Optional<BaselineDiff> parentDiff = previous.map(was -> was.getParent().diff(parent));
+        Optional<BaselineDiff> childDiff = previous.map(was -> was.getChild().diff(child));
+        if (parentDiff.isPresent() && childDiff.isPresent()
+                && isIncremental(baselines, parentDiff.get(), childDiff.get())) {
+            childDiff.get().stream().forEach(pair -> {
+                RecordID identifier = pair.getSample().getIdentifier();
+                retrace(identifier, pair.getIsInstance(), affectedParents);
+                affectedChildren.add(identifier);
+            });
+            parentDiff.get().stream().forEach(pair -> {
+                RecordID identifier = pair.getSample().getIdentifier();
+                affectedParents.add(identifier);
+                affectedChildren.addAll(children.getOrDefault(identifier, Collections.emptySet()));
+            });
+            untracedChildUnits.values().removeIf(
+                    unit -> unit.isAffectedBy(parentDiff.get(), childDiff.get()));
+            untracedParentUnits.values().removeIf(
+                    unit -> unit.isAffectedBy(parentDiff.get(), childDiff.get()));
+            traceUnits.values().removeIf(
+                    unit -> unit.isAffectedBy(parentDiff.get(), childDiff.get()));
+        } else {
+            clear();
+            child.stream().forEach(record -> {
+                retrace(record.getIdentifier(), Optional.of(record), affectedParents);
+                affectedChildren.add(record.getIdentifier());
+            });
+            parent.stream().forEach(record -> affectedParents.add(record.getIdentifier()));
+        }
+        affectedChildren.forEach(identifier -> classifyChild(baselines, identifier));
+        affectedParents.forEach(identifier -> classifyParent(baselines, identifier));
+        previous = Optional.of(baselines);
+
+        List<Problem> result = new ArrayList<>();
+        untracedChildUnits.keySet().retainAll(untracedChildren.groups().keySet());
+        untracedChildren.groups().forEach((type, identifiers) -> result.addAll(
+                untracedChildUnits.computeIfAbsent(type, key -> compute(baselines,
+                        context -> type.getUntracedChildProblems(
+                                context, identifiers.stream().map(get(child))))).problems));
+        untracedParentUnits.keySet().retainAll(untracedParents.groups().keySet());
+        untracedParents.groups().forEach((type, identifiers) -> result.addAll(
+                untracedParentUnits.computeIfAbsent(type, key -> compute(baselines,
+                        context -> type.getUntracedParentProblems(
+                                context, identifiers.stream().map(get(parent))))).problems));
+        for (RecordID identifier : tracedParents) {
+            result.addAll(traceUnits.computeIfAbsent(identifier, key -> {
+                Record traceParent = get(parent).apply(identifier);
+                return compute(baselines,
+                        context -> traceParent.getType().getTraceProblems(
+                                context, traceParent,
+                                children.get(identifier).stream().map(get(child))));
+            }).problems);
+        }
+        return result;
+    }
+
+    private static boolean isIncremental(
+            WhyHowPair<Baseline> baselines, BaselineDiff parentDiff, BaselineDiff childDiff) {
+        int changes = parentDiff.size() + childDiff.size();
+        int size = baselines.getParent().size() + baselines.getChild().size();
+        return changes <= MAX_CHANGES && changes * 8 <= size;
+    }
+
+    private static Function<RecordID, Record> get(Baseline baseline) {
+        return identifier -> baseline.getAnyType(identifier).get();
+    }
+
+    private static Unit compute(
+            WhyHowPair<Baseline> baselines,
+            Function<WhyHowPair<Baseline>, Stream<Problem>> find) {
+        Dependencies parent = new Dependencies();
+        Dependencies child = new Dependencies();
+        WhyHowPair<Baseline> context = new WhyHowPair<>(
+                new TrackingBaseline(baselines.getParent(), parent),
+                new TrackingBaseline(baselines.getChild(), child));
+        List<Problem> problems = find.apply(context).collect(Collectors.toList());
+        return new Unit(problems, parent, child);
+    }
+
+    private void clear() {
+        traces.clear();
+        children.clear();
+        untracedChildren.clear();
+        untracedParents.clear();
+        tracedParents.clear();
+        untracedChildUnits.clear();
+        untracedParentUnits.clear();
+        traceUnits.clear();
+    }
+
+    /**
+     * Update the trace index for a child record.
+     *
+     * @param identifier The child record
+     * @param record The child record's current value, if it still exists
+     * @param affectedParents Collects the parents the child was or is traced
+     * to
+     */
+    private void retrace(
+            RecordID identifier, Optional<Record> record, Set<RecordID> affectedParents) {
+        RecordID oldTrace = traces.remove(identifier);
+        if (oldTrace != null) {
+            Set<RecordID> oldSiblings = children.get(oldTrace);
+            oldSiblings.remove(identifier);
+            if (oldSiblings.isEmpty()) {
+                children.remove(oldTrace);
+            }
+            affectedParents.add(oldTrace);
+        }
+        Optional<RecordID> newTrace = record.flatMap(Record::getTrace);
+        if (newTrace.isPresent()) {
+            traces.put(identifier, newTrace.get());
+            children.computeIfAbsent(newTrace.get(), key -> new HashSet<>()).add(identifier);
+            affectedParents.add(newTrace.get());
+        }
+    }
+
+    private void classifyChild(WhyHowPair<Baseline> baselines, RecordID identifier) {
+        untracedChildren.remove(identifier).ifPresent(untracedChildUnits::remove);
+        Optional<Record> record = baselines.getChild().getAnyType(identifier);
+        if (record.isPresent()) {
+            Optional<Record> traceParent = record.get().getTrace()
+                    .flatMap(trace -> baselines.getParent().getAnyType(trace));
+            if (!traceParent.isPresent()) {
+                untracedChildren.add(record.get());
+                untracedChildUnits.remove(record.get().getType());
+            }
+        }
+    }
+
+    private void classifyParent(WhyHowPair<Baseline> baselines, RecordID identifier) {
+        untracedParents.remove(identifier).ifPresent(untracedParentUnits::remove);
+        tracedParents.remove(identifier);
+        traceUnits.remove(identifier);
+        Optional<Record> record = baselines.getParent().getAnyType(identifier);
+        if (record.isPresent()) {
+            if (children.containsKey(identifier)) {
+                tracedParents.add(identifier);
+            } else {
+                untracedParents.add(record.get());
+                untracedParentUnits.remove(record.get().getType());
+            }
+        }
+    }
+}
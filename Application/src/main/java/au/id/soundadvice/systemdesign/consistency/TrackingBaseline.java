@@ -0,0 +1,200 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.consistency;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.BaselineDiff;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
+import au.id.soundadvice.systemdesign.moduleapi.entity.ConnectionScope;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.BinaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * A read-only view of a baseline that notes each read in a Dependencies
+ * object. Changes made through the view are passed on, but since their
+ * results cannot be tracked they make the dependencies depend on everything.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+final class TrackingBaseline implements Baseline {
+
+    TrackingBaseline(Baseline delegate, Dependencies dependencies) {
+        this.delegate = delegate;
+        this.dependencies = dependencies;
+    }
+    private final Baseline delegate;
+    private final Dependencies dependencies;
+
+    private static boolean hasScope(Record record, ConnectionScope scope) {
+        return record.isConnectionScope()
+                && record.getConnectionScope().enumerateDirections(true).anyMatch(scope::equals);
+    }
+
+    private static boolean isReference(Record record, RecordID identifier) {
+        return record.getReferences().containsValue(identifier);
+    }
+
+    @Override
+    public Optional<Record> get(RecordID identifier, Table type) {
+        dependencies.identifier(identifier);
+        return delegate.get(identifier, type);
+    }
+
+    @Override
+    public Optional<Record> getAnyType(RecordID identifier) {
+        dependencies.identifier(identifier);
+        return delegate.getAnyType(identifier);
+    }
+
+    @Override
+    public Optional<Record> get(Record sample) {
+        dependencies.identifier(sample.getIdentifier());
+        return delegate.get(sample);
+    }
+
+    @Override
+    public Stream<Record> findByType(Table type) {
+        dependencies.query(Arrays.asList("type", type),
+                record -> type.equals(record.getType()));
+        return delegate.findByType(type);
+    }
+
+    @Override
+    public Stream<Record> findByTrace(Optional<RecordID> parentIdentifier) {
+        dependencies.query(Arrays.asList("trace", parentIdentifier),
+                record -> parentIdentifier.equals(record.getTrace()));
+        return delegate.findByTrace(parentIdentifier);
+    }
+
+    @Override
+    public Stream<Record> findByTrace(Optional<RecordID> parentIdentifier, Table type) {
+        dependencies.query(Arrays.asList("trace", parentIdentifier, type),
+                record -> type.equals(record.getType())
+                && parentIdentifier.equals(record.getTrace()));
+        return delegate.findByTrace(parentIdentifier, type);
+    }
+
+    @Override
+    public Stream<Record> findByScope(ConnectionScope scope) {
+        dependencies.query(Arrays.asList("scope", scope),
+                record -> hasScope(record, scope));
+        return delegate.findByScope(scope);
+    }
+
+    @Override
+    public Stream<Record> findByScope(ConnectionScope scope, Table type) {
+        dependencies.query(Arrays.asList("scope", scope, type),
+                record -> type.equals(record.getType()) && hasScope(record, scope));
+        return delegate.findByScope(scope, type);
+    }
+
+    @Override
+    public Stream<Record> findByLongName(String longName) {
+        dependencies.query(Arrays.asList("longName", longName),
+                record -> longName.equals(record.getLongName()));
+        return delegate.findByLongName(longName);
+    }
+
+    @Override
+    public <K> Stream<Record> findByIndex(RecordIndex<K> index, K key) {
+        dependencies.query(Arrays.asList("index", index, key),
+                record -> index.getKeys(record).anyMatch(key::equals));
+        return delegate.findByIndex(index, key);
+    }
+
+    @Override
+    public Stream<Record> findReverse(RecordID identifier) {
+        dependencies.query(Arrays.asList("reverse", identifier),
+                record -> isReference(record, identifier));
+        return delegate.findReverse(identifier);
+    }
+
+    @Override
+    public Stream<Record> findReverse(RecordID identifier, Table fromType) {
+        dependencies.query(Arrays.asList("reverse", identifier, fromType),
+                record -> fromType.equals(record.getType()) && isReference(record, identifier));
+        return delegate.findReverse(identifier, fromType);
+    }
+
+    @Override
+    public Baseline add(Record newRecord) {
+        dependencies.everything();
+        return delegate.add(newRecord);
+    }
+
+    @Override
+    public Baseline remove(RecordID identifier) {
+        dependencies.everything();
+        return delegate.remove(identifier);
+    }
+
+    @Override
+    public int size() {
+        dependencies.everything();
+        return delegate.size();
+    }
+
+    @Override
+    public Stream<Record> stream() {
+        dependencies.everything();
+        return delegate.stream();
+    }
+
+    @Override
+    public Baseline mergeRecords(String now, Stream<Record> toMerge, BinaryOperator<Record> mergeFunction) {
+        dependencies.everything();
+        return delegate.mergeRecords(now, toMerge, mergeFunction);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        dependencies.everything();
+        return delegate.isEmpty();
+    }
+
+    @Override
+    public BaselineDiff diff(Baseline other) {
+        dependencies.everything();
+        return delegate.diff(other);
+    }
+
+    @Override
+    public Transient asTransient() {
+        dependencies.everything();
+        return delegate.asTransient();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -26,23 +26,18 @@
  */
 package au.id.soundadvice.systemdesign.entity;
 
-import au.id.soundadvice.systemdesign.moduleapi.entity.Identifiable;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 
 /**
- * An immutable map. Duplicate values are overwritten.
+ * An immutable map. Duplicate values are overwritten. Updates share structure
+ * with the previous version of the map.
  *
  * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
  */
@@ -62,6 +57,9 @@ public class ByIdentifier {
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -75,22 +73,20 @@ public class ByIdentifier {
         return true;
     }
 
-    private static final ByIdentifier EMPTY = new ByIdentifier(Collections.emptyMap());
+    private static final ByIdentifier EMPTY = new ByIdentifier(HashTrie.empty());
 
     public static ByIdentifier empty() {
         return EMPTY;
     }
 
-    static ByIdentifier valueOf(Stream<Record> records) {
-        return new ByIdentifier(Collections.unmodifiableMap(
-                records.parallel().collect(
-                        Collectors.toConcurrentMap(Identifiable::getIdentifier, Function.identity()))));
-    }
+    private final HashTrie<RecordID, Record> records;
 
-    private final Map<RecordID, Record> records;
+    private ByIdentifier(HashTrie<RecordID, Record> records) {
+        this.records = records;
+    }
 
-    private ByIdentifier(Map<RecordID, Record> unmodifiable) {
-        this.records = unmodifiable;
+    void diff(ByIdentifier right, HashTrie.Differences<RecordID, Record> differences) {
+        records.diff(right.records, differences);
     }
 
     public Optional<Record> get(RecordID key) {
@@ -99,45 +95,53 @@ public class ByIdentifier {
 
     @CheckReturnValue
     public ByIdentifier put(Record value) {
-        RecordID key = value.getIdentifier();
-        Record old = records.get(key);
-        if (value.equals(old)) {
+        return put(value, null);
+    }
+
+    @CheckReturnValue
+    ByIdentifier put(Record value, @Nullable Object edit) {
+        HashTrie<RecordID, Record> map = records.put(value.getIdentifier(), value, edit);
+        if (map == records) {
             return this;
         } else {
-            Map<RecordID, Record> map = new HashMap<>(records);
-            map.put(key, value);
-            return new ByIdentifier(Collections.unmodifiableMap(map));
+            return new ByIdentifier(map);
         }
     }
 
     @CheckReturnValue
     public ByIdentifier remove(RecordID key) {
-        if (records.containsKey(key)) {
-            if (records.size() == 1) {
-                return EMPTY;
-            } else {
-                Map<RecordID, Record> map = new HashMap<>(records);
-                map.remove(key);
-                return new ByIdentifier(Collections.unmodifiableMap(map));
-            }
-        } else {
+        return remove(key, null);
+    }
+
+    @CheckReturnValue
+    ByIdentifier remove(RecordID key, @Nullable Object edit) {
+        HashTrie<RecordID, Record> map = records.remove(key, edit);
+        if (map == records) {
             return this;
+        } else if (map.isEmpty()) {
+            return EMPTY;
+        } else {
+            return new ByIdentifier(map);
         }
     }
 
     @CheckReturnValue
     public ByIdentifier removeAll(Collection<RecordID> keys) {
-        List<RecordID> toRemove = keys.parallelStream()
-                .filter(key -> records.containsKey(key))
-                .collect(Collectors.toList());
-        if (toRemove.isEmpty()) {
+        return removeAll(keys, null);
+    }
+
+    @CheckReturnValue
+    ByIdentifier removeAll(Collection<RecordID> keys, @Nullable Object edit) {
+        HashTrie<RecordID, Record> map = records;
+        for (RecordID key : keys) {
+            map = map.remove(key, edit);
+        }
+        if (map == records) {
             return this;
-        } else if (records.size() == toRemove.size()) {
+        } else if (map.isEmpty()) {
             return EMPTY;
         } else {
-            Map<RecordID, Record> map = new HashMap<>(records);
-            map.keySet().removeAll(toRemove);
-            return new ByIdentifier(Collections.unmodifiableMap(map));
+            return new ByIdentifier(map);
         }
     }
 
@@ -146,7 +150,7 @@ public class ByIdentifier {
     }
 
     public Stream<Record> stream() {
-        return records.values().stream();
+        return records.values();
     }
 
     public boolean contains(RecordID key) {
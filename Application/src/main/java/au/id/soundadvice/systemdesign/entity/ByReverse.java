@@ -29,81 +29,46 @@ package au.id.soundadvice.systemdesign.entity;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
 import java.util.ArrayDeque;
-import java.util.Collections;
 import java.util.Deque;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import javafx.util.Pair;
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
 
 /**
- * An immutable set keyed on class and identifier.
+ * An immutable set keyed on class and identifier. Each referenced identifier
+ * maps to the set of records that refer to it, so updates only touch the
+ * adjacency sets of the targets a record refers to.
  *
  * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
  */
 public class ByReverse {
 
-    private static final ByReverse EMPTY = new ByReverse(Collections.emptyMap());
+    private static final ByReverse EMPTY = new ByReverse(HashTrie.empty());
 
     public static ByReverse empty() {
         return EMPTY;
     }
 
-    public static class Loader {
-
-        private final Set<RecordID> deletedRecords;
-        private final ByReverse result;
-
-        public Loader(ByIdentifier records) {
-            RecordID invalidReference = RecordID.create();
-            Map<RecordID, Set<Record>> reverse = records.stream()
-                    .flatMap(record -> record.getReferences().entrySet().stream()
-                            .map(Map.Entry<String, RecordID>::getValue)
-                            .map(targetIdentifier -> {
-                                Optional<Record> target = records.get(targetIdentifier);
-                                if (!target.isPresent()) {
-                                    // Target does not exist
-                                    targetIdentifier = invalidReference;
-                                }
-                                return new Pair<>(targetIdentifier, record);
-                            }))
-                    .collect(Collectors.groupingBy(Pair::getKey,
-                            Collectors.mapping(Pair::getValue, Collectors.toSet())));
-            Map<RecordID, HashIndex<Table>> tmpResult = reverse.entrySet().parallelStream()
-                    .collect(Collectors.toMap(
-                            Map.Entry<RecordID, Set<Record>>::getKey,
-                            entry -> HashIndex.<Table>valueOf(
-                                    record -> Stream.of(record.getType()), entry.getValue().stream())));
-            Set<RecordID> tmpDelete = new HashSet<>();
-            tmpDelete.add(invalidReference);
-            cascade(tmpResult, tmpDelete);
-            tmpDelete.remove(invalidReference);
-            deletedRecords = tmpDelete;
-            result = new ByReverse(Collections.unmodifiableMap(tmpResult))
-                    .removeAll(deletedRecords.stream().flatMap(key
-                            -> records.get(key).map(Stream::of).orElse(Stream.empty())));
-        }
-
-        public Stream<RecordID> getDeletedRecords() {
-            return deletedRecords.stream();
-        }
-
-        public ByReverse build() {
-            return result;
-        }
+    private static Stream<Table> extractType(Record record) {
+        return Stream.of(record.getType());
     }
 
+    private static final HashIndex<Table> EMPTY_BUCKET = HashIndex.empty(ByReverse::extractType);
+
+    /**
+     * Extend seed with every record that directly or indirectly refers to a
+     * record in seed. Only the adjacency sets of records added to seed are
+     * visited, so the cost is proportional to the size of the cascade.
+     */
     private static void cascade(
-            Map<RecordID, HashIndex<Table>> reverse, Set<RecordID> seed) {
-        Deque<RecordID> stack = seed.stream()
-                .collect(Collectors.toCollection(ArrayDeque<RecordID>::new));
+            HashTrie<RecordID, HashIndex<Table>> reverse, Set<RecordID> seed) {
+        Deque<RecordID> stack = new ArrayDeque<>(seed);
         while (!stack.isEmpty()) {
             RecordID current = stack.pop();
             HashIndex<Table> references = reverse.get(current);
@@ -119,10 +84,22 @@ public class ByReverse {
         }
     }
 
-    private final Map<RecordID, HashIndex<Table>> records;
+    private static Stream<RecordID> getTargets(Record record) {
+        return record.getReferences().values().stream().distinct();
+    }
+
+    private final HashTrie<RecordID, HashIndex<Table>> records;
+
+    private ByReverse(HashTrie<RecordID, HashIndex<Table>> records) {
+        this.records = records;
+    }
 
-    private ByReverse(Map<RecordID, HashIndex<Table>> unmodifiable) {
-        this.records = unmodifiable;
+    /**
+     * Every identifier referred to by some record, whether or not a record
+     * with that identifier exists.
+     */
+    Stream<RecordID> targets() {
+        return records.keys();
     }
 
     public void cascade(Set<RecordID> seed) {
@@ -148,69 +125,78 @@ public class ByReverse {
     }
 
     @CheckReturnValue
-    private ByReverse putImpl(Record value) {
-        Map<RecordID, HashIndex<Table>> map = new HashMap<>(records);
-        value.getReferences().entrySet().stream()
-                .map(Map.Entry<String, RecordID>::getValue)
-                .forEach(targetIdentifier -> {
-                    HashIndex<Table> byType = map.get(targetIdentifier);
-                    if (byType == null) {
-                        byType = HashIndex.empty(record -> Stream.of(record.getType()));
-                    }
-                    byType = byType.replace(Optional.empty(), value);
-                    map.put(targetIdentifier, byType);
-                });
-        return new ByReverse(Collections.unmodifiableMap(map));
+    public ByReverse replace(Optional<Record> old, Record value) {
+        return replace(old, value, null);
     }
 
     @CheckReturnValue
-    public ByReverse replace(Optional<Record> old, Record value) {
+    ByReverse replace(Optional<Record> old, Record value, @Nullable Object edit) {
         if (value.equals(old.orElse(null))) {
             return this;
-        } else {
-            ByReverse tmp;
-            if (old.isPresent() && !value.equals(old.get())) {
-                tmp = removeAll(Stream.of(old.get()));
+        }
+        Set<RecordID> oldTargets = old.map(record -> getTargets(record)
+                .collect(Collectors.toSet()))
+                .orElse(new HashSet<>());
+        HashTrie<RecordID, HashIndex<Table>> map = records;
+        Iterator<RecordID> it = getTargets(value).iterator();
+        while (it.hasNext()) {
+            RecordID target = it.next();
+            HashIndex<Table> byType = map.get(target);
+            if (byType == null) {
+                byType = EMPTY_BUCKET;
+            }
+            if (oldTargets.remove(target)) {
+                // Still referenced, so replace in place
+                byType = byType.replace(old, value, edit);
             } else {
-                tmp = this;
+                byType = byType.replace(Optional.empty(), value, edit);
             }
-            return tmp.putImpl(value);
+            map = map.put(target, byType, edit);
+        }
+        for (RecordID target : oldTargets) {
+            // No longer referenced
+            map = removeFromTarget(map, target, old.get(), edit);
+        }
+        return map == records ? this : new ByReverse(map);
+    }
+
+    private static HashTrie<RecordID, HashIndex<Table>> removeFromTarget(
+            HashTrie<RecordID, HashIndex<Table>> map,
+            RecordID target, Record source, @Nullable Object edit) {
+        HashIndex<Table> byType = map.get(target);
+        if (byType == null) {
+            return map;
+        }
+        byType = byType.remove(source, edit);
+        if (byType.isEmpty()) {
+            return map.remove(target, edit);
+        } else {
+            return map.put(target, byType, edit);
         }
     }
 
     @CheckReturnValue
     public ByReverse removeAll(Stream<Record> toDelete) {
-        Map<RecordID, List<RecordID>> toDeleteByTarget = toDelete
-                .flatMap(source -> {
-                    return source.getReferences().entrySet().stream()
-                            .map(Map.Entry<String, RecordID>::getValue)
-                            .map(targetIdentifier -> {
-                                return new Pair<>(targetIdentifier, source.getIdentifier());
-                            });
-                })
-                .collect(Collectors.groupingBy(
-                        Pair::getKey, Collectors.mapping(Pair::getValue, Collectors.toList())));
-        if (toDeleteByTarget.isEmpty()) {
-            // There were no references
-            return this;
+        return removeAll(toDelete, null);
+    }
+
+    @CheckReturnValue
+    ByReverse removeAll(Stream<Record> toDelete, @Nullable Object edit) {
+        HashTrie<RecordID, HashIndex<Table>> map = records;
+        Iterator<Record> sources = toDelete.iterator();
+        while (sources.hasNext()) {
+            Record source = sources.next();
+            Iterator<RecordID> targets = getTargets(source).iterator();
+            while (targets.hasNext()) {
+                map = removeFromTarget(map, targets.next(), source, edit);
+            }
         }
-        Map<RecordID, HashIndex<Table>> map = new HashMap<>(records);
-        toDeleteByTarget.entrySet().stream()
-                .forEach(entry -> {
-                    HashIndex<Table> byType = map.get(entry.getKey());
-                    if (byType != null) {
-                        byType = byType.removeAll(entry.getValue());
-                        if (byType.isEmpty()) {
-                            map.remove(entry.getKey());
-                        } else {
-                            map.put(entry.getKey(), byType);
-                        }
-                    }
-                });
-        if (map.isEmpty()) {
+        if (map == records) {
+            return this;
+        } else if (map.isEmpty()) {
             return EMPTY;
         } else {
-            return new ByReverse(Collections.unmodifiableMap(map));
+            return new ByReverse(map);
         }
     }
 }
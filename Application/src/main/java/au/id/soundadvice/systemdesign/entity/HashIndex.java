@@ -27,18 +27,13 @@
 package au.id.soundadvice.systemdesign.entity;
 
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
-import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import javafx.util.Pair;
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 
 /**
  * An immutable set keyed on class and UUID.
@@ -49,25 +44,15 @@ import javax.annotation.CheckReturnValue;
 public class HashIndex<I> {
 
     public static <I> HashIndex<I> empty(Function<Record, Stream<I>> bucketExtractor) {
-        return new HashIndex<>(bucketExtractor, Collections.emptyMap());
-    }
-
-    public static <I> HashIndex<I> valueOf(Function<Record, Stream<I>> bucketExtractor, Stream<Record> records) {
-        Map<I, List<Record>> pass1 = records
-                .flatMap(record -> bucketExtractor.apply(record)
-                        .map(bucket -> new Pair<>(bucket, record)))
-                .collect(Collectors.groupingBy(Pair::getKey, Collectors.mapping(Pair::getValue, Collectors.toList())));
-        Map<I, ByIdentifier> pass2 = pass1.entrySet().stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, entry -> ByIdentifier.valueOf(entry.getValue().stream())));
-        return new HashIndex<>(bucketExtractor, Collections.unmodifiableMap(pass2));
+        return new HashIndex<>(bucketExtractor, HashTrie.empty());
     }
 
     private final Function<Record, Stream<I>> bucketExtractor;
-    private final Map<I, ByIdentifier> records;
+    private final HashTrie<I, ByIdentifier> records;
 
-    private HashIndex(Function<Record, Stream<I>> bucketExtractor, Map<I, ByIdentifier> unmodifiable) {
+    private HashIndex(Function<Record, Stream<I>> bucketExtractor, HashTrie<I, ByIdentifier> records) {
         this.bucketExtractor = bucketExtractor;
-        this.records = unmodifiable;
+        this.records = records;
     }
 
     public Stream<Record> get(I key) {
@@ -80,64 +65,114 @@ public class HashIndex<I> {
     }
 
     public Stream<Record> stream() {
-        return records.values().stream().flatMap(ByIdentifier::stream);
+        return records.values().flatMap(ByIdentifier::stream);
     }
 
     @CheckReturnValue
-    private HashIndex<I> putImpl(Record value) {
-        Stream<I> buckets = bucketExtractor.apply(value);
-        HashMap<I, ByIdentifier> map = new HashMap<>(records);
-        buckets.sequential()
-                .forEach(bucket -> {
-                    ByIdentifier set = records.get(bucket);
-                    if (set == null) {
-                        set = ByIdentifier.empty();
-                    }
-                    set = set.put(value);
-                    map.put(bucket, set);
-                });
-        return new HashIndex<>(
-                bucketExtractor, Collections.unmodifiableMap(map));
+    private HashIndex<I> putImpl(Record value, @Nullable Object edit) {
+        HashTrie<I, ByIdentifier> map = records;
+        Iterator<I> buckets = bucketExtractor.apply(value).iterator();
+        while (buckets.hasNext()) {
+            I bucket = buckets.next();
+            ByIdentifier set = map.get(bucket);
+            if (set == null) {
+                set = ByIdentifier.empty();
+            }
+            map = map.put(bucket, set.put(value, edit), edit);
+        }
+        return new HashIndex<>(bucketExtractor, map);
     }
 
     @CheckReturnValue
     public HashIndex<I> replace(Optional<Record> wasValue, Record isValue) {
+        return replace(wasValue, isValue, null);
+    }
+
+    @CheckReturnValue
+    HashIndex<I> replace(Optional<Record> wasValue, Record isValue, @Nullable Object edit) {
         HashIndex<I> tmp = this;
         if (wasValue.isPresent()) {
-            tmp = remove(wasValue.get());
+            tmp = remove(wasValue.get(), edit);
         }
-        return tmp.putImpl(isValue);
+        return tmp.putImpl(isValue, edit);
     }
 
     @CheckReturnValue
     public HashIndex<I> remove(Record wasValue) {
-        Stream<I> wasBuckets = bucketExtractor.apply(wasValue);
-        HashMap<I, ByIdentifier> map = new HashMap<>(records);
-        wasBuckets.sequential().forEach(bucket -> {
-            ByIdentifier bucketEntries = map.get(bucket).remove(wasValue.getIdentifier());
-            if (bucketEntries.isEmpty()) {
-                map.remove(bucket);
-            } else {
-                map.put(bucket, bucketEntries);
+        return remove(wasValue, null);
+    }
+
+    @CheckReturnValue
+    HashIndex<I> remove(Record wasValue, @Nullable Object edit) {
+        HashTrie<I, ByIdentifier> map = records;
+        Iterator<I> wasBuckets = bucketExtractor.apply(wasValue).iterator();
+        while (wasBuckets.hasNext()) {
+            I bucket = wasBuckets.next();
+            ByIdentifier bucketEntries = map.get(bucket);
+            if (bucketEntries != null) {
+                bucketEntries = bucketEntries.remove(wasValue.getIdentifier(), edit);
+                if (bucketEntries.isEmpty()) {
+                    map = map.remove(bucket, edit);
+                } else {
+                    map = map.put(bucket, bucketEntries, edit);
+                }
             }
-        });
-        return new HashIndex<>(bucketExtractor, Collections.unmodifiableMap(map));
+        }
+        if (map == records) {
+            return this;
+        } else {
+            return new HashIndex<>(bucketExtractor, map);
+        }
+    }
+
+    /**
+     * Remove a set of records. Only the buckets the records were indexed under
+     * are visited.
+     *
+     * @param wasValues The records to remove
+     * @return The updated index
+     */
+    @CheckReturnValue
+    public HashIndex<I> removeAll(Stream<Record> wasValues) {
+        return removeAll(wasValues, null);
     }
 
     @CheckReturnValue
-    public HashIndex<I> removeAll(Collection<RecordID> identifiers) {
-        return new HashIndex<>(bucketExtractor, Collections.<I, ByIdentifier>unmodifiableMap(
-                records.entrySet().parallelStream()
-                .map(entry -> new Pair<>(
-                        entry.getKey(), entry.getValue().removeAll(identifiers)))
-                .filter(entry -> !entry.getValue().isEmpty())
-                .collect(Collectors.toConcurrentMap(
-                        entry -> entry.getKey(),
-                        entry -> entry.getValue()))));
+    HashIndex<I> removeAll(Stream<Record> wasValues, @Nullable Object edit) {
+        HashIndex<I> result = this;
+        Iterator<Record> it = wasValues.iterator();
+        while (it.hasNext()) {
+            result = result.remove(it.next(), edit);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keys whose buckets differ between this index and other.
+     * Buckets the two indexes share are recognised without visiting their
+     * records.
+     *
+     * @param other The index to compare against
+     * @return The keys of added, removed and changed buckets
+     */
+    public Stream<I> changedKeys(HashIndex<I> other) {
+        return Stream.concat(
+                records.entries()
+                .filter(entry -> !entry.getValue().equals(other.records.get(entry.getKey())))
+                .map(Map.Entry::getKey),
+                other.records.keys()
+                .filter(key -> !records.containsKey(key)));
+    }
+
+    /**
+     * @return The keys of the non-empty buckets
+     */
+    public Stream<I> keys() {
+        return records.keys();
     }
 
     public Stream<ByIdentifier> values() {
-        return records.values().stream();
+        return records.values();
     }
 
     public boolean isEmpty() {
@@ -0,0 +1,671 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable hash array mapped trie. Updates copy only the path from the
+ * root to the changed entry, sharing all other structure with the previous
+ * version so that old versions remain cheap to retain in an undo buffer.
+ *
+ * The shape of the trie depends only on its content, not on the order of
+ * updates that produced it. Equality checks rely on this to skip shared
+ * subtrees and to compare the remainder node by node.
+ *
+ * Updates may optionally be made under an edit token. Nodes created under a
+ * token are updated in place by later updates made under the same token,
+ * avoiding path copying while a batch of changes is being applied. Tries
+ * produced under a token must not be shared until the token is discarded.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+@SuppressWarnings("unchecked")
+public final class HashTrie<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        entries().forEach(entry -> {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        });
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Consistent with Map.hashCode(), and maintained incrementally.
+     *
+     * @return The sum of the entry hash codes
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final HashTrie<?, ?> other = (HashTrie<?, ?>) obj;
+        if (this.size != other.size) {
+            return false;
+        }
+        if (this.hash != other.hash) {
+            return false;
+        }
+        return nodeEquals(this.root, other.root);
+    }
+
+    private static final HashTrie<?, ?> EMPTY = new HashTrie<>(null, 0, 0);
+
+    public static <K, V> HashTrie<K, V> empty() {
+        return (HashTrie<K, V>) EMPTY;
+    }
+
+    /**
+     * The root is null when empty, or one of Leaf, Collision or Branch.
+     */
+    @Nullable
+    private final Object root;
+    private final int size;
+    private final int hash;
+
+    private HashTrie(@Nullable Object root, int size, int hash) {
+        this.root = root;
+        this.size = size;
+        this.hash = hash;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Nullable
+    public V get(K key) {
+        Leaf<K, V> leaf = find(root, key.hashCode(), key);
+        return leaf == null ? null : leaf.value;
+    }
+
+    public boolean containsKey(K key) {
+        return find(root, key.hashCode(), key) != null;
+    }
+
+    @CheckReturnValue
+    public HashTrie<K, V> put(K key, V value) {
+        return put(key, value, null);
+    }
+
+    /**
+     * Associate key with value.
+     *
+     * @param key The key to update
+     * @param value The new value
+     * @param edit The edit token for a batch of changes, or null
+     * @return The updated trie, or this trie if value was already present
+     */
+    @CheckReturnValue
+    public HashTrie<K, V> put(K key, V value, @Nullable Object edit) {
+        Leaf<K, V> leaf = new Leaf<>(key.hashCode(), key, value);
+        Replaced<K, V> replaced = new Replaced<>();
+        Object newRoot = put(root, 0, leaf, replaced, edit);
+        if (newRoot == root && replaced.leaf == null && replaced.unchanged) {
+            return this;
+        } else if (replaced.leaf == null) {
+            return new HashTrie<>(newRoot, size + 1, hash + leaf.hashCode());
+        } else {
+            return new HashTrie<>(newRoot, size, hash - replaced.leaf.hashCode() + leaf.hashCode());
+        }
+    }
+
+    @CheckReturnValue
+    public HashTrie<K, V> remove(K key) {
+        return remove(key, null);
+    }
+
+    /**
+     * Remove any value associated with key.
+     *
+     * @param key The key to remove
+     * @param edit The edit token for a batch of changes, or null
+     * @return The updated trie, or this trie if key was not present
+     */
+    @CheckReturnValue
+    public HashTrie<K, V> remove(K key, @Nullable Object edit) {
+        Replaced<K, V> removed = new Replaced<>();
+        Object newRoot = remove(root, 0, key.hashCode(), key, removed, edit);
+        if (removed.leaf == null) {
+            return this;
+        } else if (newRoot == null) {
+            return empty();
+        } else {
+            return new HashTrie<>(newRoot, size - 1, hash - removed.leaf.hashCode());
+        }
+    }
+
+    public Stream<Map.Entry<K, V>> entries() {
+        return leaves(root).map(leaf -> (Map.Entry<K, V>) leaf);
+    }
+
+    public Stream<K> keys() {
+        return leaves(root).map(leaf -> (K) leaf.key);
+    }
+
+    public Stream<V> values() {
+        return leaves(root).map(leaf -> (V) leaf.value);
+    }
+
+    /**
+     * Receives the entries that differ between two tries.
+     *
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    @FunctionalInterface
+    public interface Differences<K, V> {
+
+        /**
+         * Accept one difference.
+         *
+         * @param key The key whose value differs
+         * @param left The value in the left trie, or null if absent
+         * @param right The value in the right trie, or null if absent
+         */
+        void accept(K key, @Nullable V left, @Nullable V right);
+    }
+
+    /**
+     * Report every entry that differs between this trie and right. Subtrees
+     * that the two tries share are skipped without being visited, so the
+     * cost is proportional to the size of the difference rather than the
+     * size of the tries.
+     *
+     * @param right The trie to compare against
+     * @param differences Receives each differing entry
+     */
+    public void diff(HashTrie<K, V> right, Differences<K, V> differences) {
+        diff(this.root, right.root, 0, differences);
+    }
+
+    private static <K, V> void diff(
+            @Nullable Object left, @Nullable Object right, int shift,
+            Differences<K, V> differences) {
+        if (left == right) {
+            // Shared structure
+            return;
+        }
+        if (left instanceof Branch && right instanceof Branch) {
+            Branch leftBranch = (Branch) left;
+            Branch rightBranch = (Branch) right;
+            int bitmap = leftBranch.bitmap | rightBranch.bitmap;
+            while (bitmap != 0) {
+                int bit = Integer.lowestOneBit(bitmap);
+                bitmap &= ~bit;
+                diff(child(leftBranch, bit), child(rightBranch, bit), shift + BITS, differences);
+            }
+        } else {
+            // At least one side is a small subtree: compare it entry by entry
+            Map<Object, Leaf<?, ?>> leftLeaves = new HashMap<>();
+            leaves(left).forEach(leaf -> leftLeaves.put(leaf.key, leaf));
+            leaves(right).forEach(rightLeaf -> {
+                Leaf<K, V> leftLeaf = (Leaf<K, V>) leftLeaves.remove(rightLeaf.key);
+                if (leftLeaf == null) {
+                    differences.accept((K) rightLeaf.key, null, (V) rightLeaf.value);
+                } else if (leftLeaf != rightLeaf
+                        && !Objects.equals(leftLeaf.value, rightLeaf.value)) {
+                    differences.accept(leftLeaf.key, leftLeaf.value, (V) rightLeaf.value);
+                }
+            });
+            leftLeaves.values().forEach(leftLeaf -> differences.accept(
+                    (K) leftLeaf.key, (V) leftLeaf.value, null));
+        }
+    }
+
+    @Nullable
+    private static Object child(Branch branch, int bit) {
+        if ((branch.bitmap & bit) == 0) {
+            return null;
+        } else {
+            return branch.children[index(branch.bitmap, bit)];
+        }
+    }
+
+    private static final class Leaf<K, V> implements Map.Entry<K, V> {
+
+        @Override
+        public int hashCode() {
+            return hash ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final Leaf<?, ?> other = (Leaf<?, ?>) obj;
+            if (this.hash != other.hash) {
+                return false;
+            }
+            if (!Objects.equals(this.key, other.key)) {
+                return false;
+            }
+            return Objects.equals(this.value, other.value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+
+        private Leaf(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        private final int hash;
+        private final K key;
+        private final V value;
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Leaves whose keys have identical hash codes.
+     */
+    private static final class Collision {
+
+        private Collision(@Nullable Object edit, int hash, Leaf<?, ?>[] leaves) {
+            this.edit = edit;
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Nullable
+        private final Object edit;
+        private final int hash;
+        private Leaf<?, ?>[] leaves;
+    }
+
+    /**
+     * An interior node. Each child is a Leaf, Collision or Branch, stored
+     * densely in order of its bit position within the bitmap.
+     */
+    private static final class Branch {
+
+        private Branch(@Nullable Object edit, int bitmap, Object[] children) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        @Nullable
+        private final Object edit;
+        private int bitmap;
+        private Object[] children;
+    }
+
+    /**
+     * Receives the leaf replaced or removed by an update, if any.
+     */
+    private static final class Replaced<K, V> {
+
+        @Nullable
+        private Leaf<K, V> leaf = null;
+        /**
+         * Cleared when a node is updated in place.
+         */
+        private boolean unchanged = true;
+    }
+
+    private static boolean isOwned(@Nullable Object edit, @Nullable Object nodeEdit) {
+        return edit != null && edit == nodeEdit;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static int hashOf(Object node) {
+        if (node instanceof Leaf) {
+            return ((Leaf<?, ?>) node).hash;
+        } else {
+            return ((Collision) node).hash;
+        }
+    }
+
+    @Nullable
+    private static <K, V> Leaf<K, V> find(@Nullable Object node, int hash, K key) {
+        int shift = 0;
+        for (;;) {
+            if (node == null) {
+                return null;
+            } else if (node instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) node;
+                return leaf.hash == hash && key.equals(leaf.key) ? leaf : null;
+            } else if (node instanceof Collision) {
+                Collision collision = (Collision) node;
+                if (collision.hash == hash) {
+                    for (Leaf<?, ?> leaf : collision.leaves) {
+                        if (key.equals(leaf.key)) {
+                            return (Leaf<K, V>) leaf;
+                        }
+                    }
+                }
+                return null;
+            } else {
+                Branch branch = (Branch) node;
+                int bit = bit(hash, shift);
+                if ((branch.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = branch.children[index(branch.bitmap, bit)];
+                shift += BITS;
+            }
+        }
+    }
+
+    /**
+     * Build the smallest subtree holding both an existing Leaf or Collision
+     * and a new leaf whose hash differs from it.
+     */
+    private static Object split(
+            Object existing, int existingHash, Leaf<?, ?> leaf, int shift, @Nullable Object edit) {
+        if (existingHash == leaf.hash) {
+            Leaf<?, ?>[] leaves;
+            if (existing instanceof Leaf) {
+                leaves = new Leaf<?, ?>[]{(Leaf<?, ?>) existing, leaf};
+            } else {
+                Leaf<?, ?>[] was = ((Collision) existing).leaves;
+                leaves = Arrays.copyOf(was, was.length + 1);
+                leaves[was.length] = leaf;
+            }
+            return new Collision(edit, leaf.hash, leaves);
+        }
+        int existingBit = bit(existingHash, shift);
+        int leafBit = bit(leaf.hash, shift);
+        if (existingBit == leafBit) {
+            return new Branch(edit, existingBit, new Object[]{
+                split(existing, existingHash, leaf, shift + BITS, edit)});
+        } else if (Integer.compareUnsigned(existingBit, leafBit) < 0) {
+            return new Branch(edit, existingBit | leafBit, new Object[]{existing, leaf});
+        } else {
+            return new Branch(edit, existingBit | leafBit, new Object[]{leaf, existing});
+        }
+    }
+
+    private static <K, V> Object put(
+            @Nullable Object node, int shift, Leaf<K, V> leaf,
+            Replaced<K, V> replaced, @Nullable Object edit) {
+        if (node == null) {
+            return leaf;
+        } else if (node instanceof Leaf) {
+            Leaf<K, V> existing = (Leaf<K, V>) node;
+            if (existing.hash == leaf.hash && leaf.key.equals(existing.key)) {
+                if (Objects.equals(leaf.value, existing.value)) {
+                    return node;
+                }
+                replaced.leaf = existing;
+                return leaf;
+            }
+            return split(node, existing.hash, leaf, shift, edit);
+        } else if (node instanceof Collision) {
+            Collision collision = (Collision) node;
+            if (collision.hash != leaf.hash) {
+                return split(node, collision.hash, leaf, shift, edit);
+            }
+            Leaf<?, ?>[] leaves = collision.leaves;
+            for (int ii = 0; ii < leaves.length; ++ii) {
+                if (leaf.key.equals(leaves[ii].key)) {
+                    if (Objects.equals(leaf.value, leaves[ii].value)) {
+                        return node;
+                    }
+                    replaced.leaf = (Leaf<K, V>) leaves[ii];
+                    if (isOwned(edit, collision.edit)) {
+                        leaves[ii] = leaf;
+                        replaced.unchanged = false;
+                        return node;
+                    }
+                    leaves = leaves.clone();
+                    leaves[ii] = leaf;
+                    return new Collision(edit, leaf.hash, leaves);
+                }
+            }
+            if (isOwned(edit, collision.edit)) {
+                collision.leaves = Arrays.copyOf(leaves, leaves.length + 1);
+                collision.leaves[leaves.length] = leaf;
+                replaced.unchanged = false;
+                return node;
+            }
+            return split(node, collision.hash, leaf, shift, edit);
+        } else {
+            Branch branch = (Branch) node;
+            int bit = bit(leaf.hash, shift);
+            int index = index(branch.bitmap, bit);
+            Object[] children = branch.children;
+            if ((branch.bitmap & bit) == 0) {
+                Object[] newChildren = new Object[children.length + 1];
+                System.arraycopy(children, 0, newChildren, 0, index);
+                newChildren[index] = leaf;
+                System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+                if (isOwned(edit, branch.edit)) {
+                    branch.bitmap |= bit;
+                    branch.children = newChildren;
+                    replaced.unchanged = false;
+                    return node;
+                }
+                return new Branch(edit, branch.bitmap | bit, newChildren);
+            }
+            Object child = children[index];
+            Object newChild = put(child, shift + BITS, leaf, replaced, edit);
+            if (newChild == child) {
+                return node;
+            }
+            if (isOwned(edit, branch.edit)) {
+                children[index] = newChild;
+                replaced.unchanged = false;
+                return node;
+            }
+            Object[] newChildren = children.clone();
+            newChildren[index] = newChild;
+            return new Branch(edit, branch.bitmap, newChildren);
+        }
+    }
+
+    @Nullable
+    private static <K, V> Object remove(
+            @Nullable Object node, int shift, int hash, K key,
+            Replaced<K, V> removed, @Nullable Object edit) {
+        if (node == null) {
+            return null;
+        } else if (node instanceof Leaf) {
+            Leaf<K, V> existing = (Leaf<K, V>) node;
+            if (existing.hash == hash && key.equals(existing.key)) {
+                removed.leaf = existing;
+                return null;
+            }
+            return node;
+        } else if (node instanceof Collision) {
+            Collision collision = (Collision) node;
+            if (collision.hash != hash) {
+                return node;
+            }
+            Leaf<?, ?>[] leaves = collision.leaves;
+            for (int ii = 0; ii < leaves.length; ++ii) {
+                if (key.equals(leaves[ii].key)) {
+                    removed.leaf = (Leaf<K, V>) leaves[ii];
+                    if (leaves.length == 2) {
+                        return leaves[1 - ii];
+                    }
+                    Leaf<?, ?>[] newLeaves = new Leaf<?, ?>[leaves.length - 1];
+                    System.arraycopy(leaves, 0, newLeaves, 0, ii);
+                    System.arraycopy(leaves, ii + 1, newLeaves, ii, newLeaves.length - ii);
+                    if (isOwned(edit, collision.edit)) {
+                        collision.leaves = newLeaves;
+                        removed.unchanged = false;
+                        return node;
+                    }
+                    return new Collision(edit, hash, newLeaves);
+                }
+            }
+            return node;
+        } else {
+            Branch branch = (Branch) node;
+            int bit = bit(hash, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return node;
+            }
+            int index = index(branch.bitmap, bit);
+            Object[] children = branch.children;
+            Object child = children[index];
+            Object newChild = remove(child, shift + BITS, hash, key, removed, edit);
+            if (newChild == child) {
+                return node;
+            }
+            if (newChild == null) {
+                if (children.length == 1) {
+                    return null;
+                }
+                if (children.length == 2 && !(children[1 - index] instanceof Branch)) {
+                    // Pull the surviving leaf up to keep the shape canonical
+                    return children[1 - index];
+                }
+                Object[] newChildren = new Object[children.length - 1];
+                System.arraycopy(children, 0, newChildren, 0, index);
+                System.arraycopy(children, index + 1, newChildren, index, newChildren.length - index);
+                if (isOwned(edit, branch.edit)) {
+                    branch.bitmap &= ~bit;
+                    branch.children = newChildren;
+                    removed.unchanged = false;
+                    return node;
+                }
+                return new Branch(edit, branch.bitmap & ~bit, newChildren);
+            }
+            if (children.length == 1 && !(newChild instanceof Branch)) {
+                // Pull the surviving leaf up to keep the shape canonical
+                return newChild;
+            }
+            if (isOwned(edit, branch.edit)) {
+                children[index] = newChild;
+                removed.unchanged = false;
+                return node;
+            }
+            Object[] newChildren = children.clone();
+            newChildren[index] = newChild;
+            return new Branch(edit, branch.bitmap, newChildren);
+        }
+    }
+
+    private static Stream<Leaf<?, ?>> leaves(@Nullable Object node) {
+        if (node == null) {
+            return Stream.empty();
+        } else if (node instanceof Leaf) {
+            return Stream.of((Leaf<?, ?>) node);
+        } else if (node instanceof Collision) {
+            return Stream.of(((Collision) node).leaves);
+        } else {
+            return Stream.of(((Branch) node).children).flatMap(HashTrie::leaves);
+        }
+    }
+
+    private static boolean nodeEquals(@Nullable Object left, @Nullable Object right) {
+        if (left == right) {
+            // Shared structure
+            return true;
+        }
+        if (left == null || right == null || left.getClass() != right.getClass()) {
+            return false;
+        }
+        if (left instanceof Leaf) {
+            return left.equals(right);
+        } else if (left instanceof Collision) {
+            Leaf<?, ?>[] leftLeaves = ((Collision) left).leaves;
+            Leaf<?, ?>[] rightLeaves = ((Collision) right).leaves;
+            return leftLeaves.length == rightLeaves.length
+                    && Arrays.asList(leftLeaves).containsAll(Arrays.asList(rightLeaves));
+        } else {
+            Branch leftBranch = (Branch) left;
+            Branch rightBranch = (Branch) right;
+            if (leftBranch.bitmap != rightBranch.bitmap) {
+                return false;
+            }
+            for (int ii = 0; ii < leftBranch.children.length; ++ii) {
+                if (!nodeEquals(leftBranch.children[ii], rightBranch.children[ii])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+
+/**
+ * The secondary indexes declared by modules, maintained alongside the
+ * built-in indexes of a RecordStore.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+class ModuleIndexes {
+
+    private static final ModuleIndexes NONE = new ModuleIndexes(
+            Collections.emptyList(), Collections.emptyList());
+
+    static ModuleIndexes empty() {
+        return NONE;
+    }
+
+    static ModuleIndexes empty(Stream<RecordIndex<?>> definitions) {
+        List<RecordIndex<?>> tmpDefinitions = definitions.distinct()
+                .collect(Collectors.toList());
+        if (tmpDefinitions.isEmpty()) {
+            return NONE;
+        }
+        List<HashIndex<?>> tmpIndexes = tmpDefinitions.stream()
+                .<HashIndex<?>>map(definition -> HashIndex.empty(definition::getKeys))
+                .collect(Collectors.toList());
+        return new ModuleIndexes(
+                Collections.unmodifiableList(tmpDefinitions),
+                Collections.unmodifiableList(tmpIndexes));
+    }
+
+    private final List<RecordIndex<?>> definitions;
+    private final List<HashIndex<?>> indexes;
+
+    /**
+     * @return Empty indexes with the same definitions as these
+     */
+    ModuleIndexes clear() {
+        return empty(definitions.stream());
+    }
+
+    private ModuleIndexes(List<RecordIndex<?>> definitions, List<HashIndex<?>> indexes) {
+        this.definitions = definitions;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Returns the records found under key, or empty if this index is not
+     * maintained here.
+     */
+    @SuppressWarnings("unchecked")
+    <K> Optional<Stream<Record>> find(RecordIndex<K> index, K key) {
+        int position = definitions.indexOf(index);
+        if (position < 0) {
+            return Optional.empty();
+        } else {
+            return Optional.of(((HashIndex<K>) indexes.get(position)).get(key));
+        }
+    }
+
+    @CheckReturnValue
+    ModuleIndexes replace(Optional<Record> old, Record value, @Nullable Object edit) {
+        if (definitions.isEmpty()) {
+            return this;
+        }
+        List<HashIndex<?>> tmpIndexes = new ArrayList<>(indexes.size());
+        for (HashIndex<?> index : indexes) {
+            tmpIndexes.add(index.replace(old, value, edit));
+        }
+        return new ModuleIndexes(definitions, Collections.unmodifiableList(tmpIndexes));
+    }
+
+    @CheckReturnValue
+    ModuleIndexes removeAll(Collection<Record> toDelete, @Nullable Object edit) {
+        if (definitions.isEmpty()) {
+            return this;
+        }
+        List<HashIndex<?>> tmpIndexes = new ArrayList<>(indexes.size());
+        for (HashIndex<?> index : indexes) {
+            tmpIndexes.add(index.removeAll(toDelete.stream(), edit));
+        }
+        return new ModuleIndexes(definitions, Collections.unmodifiableList(tmpIndexes));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The identifiers of the records added, removed and modified between two
+ * versions of a baseline.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public final class RecordChanges {
+
+    private static final RecordChanges EMPTY = new RecordChanges(
+            Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+
+    public static RecordChanges empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Find the records that differ between two baselines. The cost is
+     * proportional to the size of the change when both are record stores
+     * that share structure.
+     *
+     * @param previous The earlier baseline
+     * @param current The later baseline
+     * @return The changes from previous to current
+     */
+    public static RecordChanges between(Baseline previous, Baseline current) {
+        Set<RecordID> added = new HashSet<>();
+        Set<RecordID> removed = new HashSet<>();
+        Set<RecordID> modified = new HashSet<>();
+        RecordStore.diff(previous, current, (identifier, left, right) -> {
+            if (left == null) {
+                added.add(identifier);
+            } else if (right == null) {
+                removed.add(identifier);
+            } else {
+                modified.add(identifier);
+            }
+        });
+        if (added.isEmpty() && removed.isEmpty() && modified.isEmpty()) {
+            return EMPTY;
+        } else {
+            return new RecordChanges(
+                    Collections.unmodifiableSet(added),
+                    Collections.unmodifiableSet(removed),
+                    Collections.unmodifiableSet(modified));
+        }
+    }
+
+    private RecordChanges(Set<RecordID> added, Set<RecordID> removed, Set<RecordID> modified) {
+        this.added = added;
+        this.removed = removed;
+        this.modified = modified;
+    }
+    private final Set<RecordID> added;
+    private final Set<RecordID> removed;
+    private final Set<RecordID> modified;
+
+    public Set<RecordID> getAdded() {
+        return added;
+    }
+
+    public Set<RecordID> getRemoved() {
+        return removed;
+    }
+
+    public Set<RecordID> getModified() {
+        return modified;
+    }
+
+    /**
+     * @return Every identifier that was added, removed or modified
+     */
+    public Stream<RecordID> stream() {
+        return Stream.of(added, removed, modified).flatMap(Set::stream);
+    }
+
+    public boolean contains(RecordID identifier) {
+        return added.contains(identifier)
+                || removed.contains(identifier)
+                || modified.contains(identifier);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+    }
+
+    public int size() {
+        return added.size() + removed.size() + modified.size();
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added.size() + " -" + removed.size() + " ~" + modified.size();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The record-level changes that turn one baseline into another. A delta
+ * holds only the records that differ, so it can stand in for a baseline that
+ * is no longer needed in full as long as the baseline it was taken from is
+ * still to hand.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public final class RecordDelta {
+
+    private static final RecordDelta EMPTY = new RecordDelta(
+            Collections.emptyList(), Collections.emptyList(), RecordStore.empty());
+
+    /**
+     * Find the changes that turn from into to.
+     *
+     * @param from The baseline the delta will be applied to
+     * @param to The baseline the delta reproduces
+     * @return The difference between the two baselines
+     */
+    public static RecordDelta between(Baseline from, Baseline to) {
+        List<RecordID> removed = new ArrayList<>();
+        List<Record> changed = new ArrayList<>();
+        RecordStore.diff(from, to, (identifier, left, right) -> {
+            if (right == null) {
+                removed.add(identifier);
+            } else {
+                changed.add(right);
+            }
+        });
+        if (removed.isEmpty() && changed.isEmpty()) {
+            return EMPTY;
+        } else {
+            // Keep only the module indexes of to, not its records
+            RecordStore indexes = to instanceof RecordStore
+                    ? ((RecordStore) to).cleared()
+                    : RecordStore.empty();
+            return new RecordDelta(removed, changed, indexes);
+        }
+    }
+
+    private RecordDelta(List<RecordID> removed, List<Record> changed, RecordStore indexes) {
+        this.removed = removed;
+        this.changed = changed;
+        this.indexes = indexes;
+    }
+    private final List<RecordID> removed;
+    private final List<Record> changed;
+    private final RecordStore indexes;
+
+    /**
+     * Apply the delta to the baseline it was taken from. If that is not a
+     * RecordStore, the result maintains the module indexes of the baseline
+     * passed as to to between().
+     *
+     * @param from The baseline passed as from to between()
+     * @return The baseline passed as to to between()
+     */
+    public Baseline apply(Baseline from) {
+        if (isEmpty()) {
+            return from;
+        } else if (from instanceof RecordStore) {
+            return ((RecordStore) from).replay(removed, changed);
+        } else {
+            Set<RecordID> replaced = Stream.concat(
+                    removed.stream(),
+                    changed.stream().map(Record::getIdentifier))
+                    .collect(Collectors.toCollection(HashSet::new));
+            return RecordStore.valueOf(indexes, Stream.concat(
+                    from.stream().filter(record -> !replaced.contains(record.getIdentifier())),
+                    changed.stream()));
+        }
+    }
+
+    public boolean isEmpty() {
+        return removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * The number of records and identifiers held by this delta, as a measure
+     * of the memory it retains.
+     *
+     * @return The size of the delta
+     */
+    public int size() {
+        return removed.size() + changed.size();
+    }
+
+    @Override
+    public String toString() {
+        return "-" + removed.size() + " ~" + changed.size();
+    }
+}
@@ -28,8 +28,13 @@ package au.id.soundadvice.systemdesign.entity;
 
 import au.id.soundadvice.systemdesign.moduleapi.entity.ConnectionScope;
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.BaselineDiff;
+import au.id.soundadvice.systemdesign.moduleapi.collection.DiffPair;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -37,9 +42,11 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
 import java.util.Set;
 
@@ -64,6 +71,9 @@ public class RecordStore implements Baseline {
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
         if (obj == null) {
             return false;
         }
@@ -97,73 +107,136 @@ public class RecordStore implements Baseline {
         return Stream.of(record.getLongName());
     }
 
+    /**
+     * Load records into a store that maintains no module indexes.
+     *
+     * @param input The records to load
+     * @return The loaded store
+     * @throws IllegalStateException If two records share an identifier
+     */
     public static RecordStore valueOf(Stream<Record> input) {
-        // Collect the stream in order to duplicate it
-        List<Record> collectedInput = input.collect(Collectors.toList());
-        ByIdentifier byIdentifier = ByIdentifier.valueOf(collectedInput.stream());
-        HashIndex<Table> byType = HashIndex.valueOf(
-                RecordStore::extractType, collectedInput.stream());
-        HashIndex<Optional<RecordID>> byTrace = HashIndex.valueOf(
-                RecordStore::extractTrace, collectedInput.stream());
-        HashIndex<ConnectionScope> byScope = HashIndex.valueOf(
-                RecordStore::extractScope, collectedInput.stream());
-        HashIndex<String> byLongName = HashIndex.valueOf(
-                RecordStore::extractLongName, collectedInput.stream());
-        ByReverse.Loader reverseLoader = new ByReverse.Loader(byIdentifier);
-        ByReverse byReverse = reverseLoader.build();
-
-        // Delete any items needed to establish referential integrity
-        List<RecordID> toDelete = reverseLoader.getDeletedRecords().parallel()
-                .collect(Collectors.toList());
-        if (!toDelete.isEmpty()) {
-            byIdentifier = byIdentifier.removeAll(toDelete);
-            byType = byType.removeAll(toDelete);
-            byTrace = byTrace.removeAll(toDelete);
-            byScope = byScope.removeAll(toDelete);
-            // byReverse entries have already been removed
+        return valueOf(EMPTY, input);
+    }
+
+    /**
+     * Load records into a store that maintains the same module indexes as
+     * indexes.
+     *
+     * @param indexes A store whose module indexes the result maintains
+     * @param input The records to load
+     * @return The loaded store
+     * @throws IllegalStateException If two records share an identifier
+     */
+    public static RecordStore valueOf(RecordStore indexes, Stream<Record> input) {
+        // Fill every index in a single pass over the input. Referential
+        // integrity is deferred until all records have been seen, as
+        // references may point forwards.
+        Loader loader = new Loader(indexes.cleared());
+        // The store is a single transient, so records go in one at a time
+        input.sequential().forEach(loader);
+        return loader.build();
+    }
+
+    private static final class Loader implements Consumer<Record> {
+
+        private final Object edit = new Object();
+        private RecordStore store;
+
+        private Loader(RecordStore empty) {
+            this.store = empty;
         }
 
+        @Override
+        public void accept(Record value) {
+            if (store.byIdentifier.contains(value.getIdentifier())) {
+                // Which copy would survive depends on load order, so refuse
+                // to pick one
+                throw new IllegalStateException(
+                        "Duplicate key " + value.getIdentifier());
+            }
+            store = store.replace(Optional.empty(), value, edit);
+        }
+
+        RecordStore build() {
+            RecordStore loaded = store;
+            store = null;
+            // Delete any items needed to establish referential integrity
+            Set<RecordID> missing = loaded.reverseReferences.targets()
+                    .filter(target -> !loaded.byIdentifier.get(target).isPresent())
+                    .collect(Collectors.toCollection(HashSet::new));
+            if (missing.isEmpty()) {
+                return loaded;
+            } else {
+                loaded.reverseReferences.cascade(missing);
+                return loaded.removeAll(missing.stream(), edit);
+            }
+        }
+    }
+
+    private static RecordStore empty(ModuleIndexes moduleIndexes) {
         return new RecordStore(
-                byIdentifier,
-                byType,
-                byTrace,
-                byScope,
-                byLongName,
-                byReverse);
-    }
-
-    private static final RecordStore EMPTY = new RecordStore(
-            ByIdentifier.empty(),
-            HashIndex.empty(RecordStore::extractType),
-            HashIndex.empty(RecordStore::extractTrace),
-            HashIndex.empty(RecordStore::extractScope),
-            HashIndex.empty(RecordStore::extractLongName),
-            ByReverse.empty());
+                ByIdentifier.empty(),
+                HashIndex.empty(RecordStore::extractType),
+                TypedHashIndex.empty(RecordStore::extractTrace),
+                TypedHashIndex.empty(RecordStore::extractScope),
+                HashIndex.empty(RecordStore::extractLongName),
+                ByReverse.empty(),
+                moduleIndexes);
+    }
 
+    private static final RecordStore EMPTY = empty(ModuleIndexes.empty());
+
+    /**
+     * An empty store that maintains no module indexes. Lookups on module
+     * indexes scan the index type instead.
+     *
+     * @return The empty store
+     */
     public static RecordStore empty() {
         return EMPTY;
     }
 
+    /**
+     * An empty store that maintains the secondary indexes declared by
+     * modules. Stores derived from it maintain the same indexes.
+     *
+     * @param indexes The indexes to maintain
+     * @return The empty store
+     */
+    public static RecordStore empty(Stream<RecordIndex<?>> indexes) {
+        return empty(ModuleIndexes.empty(indexes));
+    }
+
+    /**
+     * An empty store that maintains the same module indexes as this store.
+     */
+    RecordStore cleared() {
+        return empty(moduleIndexes.clear());
+    }
+
     private final ByIdentifier byIdentifier;
     private final HashIndex<Table> byType;
-    private final HashIndex<Optional<RecordID>> byTrace;
-    private final HashIndex<ConnectionScope> byScope;
+    private final TypedHashIndex<Optional<RecordID>> byTrace;
+    private final TypedHashIndex<ConnectionScope> byScope;
     private final HashIndex<String> byLongName;
     private final ByReverse reverseReferences;
+    private final ModuleIndexes moduleIndexes;
 
     private RecordStore(
             ByIdentifier relations,
             HashIndex<Table> byType,
-            HashIndex<Optional<RecordID>> byTrace,
-            HashIndex<ConnectionScope> byScope,
+            TypedHashIndex<Optional<RecordID>> byTrace,
+            TypedHashIndex<ConnectionScope> byScope,
             HashIndex<String> byLongName,
-            ByReverse reverseRelations) {
+            ByReverse reverseRelations,
+            ModuleIndexes moduleIndexes) {
         this.byIdentifier = relations;
         this.byType = byType;
         this.byTrace = byTrace;
         this.byScope = byScope;
         this.byLongName = byLongName;
         this.reverseReferences = reverseRelations;
+        this.moduleIndexes = moduleIndexes;
     }
 
     @Override
@@ -192,16 +265,33 @@ public class RecordStore implements Baseline {
         return byTrace.get(parentIdentifier);
     }
 
+    @Override
+    public Stream<Record> findByTrace(Optional<RecordID> parentIdentifier, Table type) {
+        return byTrace.get(parentIdentifier, type);
+    }
+
     @Override
     public Stream<Record> findByScope(ConnectionScope scope) {
         return byScope.get(scope);
     }
 
+    @Override
+    public Stream<Record> findByScope(ConnectionScope scope, Table type) {
+        return byScope.get(scope, type);
+    }
+
     @Override
     public Stream<Record> findByLongName(String value) {
         return byLongName.get(value);
     }
 
+    @Override
+    public <K> Stream<Record> findByIndex(RecordIndex<K> index, K key) {
+        return moduleIndexes.find(index, key).orElseGet(
+                () -> findByType(index.getType())
+                .filter(record -> index.getKeys(record).anyMatch(key::equals)));
+    }
+
     @Override
     public Stream<Record> findReverse(RecordID key, Table fromType) {
         return reverseReferences.find(key, fromType);
@@ -215,6 +305,11 @@ public class RecordStore implements Baseline {
     @CheckReturnValue
     @Override
     public RecordStore add(Record value) {
+        return add(value, null);
+    }
+
+    @CheckReturnValue
+    private RecordStore add(Record value, @Nullable Object edit) {
         // Check referential integrity
         boolean referencesOK = value.getReferences().entrySet().parallelStream()
                 .map(Map.Entry<String, RecordID>::getValue)
@@ -227,22 +322,30 @@ public class RecordStore implements Baseline {
             return this;
         }
 
-        RecordID key = value.getIdentifier();
-        Optional<Record> oldValue = byIdentifier.get(key);
+        return replace(byIdentifier.get(value.getIdentifier()), value, edit);
+    }
+
+    /**
+     * Replace oldValue with value in every index, without checking
+     * referential integrity.
+     */
+    @CheckReturnValue
+    private RecordStore replace(Optional<Record> oldValue, Record value, @Nullable Object edit) {
         if (value.equals(oldValue.orElse(null))) {
             return this;
         } else {
             RecordStore tmp = this;
-            ByIdentifier tmpRelations = tmp.byIdentifier.put(value);
-            HashIndex<Table> tmpByType = tmp.byType.replace(oldValue, value);
-            HashIndex<Optional<RecordID>> tmpByTrace = tmp.byTrace.replace(oldValue, value);
-            HashIndex<ConnectionScope> tmpByScope = tmp.byScope.replace(oldValue, value);
-            HashIndex<String> tmpByLongName = tmp.byLongName.replace(oldValue, value);
+            ByIdentifier tmpRelations = tmp.byIdentifier.put(value, edit);
+            HashIndex<Table> tmpByType = tmp.byType.replace(oldValue, value, edit);
+            TypedHashIndex<Optional<RecordID>> tmpByTrace = tmp.byTrace.replace(oldValue, value, edit);
+            TypedHashIndex<ConnectionScope> tmpByScope = tmp.byScope.replace(oldValue, value, edit);
+            HashIndex<String> tmpByLongName = tmp.byLongName.replace(oldValue, value, edit);
             ByReverse tmpReverseRelations
-                    = tmp.reverseReferences.replace(oldValue, value);
+                    = tmp.reverseReferences.replace(oldValue, value, edit);
+            ModuleIndexes tmpModuleIndexes = tmp.moduleIndexes.replace(oldValue, value, edit);
             return new RecordStore(
                     tmpRelations, tmpByType, tmpByTrace, tmpByScope, tmpByLongName,
-                    tmpReverseRelations);
+                    tmpReverseRelations, tmpModuleIndexes);
         }
     }
 
@@ -254,6 +357,11 @@ public class RecordStore implements Baseline {
 
     @CheckReturnValue
     public RecordStore removeAll(Stream<RecordID> seed) {
+        return removeAll(seed, null);
+    }
+
+    @CheckReturnValue
+    private RecordStore removeAll(Stream<RecordID> seed, @Nullable Object edit) {
         Set<RecordID> toDelete = seed.parallel()
                 .filter(key -> byIdentifier.get(key).isPresent())
                 .collect(Collectors.toCollection(HashSet::new));
@@ -261,22 +369,127 @@ public class RecordStore implements Baseline {
             return this;
         } else {
             reverseReferences.cascade(toDelete);
+            return removeExisting(toDelete, edit);
+        }
+    }
 
-            ByIdentifier tmpRelations = byIdentifier.removeAll(toDelete);
-            HashIndex<Table> tmpByType = byType.removeAll(toDelete);
-            HashIndex<Optional<RecordID>> tmpByTrace = byTrace.removeAll(toDelete);
-            HashIndex<ConnectionScope> tmpByScope = byScope.removeAll(toDelete);
-            HashIndex<String> tmpByLongName = byLongName.removeAll(toDelete);
+    /**
+     * Remove exactly the records in toDelete from every index, without
+     * cascading to the records that reference them.
+     */
+    @CheckReturnValue
+    private RecordStore removeExisting(Collection<RecordID> toDelete, @Nullable Object edit) {
+        if (toDelete.isEmpty()) {
+            return this;
+        } else {
+            List<Record> deletedRecords = toDelete.stream()
+                    .flatMap(key -> byIdentifier.get(key).map(Stream::of).orElse(Stream.empty()))
+                    .collect(Collectors.toList());
+
+            ByIdentifier tmpRelations = byIdentifier.removeAll(toDelete, edit);
+            HashIndex<Table> tmpByType = byType.removeAll(deletedRecords.stream(), edit);
+            TypedHashIndex<Optional<RecordID>> tmpByTrace = byTrace.removeAll(deletedRecords.stream(), edit);
+            TypedHashIndex<ConnectionScope> tmpByScope = byScope.removeAll(deletedRecords.stream(), edit);
+            HashIndex<String> tmpByLongName = byLongName.removeAll(deletedRecords.stream(), edit);
             ByReverse tmpReverseRelations
-                    = reverseReferences.removeAll(
-                            toDelete.stream().flatMap(key
-                                    -> byIdentifier.get(key).map(Stream::of).orElse(Stream.empty())));
+                    = reverseReferences.removeAll(deletedRecords.stream(), edit);
+            ModuleIndexes tmpModuleIndexes = moduleIndexes.removeAll(deletedRecords, edit);
             return new RecordStore(
                     tmpRelations, tmpByType, tmpByTrace, tmpByScope, tmpByLongName,
-                    tmpReverseRelations);
+                    tmpReverseRelations, tmpModuleIndexes);
         }
     }
 
+    /**
+     * Replay a set of changes taken between two stores that each had
+     * referential integrity. As the result is known to be consistent the
+     * changes are applied without checking references or cascading deletes,
+     * so their order does not matter.
+     *
+     * @param removed The identifiers of records to remove
+     * @param changed The records to add or replace
+     * @return The updated store
+     */
+    @CheckReturnValue
+    public RecordStore replay(Collection<RecordID> removed, Collection<Record> changed) {
+        Object edit = new Object();
+        RecordStore result = removeExisting(removed, edit);
+        for (Record record : changed) {
+            result = result.replace(result.byIdentifier.get(record.getIdentifier()), record, edit);
+        }
+        return result;
+    }
+
+    /**
+     * Report the records that differ between this store and right, skipping
+     * the structure the two stores share.
+     *
+     * @param right The store to compare against
+     * @param differences Receives each record present in only one store, or
+     * present in both with different content
+     */
+    void diff(RecordStore right, HashTrie.Differences<RecordID, Record> differences) {
+        byIdentifier.diff(right.byIdentifier, differences);
+    }
+
+    @Override
+    public BaselineDiff diff(Baseline other) {
+        Optional<Baseline> was = Optional.of(this);
+        List<DiffPair<Record>> changes = new ArrayList<>();
+        diff(this, other, (identifier, left, right) -> changes.add(new DiffPair<>(
+                was, Optional.ofNullable(left), other, Optional.ofNullable(right))));
+        return new BaselineDiff(this, other, changes);
+    }
+
+    /**
+     * Report the records that differ between two baselines. Stores are
+     * compared structurally, while other baselines are compared record by
+     * record.
+     *
+     * @param left The baseline to compare from
+     * @param right The baseline to compare to
+     * @param differences Receives each record present in only one baseline,
+     * or present in both with different content
+     */
+    static void diff(
+            Baseline left, Baseline right,
+            HashTrie.Differences<RecordID, Record> differences) {
+        if (left == right) {
+            return;
+        }
+        if (left instanceof RecordStore && right instanceof RecordStore) {
+            ((RecordStore) left).diff((RecordStore) right, differences);
+        } else {
+            left.stream()
+                    .filter(record -> !right.getAnyType(record.getIdentifier()).isPresent())
+                    .forEach(record -> differences.accept(record.getIdentifier(), record, null));
+            right.stream().forEach(record -> {
+                Record old = left.getAnyType(record.getIdentifier()).orElse(null);
+                if (!record.equals(old)) {
+                    differences.accept(record.getIdentifier(), old, record);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the types whose records differ between this store and previous,
+     * including types that have been emptied.
+     *
+     * @param previous The store to compare against
+     * @return The changed types
+     */
+    public Stream<Table> changedTypes(RecordStore previous) {
+        return byType.changedKeys(previous.byType);
+    }
+
+    /**
+     * @return The types with at least one record in this store
+     */
+    public Stream<Table> types() {
+        return byType.keys();
+    }
+
     @Override
     public int size() {
         return byIdentifier.size();
@@ -293,6 +506,13 @@ public class RecordStore implements Baseline {
 
     @Override
     public Baseline mergeRecords(String now, Stream<Record> toMerge, BinaryOperator<Record> mergeFunction) {
+        return mergeRecords(now, toMerge, mergeFunction, null);
+    }
+
+    @CheckReturnValue
+    private RecordStore mergeRecords(
+            String now, Stream<Record> toMerge, BinaryOperator<Record> mergeFunction,
+            @Nullable Object edit) {
         RecordStore result = this;
 
         Iterator<Record> it = toMerge.iterator();
@@ -303,14 +523,14 @@ public class RecordStore implements Baseline {
                 Record next = it.next();
                 Record merged = mergeFunction.apply(current, next);
 
-                result = result.add(merged);
+                result = result.add(merged, edit);
                 if (current.getIdentifier().equals(merged.getIdentifier())) {
-                    result = result.redirectReferences(now, merged.getIdentifier(), current.getIdentifier());
-                    result = result.remove(current.getIdentifier());
+                    result = result.redirectReferences(now, merged.getIdentifier(), current.getIdentifier(), edit);
+                    result = result.removeAll(Stream.of(current.getIdentifier()), edit);
                 }
                 if (next.getIdentifier().equals(merged.getIdentifier())) {
-                    result = result.redirectReferences(now, merged.getIdentifier(), next.getIdentifier());
-                    result = result.remove(next.getIdentifier());
+                    result = result.redirectReferences(now, merged.getIdentifier(), next.getIdentifier(), edit);
+                    result = result.removeAll(Stream.of(next.getIdentifier()), edit);
                 }
             }
         }
@@ -318,15 +538,161 @@ public class RecordStore implements Baseline {
     }
 
     @CheckReturnValue
-    private RecordStore redirectReferences(String now, RecordID toIdentifier, RecordID fromIdentifier) {
-        Iterator<Record.Builder> it = reverseReferences.find(fromIdentifier)
+    private RecordStore redirectReferences(
+            String now, RecordID toIdentifier, RecordID fromIdentifier, @Nullable Object edit) {
+        // Collect before updating, as index nodes may be updated in place
+        List<Record.Builder> builders = reverseReferences.find(fromIdentifier)
                 .map(record -> record.asBuilder().redirectReferences(toIdentifier, fromIdentifier))
-                .iterator();
+                .collect(Collectors.toList());
         RecordStore result = this;
-        while (it.hasNext()) {
-            Record record = it.next().build(now);
-            result = result.add(record);
+        for (Record.Builder builder : builders) {
+            result = result.add(builder.build(now), edit);
         }
         return result;
     }
+
+    @Override
+    public Baseline.Transient asTransient() {
+        return new Transient(this);
+    }
+
+    /**
+     * A RecordStore that is updated in place. Index nodes created by this
+     * object are owned by its edit token, and are updated without copying
+     * until persistent() is called.
+     */
+    private static final class Transient implements Baseline.Transient {
+
+        @Nullable
+        private Object edit = new Object();
+        @Nullable
+        private RecordStore current;
+
+        private Transient(RecordStore initial) {
+            this.current = initial;
+        }
+
+        private RecordStore current() {
+            if (current == null) {
+                throw new IllegalStateException("Transient baseline used after persistent()");
+            }
+            return current;
+        }
+
+        @Override
+        public Baseline persistent() {
+            RecordStore result = current();
+            // Discard the token so that no further in-place updates are made
+            edit = null;
+            current = null;
+            return result;
+        }
+
+        @Override
+        public Optional<Record> get(RecordID identifier, Table type) {
+            return current().get(identifier, type);
+        }
+
+        @Override
+        public Optional<Record> getAnyType(RecordID identifier) {
+            return current().getAnyType(identifier);
+        }
+
+        @Override
+        public Optional<Record> get(Record sample) {
+            return current().get(sample);
+        }
+
+        @Override
+        public Stream<Record> findByType(Table type) {
+            return current().findByType(type);
+        }
+
+        @Override
+        public Stream<Record> findByTrace(Optional<RecordID> parentIdentifier) {
+            return current().findByTrace(parentIdentifier);
+        }
+
+        @Override
+        public Stream<Record> findByTrace(Optional<RecordID> parentIdentifier, Table type) {
+            return current().findByTrace(parentIdentifier, type);
+        }
+
+        @Override
+        public Stream<Record> findByScope(ConnectionScope scope) {
+            return current().findByScope(scope);
+        }
+
+        @Override
+        public Stream<Record> findByScope(ConnectionScope scope, Table type) {
+            return current().findByScope(scope, type);
+        }
+
+        @Override
+        public Stream<Record> findByLongName(String longName) {
+            return current().findByLongName(longName);
+        }
+
+        @Override
+        public <K> Stream<Record> findByIndex(RecordIndex<K> index, K key) {
+            return current().findByIndex(index, key);
+        }
+
+        @Override
+        public Stream<Record> findReverse(RecordID identifier) {
+            return current().findReverse(identifier);
+        }
+
+        @Override
+        public Stream<Record> findReverse(RecordID identifier, Table fromType) {
+            return current().findReverse(identifier, fromType);
+        }
+
+        @Override
+        public Transient add(Record newRecord) {
+            current = current().add(newRecord, edit);
+            return this;
+        }
+
+        @Override
+        public Transient remove(RecordID identifier) {
+            current = current().removeAll(Stream.of(identifier), edit);
+            return this;
+        }
+
+        @Override
+        public int size() {
+            return current().size();
+        }
+
+        @Override
+        public Stream<Record> stream() {
+            return current().stream();
+        }
+
+        @Override
+        public Transient mergeRecords(String now, Stream<Record> toMerge, BinaryOperator<Record> mergeFunction) {
+            current = current().mergeRecords(now, toMerge, mergeFunction, edit);
+            return this;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return current().isEmpty();
+        }
+
+        @Override
+        public BaselineDiff diff(Baseline other) {
+            // The diff keeps the current store, so its nodes must no longer be
+            // updated in place. Later changes copy them under a new token.
+            RecordStore snapshot = current();
+            edit = new Object();
+            return snapshot.diff(other);
+        }
+
+        @Override
+        public Transient asTransient() {
+            return this;
+        }
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable set keyed on index value, with a second index keyed on index
+ * value and record type so that lookups for a single type do not scan the
+ * others.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ * @param <I> Index type
+ */
+public class TypedHashIndex<I> {
+
+    private static final class TypedKey<I> {
+
+        private final I key;
+        private final Table type;
+        private final int hash;
+
+        private TypedKey(I key, Table type) {
+            this.key = key;
+            this.type = type;
+            this.hash = 31 * key.hashCode() + type.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final TypedKey<?> other = (TypedKey<?>) obj;
+            return this.hash == other.hash
+                    && Objects.equals(this.key, other.key)
+                    && Objects.equals(this.type, other.type);
+        }
+    }
+
+    public static <I> TypedHashIndex<I> empty(Function<Record, Stream<I>> bucketExtractor) {
+        return new TypedHashIndex<>(
+                HashIndex.empty(bucketExtractor),
+                HashIndex.empty(record -> bucketExtractor.apply(record)
+                        .map(key -> new TypedKey<>(key, record.getType()))));
+    }
+
+    private final HashIndex<I> byKey;
+    private final HashIndex<TypedKey<I>> byKeyAndType;
+
+    private TypedHashIndex(HashIndex<I> byKey, HashIndex<TypedKey<I>> byKeyAndType) {
+        this.byKey = byKey;
+        this.byKeyAndType = byKeyAndType;
+    }
+
+    public Stream<Record> get(I key) {
+        return byKey.get(key);
+    }
+
+    public Stream<Record> get(I key, Table type) {
+        return byKeyAndType.get(new TypedKey<>(key, type));
+    }
+
+    @CheckReturnValue
+    public TypedHashIndex<I> replace(Optional<Record> wasValue, Record isValue) {
+        return replace(wasValue, isValue, null);
+    }
+
+    @CheckReturnValue
+    TypedHashIndex<I> replace(Optional<Record> wasValue, Record isValue, @Nullable Object edit) {
+        return new TypedHashIndex<>(
+                byKey.replace(wasValue, isValue, edit),
+                byKeyAndType.replace(wasValue, isValue, edit));
+    }
+
+    @CheckReturnValue
+    public TypedHashIndex<I> remove(Record wasValue) {
+        return remove(wasValue, null);
+    }
+
+    @CheckReturnValue
+    TypedHashIndex<I> remove(Record wasValue, @Nullable Object edit) {
+        HashIndex<I> tmpByKey = byKey.remove(wasValue, edit);
+        HashIndex<TypedKey<I>> tmpByKeyAndType = byKeyAndType.remove(wasValue, edit);
+        if (tmpByKey == byKey && tmpByKeyAndType == byKeyAndType) {
+            return this;
+        } else {
+            return new TypedHashIndex<>(tmpByKey, tmpByKeyAndType);
+        }
+    }
+
+    /**
+     * Remove a set of records. Only the buckets the records were indexed under
+     * are visited.
+     *
+     * @param wasValues The records to remove
+     * @return The updated index
+     */
+    @CheckReturnValue
+    public TypedHashIndex<I> removeAll(Stream<Record> wasValues) {
+        return removeAll(wasValues, null);
+    }
+
+    @CheckReturnValue
+    TypedHashIndex<I> removeAll(Stream<Record> wasValues, @Nullable Object edit) {
+        TypedHashIndex<I> result = this;
+        Iterator<Record> it = wasValues.iterator();
+        while (it.hasNext()) {
+            result = result.remove(it.next(), edit);
+        }
+        return result;
+    }
+}
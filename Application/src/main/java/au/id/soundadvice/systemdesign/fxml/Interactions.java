@@ -218,7 +218,8 @@ public class Interactions implements InteractionContext {
             if (selectedDirectory == null) {
                 return false;
             } else {
-                edit.saveTo(CSVStorage.forPath(Paths.get(selectedDirectory.getPath())));
+                edit.saveTo(CSVStorage.forPath(
+                        Paths.get(selectedDirectory.getPath()), edit.getExecutor()));
                 return true;
             }
         } catch (IOException ex) {
@@ -269,7 +270,8 @@ public class Interactions implements InteractionContext {
         if (selectedDirectory == null) {
             return false;
         } else {
-            RecordStorage dir = CSVStorage.forPath(Paths.get(selectedDirectory.getPath()));
+            RecordStorage dir = CSVStorage.forPath(
+                    Paths.get(selectedDirectory.getPath()), edit.getExecutor());
             return tryLoad(edit, dir);
         }
     }
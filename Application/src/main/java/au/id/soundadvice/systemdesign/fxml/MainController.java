@@ -187,7 +187,7 @@ public class MainController implements Initializable {
                 path -> new MenuItem(path.getFileName().toString()),
                 (event, path) -> {
                     if (interactions.checkSave("Save before closing?")) {
-                        interactions.tryLoad(edit, CSVStorage.forPath(path));
+                        interactions.tryLoad(edit, CSVStorage.forPath(path, edit.getExecutor()));
                     }
                     event.consume();
                 },
@@ -33,6 +33,7 @@ import au.id.soundadvice.systemdesign.consistency.AllSuggestions;
 import au.id.soundadvice.systemdesign.consistency.AutoFix;
 import au.id.soundadvice.systemdesign.consistency.EditProblem;
 import au.id.soundadvice.systemdesign.consistency.EditSolution;
+import au.id.soundadvice.systemdesign.consistency.IncrementalTraceProblems;
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
 import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
 import au.id.soundadvice.systemdesign.moduleapi.suggest.Problem;
@@ -83,9 +84,13 @@ public class SuggestionsController {
 
     private final class OnLoad implements BiFunction<WhyHowPair<Baseline>, String, WhyHowPair<Baseline>> {
 
+        // Loaded states are unrelated to the states being edited, so they are
+        // checked separately
+        private final IncrementalTraceProblems traceProblems = new IncrementalTraceProblems();
+
         @Override
         public WhyHowPair<Baseline> apply(WhyHowPair<Baseline> state, String now) {
-            Iterator<Problem> it = AllSuggestions.getUndoProblems(state).iterator();
+            Iterator<Problem> it = AllSuggestions.getUndoProblems(traceProblems, state).iterator();
             // Apply automatic fixes immediately
             while (it.hasNext()) {
                 Problem problem = it.next();
@@ -100,9 +105,11 @@ public class SuggestionsController {
 
     private final class OnChange implements Runnable {
 
+        private final IncrementalTraceProblems traceProblems = new IncrementalTraceProblems();
+
         @Override
         public void run() {
-            Map<EditProblem.Type, List<EditProblem>> newProblems = AllSuggestions.getEditProblems(edit)
+            Map<EditProblem.Type, List<EditProblem>> newProblems = AllSuggestions.getEditProblems(traceProblems, edit)
                     .collect(Collectors.groupingBy(EditProblem::getType));
             // Apply automatic fixes immediately
             Iterator<EditSolution> it = newProblems.getOrDefault(EditProblem.Type.OnChange, Collections.emptyList())
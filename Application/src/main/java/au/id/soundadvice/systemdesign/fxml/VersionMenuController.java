@@ -32,13 +32,18 @@ import au.id.soundadvice.systemdesign.moduleapi.storage.RecordStorage;
 import au.id.soundadvice.systemdesign.state.EditState;
 import au.id.soundadvice.systemdesign.moduleapi.storage.VersionInfo;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.CustomMenuItem;
+import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
+import javafx.scene.control.MenuItem;
 
 /**
  *
@@ -66,6 +71,67 @@ public class VersionMenuController {
         this.diffNoneMenuItem = diffNoneMenuItem;
     }
 
+    private static final int VERSION_PAGE_SIZE = 50;
+
+    private static CheckMenuItem versionItem(EditState edit, VersionInfo info) {
+        CheckMenuItem item = new CheckMenuItem(info.getDescription());
+        if (edit.getDiffBaselineVersion().equals(Optional.of(info))) {
+            item.setSelected(true);
+        }
+        return item;
+    }
+
+    /**
+     * Populate the menu with versions a page at a time, rather than listing
+     * every tag in the repository each time the menu is shown.
+     */
+    private static void startPagedMenu(EditState edit, Menu menu) {
+        MenuItem dummy = new MenuItem("dummy");
+        dummy.setVisible(false);
+        menu.getItems().add(dummy);
+        menu.setOnShowing(showEvent -> {
+            menu.getItems().clear();
+            addPage(edit, menu, 0);
+            if (menu.getItems().isEmpty()) {
+                MenuItem noItems = new MenuItem("None Found");
+                noItems.setDisable(true);
+                menu.getItems().add(noItems);
+            }
+        });
+    }
+
+    private static void addPage(EditState edit, Menu menu, int start) {
+        List<VersionInfo> page;
+        Optional<RecordStorage> storage = edit.getStorage().getChild();
+        try {
+            // Ask for one extra to find out whether there is another page
+            page = storage.isPresent()
+                    ? storage.get().getVersions(start, VERSION_PAGE_SIZE + 1)
+                    : Collections.emptyList();
+        } catch (IOException ex) {
+            LOG.log(Level.WARNING, null, ex);
+            page = Collections.emptyList();
+        }
+        page.stream().limit(VERSION_PAGE_SIZE).forEachOrdered(info -> {
+            MenuItem item = versionItem(edit, info);
+            item.setOnAction(e -> {
+                edit.setDiffVersion(Optional.of(info));
+                e.consume();
+            });
+            menu.getItems().add(item);
+        });
+        if (page.size() > VERSION_PAGE_SIZE) {
+            // Keep the menu open while the next page loads
+            CustomMenuItem more = new CustomMenuItem(new Label("More..."), false);
+            more.setOnAction(e -> {
+                menu.getItems().remove(more);
+                addPage(edit, menu, start + VERSION_PAGE_SIZE);
+                e.consume();
+            });
+            menu.getItems().add(more);
+        }
+    }
+
     private static void startMenu(
             EditState edit, Menu menu,
             Function<RecordStorage, Stream<VersionInfo>> getter) {
@@ -79,13 +145,7 @@ public class VersionMenuController {
                     }
                     return a.getDescription().compareTo(b.getDescription());
                 }),
-                info -> {
-                    CheckMenuItem item = new CheckMenuItem(info.getDescription());
-                    if (edit.getDiffBaselineVersion().equals(Optional.of(info))) {
-                        item.setSelected(true);
-                    }
-                    return item;
-                },
+                info -> versionItem(edit, info),
                 (e, versionInfo) -> {
                     edit.setDiffVersion(Optional.of(versionInfo));
                     e.consume();
@@ -103,14 +163,7 @@ public class VersionMenuController {
                 return Stream.empty();
             }
         });
-        startMenu(edit, diffVersionMenu, storage -> {
-            try {
-                return storage.getVersions();
-            } catch (IOException ex) {
-                LOG.log(Level.WARNING, null, ex);
-                return Stream.empty();
-            }
-        });
+        startPagedMenu(edit, diffVersionMenu);
         diffNoneMenu.setOnShowing(e -> {
             diffNoneMenuItem.setSelected(
                     !edit.getDiffBaselineVersion().isPresent());
@@ -26,21 +26,25 @@
  */
 package au.id.soundadvice.systemdesign.fxml.tree;
 
+import au.id.soundadvice.systemdesign.state.ChangeSet;
 import au.id.soundadvice.systemdesign.state.EditState;
 import au.id.soundadvice.systemdesign.concurrent.JFXExecutor;
 import au.id.soundadvice.systemdesign.concurrent.SingleRunnable;
 import au.id.soundadvice.systemdesign.fxml.ContextMenus;
 import au.id.soundadvice.systemdesign.fxml.Interactions;
 import static au.id.soundadvice.systemdesign.fxml.drawing.DrawingOf.updateElements;
+import au.id.soundadvice.systemdesign.moduleapi.Module;
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
 import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
 import au.id.soundadvice.systemdesign.moduleapi.tree.Tree;
 import au.id.soundadvice.systemdesign.moduleapi.tree.TreeNode;
 import au.id.soundadvice.systemdesign.preferences.Modules;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import javafx.scene.control.Accordion;
@@ -68,9 +72,22 @@ public class FXMLAllTrees {
             JFXExecutor.instance(), new ApplyChange());
     private final Map<RecordID, FXMLTree> currentTrees = new HashMap<>();
     private final AtomicReference<List<Tree>> nextTrees = new AtomicReference<>();
+    /**
+     * The changes not yet handled by onChange, or null to rebuild the trees
+     * regardless.
+     */
+    private final AtomicReference<ChangeSet> pendingChanges = new AtomicReference<>();
+    /**
+     * The trees last built for each module. Only accessed from onChange.
+     */
+    private final Map<Module, List<Tree>> moduleTrees = new HashMap<>();
 
     public void start() {
-        edit.subscribe(onChange);
+        edit.subscribeChanges(changes -> {
+            pendingChanges.accumulateAndGet(changes,
+                    (pending, next) -> pending == null ? next : pending.andThen(next));
+            onChange.run();
+        });
         onChange.run();
     }
 
@@ -83,9 +100,23 @@ public class FXMLAllTrees {
 
         @Override
         public void run() {
+            ChangeSet changes = pendingChanges.getAndSet(null);
+            if (changes != null && changes.isEmpty()) {
+                // Trees are drawn only from the baselines
+                return;
+            }
+            Set<Table> changedTables = changes == null ? null : changes.getTables();
             WhyHowPair<Baseline> baselines = edit.getState();
             List<Tree> drawings = Modules.getModules()
-                    .flatMap(module -> module.getTrees(baselines))
+                    .flatMap(module -> {
+                        List<Tree> trees = moduleTrees.get(module);
+                        if (trees == null || changedTables == null
+                                || changedTables.stream().anyMatch(module::isTreeDrawnFrom)) {
+                            trees = module.getTrees(baselines).collect(Collectors.toList());
+                            moduleTrees.put(module, trees);
+                        }
+                        return trees.stream();
+                    })
                     .collect(Collectors.toList());
             nextTrees.set(drawings);
             applyChange.run();
@@ -40,6 +40,7 @@ import au.id.soundadvice.systemdesign.moduleapi.tree.TreeNode;
 import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
 import java.util.Optional;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import javafx.geometry.Point2D;
 import javafx.scene.control.Accordion;
 import javafx.scene.control.TextField;
@@ -102,6 +103,11 @@ public class FXMLTree implements DrawingOf<Tree> {
 
     @Override
     public void setState(Tree state) {
+        if (state == current) {
+            // The module did not rebuild this tree
+            return;
+        }
+        current = state;
         TreeItem<TreeNode> root = new TreeItem<>();
         root.setExpanded(true);
         updateTreeItem(root, state.getChildren());
@@ -216,4 +222,6 @@ public class FXMLTree implements DrawingOf<Tree> {
     private final Accordion tabs;
     private final TitledPane tab;
     private final TreeView<TreeNode> view;
+    @Nullable
+    private Tree current;
 }
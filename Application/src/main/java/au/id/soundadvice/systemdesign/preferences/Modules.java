@@ -27,6 +27,7 @@
  */
 package au.id.soundadvice.systemdesign.preferences;
 
+import au.id.soundadvice.systemdesign.entity.RecordStore;
 import au.id.soundadvice.systemdesign.moduleapi.Module;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -53,6 +54,17 @@ public class Modules {
         MODULES.stream().forEach(Module::init);
     }
 
+    private static final RecordStore EMPTY_BASELINE
+            = RecordStore.empty(MODULES.stream().flatMap(Module::getIndexes));
+
+    /**
+     * @return An empty baseline that maintains the indexes declared by the
+     * loaded modules
+     */
+    public static RecordStore emptyBaseline() {
+        return EMPTY_BASELINE;
+    }
+
     public static Stream<Module> getModules() {
         return MODULES.stream();
     }
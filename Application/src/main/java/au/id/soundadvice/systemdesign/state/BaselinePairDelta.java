@@ -0,0 +1,71 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.state;
+
+import au.id.soundadvice.systemdesign.entity.RecordDelta;
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
+
+/**
+ * An undo step for EditState, holding the record-level changes to each of
+ * the parent and child baselines.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+final class BaselinePairDelta implements UndoBuffer.Delta<WhyHowPair<Baseline>> {
+
+    static BaselinePairDelta between(
+            WhyHowPair<Baseline> from, WhyHowPair<Baseline> to) {
+        return new BaselinePairDelta(
+                RecordDelta.between(from.getParent(), to.getParent()),
+                RecordDelta.between(from.getChild(), to.getChild()));
+    }
+
+    private BaselinePairDelta(RecordDelta parent, RecordDelta child) {
+        this.parent = parent;
+        this.child = child;
+    }
+    private final RecordDelta parent;
+    private final RecordDelta child;
+
+    @Override
+    public WhyHowPair<Baseline> apply(WhyHowPair<Baseline> newer) {
+        return new WhyHowPair<>(
+                parent.apply(newer.getParent()),
+                child.apply(newer.getChild()));
+    }
+
+    @Override
+    public int size() {
+        return parent.size() + child.size();
+    }
+
+    @Override
+    public String toString() {
+        return "parent " + parent + ", child " + child;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.state;
+
+import au.id.soundadvice.systemdesign.entity.RecordChanges;
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The changes to the parent and child baselines covered by a change
+ * notification from EditState. The record identifiers affected are found
+ * when first asked for, by comparing the two states structurally.
+ *
+ * A change set may be empty: notifications are also sent when something
+ * other than the baselines changes, such as the directory or the diff
+ * baseline.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public final class ChangeSet {
+
+    ChangeSet(WhyHowPair<Baseline> previous, WhyHowPair<Baseline> current) {
+        this.previous = previous;
+        this.current = current;
+    }
+    private final WhyHowPair<Baseline> previous;
+    private final WhyHowPair<Baseline> current;
+    private final AtomicReference<WhyHowPair<RecordChanges>> changes = new AtomicReference<>();
+    private final AtomicReference<Set<Table>> tables = new AtomicReference<>();
+
+    /**
+     * @return The state as of the previous notification
+     */
+    public WhyHowPair<Baseline> getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return The state as of this notification
+     */
+    public WhyHowPair<Baseline> getCurrent() {
+        return current;
+    }
+
+    /**
+     * Combine this change set with the one that followed it, for subscribers
+     * that handle several notifications at once.
+     *
+     * @param next The change set published after this one
+     * @return A change set covering both
+     */
+    public ChangeSet andThen(ChangeSet next) {
+        return new ChangeSet(previous, next.current);
+    }
+
+    public RecordChanges getParent() {
+        return get().getParent();
+    }
+
+    public RecordChanges getChild() {
+        return get().getChild();
+    }
+
+    public RecordChanges get(WhyHowPair.Selector selector) {
+        return get().get(selector);
+    }
+
+    private WhyHowPair<RecordChanges> get() {
+        WhyHowPair<RecordChanges> result = changes.get();
+        if (result == null) {
+            result = new WhyHowPair<>(
+                    RecordChanges.between(previous.getParent(), current.getParent()),
+                    RecordChanges.between(previous.getChild(), current.getChild()));
+            changes.compareAndSet(null, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return The types of the records added, removed or modified in either
+     * baseline
+     */
+    public Set<Table> getTables() {
+        Set<Table> result = tables.get();
+        if (result == null) {
+            Set<Table> found = new HashSet<>();
+            for (WhyHowPair.Selector selector : WhyHowPair.Selector.values()) {
+                Baseline was = previous.get(selector);
+                Baseline is = current.get(selector);
+                get(selector).stream().forEach(identifier -> {
+                    Optional<Record> record = is.getAnyType(identifier);
+                    if (!record.isPresent()) {
+                        record = was.getAnyType(identifier);
+                    }
+                    record.ifPresent(changed -> found.add(changed.getType()));
+                });
+            }
+            result = Collections.unmodifiableSet(found);
+            tables.compareAndSet(null, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if neither baseline has changed
+     */
+    public boolean isEmpty() {
+        return previous == current || previous.equals(current);
+    }
+
+    @Override
+    public String toString() {
+        return "parent " + getParent() + ", child " + getChild();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.state;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.entity.TableFactory;
+import au.id.soundadvice.systemdesign.moduleapi.storage.RecordStorage;
+import au.id.soundadvice.systemdesign.moduleapi.storage.VersionInfo;
+import au.id.soundadvice.systemdesign.storage.FileStorage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javafx.util.Pair;
+
+/**
+ * Historical baselines loaded from version control, keyed by version id and
+ * directory. Versions are immutable so entries never go stale. The cache is
+ * bounded by entry count and by the total number of records held, evicting
+ * the least recently used baseline first.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+final class DiffBaselineCache {
+
+    private static final Logger LOG = Logger.getLogger(DiffBaselineCache.class.getName());
+
+    private static final int MAX_ENTRIES = 8;
+    private static final long MAX_RECORDS = 1000000;
+    /**
+     * The number of most recent tags to prefetch alongside the default
+     * baseline.
+     */
+    private static final int PREFETCH_VERSIONS = 3;
+
+    DiffBaselineCache(TableFactory factory) {
+        this(factory, MAX_ENTRIES, MAX_RECORDS);
+    }
+
+    DiffBaselineCache(TableFactory factory, int maxEntries, long maxRecords) {
+        this.factory = factory;
+        this.maxEntries = maxEntries;
+        this.maxRecords = maxRecords;
+    }
+
+    private final TableFactory factory;
+    private final int maxEntries;
+    private final long maxRecords;
+
+    /**
+     * A background load of a directory's versions. Cancelling it skips any
+     * versions not yet started, and done completes once it has stopped.
+     */
+    private static final class Prefetch {
+
+        private final RecordStorage storage;
+        private volatile boolean cancelled = false;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Prefetch(RecordStorage storage) {
+            this.storage = storage;
+        }
+    }
+
+    private static final class MustLock {
+
+        private final Map<Pair<String, Path>, CompletableFuture<Baseline>> entries
+                = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<Pair<String, Path>, Integer> sizes = new HashMap<>();
+        private long records = 0;
+        private final List<Prefetch> prefetches = new ArrayList<>();
+
+        private List<Prefetch> cancel(RecordStorage storage) {
+            List<Prefetch> result = new ArrayList<>();
+            for (Prefetch prefetch : prefetches) {
+                if (prefetch.storage.equals(storage)) {
+                    prefetch.cancelled = true;
+                    result.add(prefetch);
+                }
+            }
+            return result;
+        }
+
+        private void evict(int maxEntries, long maxRecords) {
+            Iterator<Map.Entry<Pair<String, Path>, CompletableFuture<Baseline>>> it
+                    = entries.entrySet().iterator();
+            // Never evict the most recently used entry
+            int remaining = entries.size();
+            while ((entries.size() > maxEntries || records > maxRecords) && remaining > 1) {
+                Map.Entry<Pair<String, Path>, CompletableFuture<Baseline>> entry = it.next();
+                --remaining;
+                Integer size = sizes.remove(entry.getKey());
+                if (size != null) {
+                    // Loaded, rather than still loading
+                    records -= size;
+                    it.remove();
+                }
+            }
+        }
+    }
+    private final MustLock mustLock = new MustLock();
+
+    /**
+     * Load a historical baseline, returning the cached copy if we have one.
+     *
+     * @param storage The directory to load
+     * @param version The version of that directory to load
+     * @return The baseline
+     * @throws IOException If the baseline could not be loaded
+     */
+    Baseline load(RecordStorage storage, VersionInfo version) throws IOException {
+        if (!(storage instanceof FileStorage)) {
+            return storage.loadBaseline(factory, Optional.of(version.getId()));
+        }
+        Pair<String, Path> key = new Pair<>(
+                version.getId(), ((FileStorage) storage).getPath().toAbsolutePath());
+        CompletableFuture<Baseline> future;
+        boolean mustLoad;
+        synchronized (mustLock) {
+            future = mustLock.entries.get(key);
+            mustLoad = future == null;
+            if (mustLoad) {
+                future = new CompletableFuture<>();
+                mustLock.entries.put(key, future);
+            }
+        }
+        if (mustLoad) {
+            try {
+                Baseline baseline = storage.loadBaseline(factory, Optional.of(version.getId()));
+                synchronized (mustLock) {
+                    if (mustLock.entries.get(key) == future) {
+                        mustLock.sizes.put(key, baseline.size());
+                        mustLock.records += baseline.size();
+                        mustLock.evict(maxEntries, maxRecords);
+                    }
+                }
+                future.complete(baseline);
+            } catch (IOException | RuntimeException ex) {
+                synchronized (mustLock) {
+                    mustLock.entries.remove(key, future);
+                }
+                future.completeExceptionally(ex);
+            }
+        }
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Load the default baseline and the most recent tags of storage in the
+     * background, so that switching the diff version to them is immediate.
+     * Any earlier prefetch of the same storage is cancelled, so at most one
+     * runs per directory.
+     *
+     * @param executor The executor to load on
+     * @param storage The directory whose versions to load
+     */
+    void prefetch(Executor executor, RecordStorage storage) {
+        if (!(storage instanceof FileStorage) || !storage.isVersionControlled()) {
+            return;
+        }
+        Prefetch prefetch = new Prefetch(storage);
+        synchronized (mustLock) {
+            mustLock.cancel(storage);
+            mustLock.prefetches.add(prefetch);
+        }
+        executor.execute(() -> {
+            try {
+                Stream.concat(
+                        storage.getDefaultBaseline().map(Stream::of).orElse(Stream.empty()),
+                        storage.getVersions(0, PREFETCH_VERSIONS).stream())
+                        .distinct()
+                        .collect(Collectors.toList())
+                        .forEach(version -> {
+                            if (prefetch.cancelled) {
+                                return;
+                            }
+                            try {
+                                load(storage, version);
+                            } catch (IOException | RuntimeException ex) {
+                                LOG.log(Level.WARNING, null, ex);
+                            }
+                        });
+            } catch (IOException | RuntimeException ex) {
+                LOG.log(Level.WARNING, null, ex);
+            } finally {
+                synchronized (mustLock) {
+                    mustLock.prefetches.remove(prefetch);
+                }
+                prefetch.done.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Cancel any prefetch of storage. A version already being loaded is
+     * left to finish, so storage must not be closed until the returned
+     * future completes. The caller is never blocked.
+     *
+     * @param storage The directory that is about to be closed
+     * @return Completes once no prefetch is reading from storage
+     */
+    CompletableFuture<Void> cancelPrefetch(RecordStorage storage) {
+        List<Prefetch> cancelled;
+        synchronized (mustLock) {
+            cancelled = mustLock.cancel(storage);
+        }
+        return CompletableFuture.allOf(cancelled.stream()
+                .map(prefetch -> prefetch.done)
+                .toArray(CompletableFuture<?>[]::new));
+    }
+}
@@ -48,14 +48,18 @@ import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.EmptyStackException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Stack;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.function.UnaryOperator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javafx.util.Pair;
@@ -86,8 +90,8 @@ public class EditState {
     }
 
     private static WhyHowPair<Baseline> newBaseline(String now) {
-        RecordStore parent = RecordStore.empty();
-        RecordStore child = RecordStore.empty();
+        RecordStore parent = Modules.emptyBaseline();
+        RecordStore child = Modules.emptyBaseline();
         child = child.add(Identity.create("System Context", now));
         WhyHowPair<Baseline> state = new WhyHowPair<>(parent, child);
         state = AutoFix.onLoad(state, now);
@@ -124,9 +128,11 @@ public class EditState {
             WhyHowPair<Baseline> undo,
             boolean alreadySaved) {
         this.storage = new AtomicReference<>(currentDirectory);
-        this.undo = new UndoBuffer<>(undo);
+        this.undo = new UndoBuffer<>(undo, UNDO_POLICY);
         this.executor = executor;
         this.changed = new Changed(executor);
+        this.lastPublished = new AtomicReference<>(undo);
+        this.changed.subscribe(this::publishChanges);
         if (alreadySaved) {
             this.savedState = new AtomicReference<>(undo);
         } else {
@@ -153,7 +159,7 @@ public class EditState {
                             } catch (IOException ex) {
                                 throw new UncheckedIOException(ex);
                             }
-                        }).orElse(RecordStore.empty()));
+                        }).orElse(Modules.emptyBaseline()));
                 if (Identity.findAll(state.getChild()).findAny().isPresent()) {
                     newSaved = newSaved
                             .setChild(newSaved.getParent())
@@ -192,7 +198,7 @@ public class EditState {
                     .setChild(newParentDir.get().getChild(systemOfInterest.getIdentifier()));
             state = state
                     .setParent(state.getChild())
-                    .setChild(RecordStore.empty());
+                    .setChild(Modules.emptyBaseline());
             Record parentIdentity = Identity.get(state.getParent());
             Record childIdentity = Identity.create(parentIdentity, systemOfInterest, now);
             if (newStorage.getChild().isPresent()) {
@@ -204,7 +210,7 @@ public class EditState {
                             } catch (IOException ex) {
                                 throw new UncheckedIOException(ex);
                             }
-                        }).orElse(RecordStore.empty()));
+                        }).orElse(Modules.emptyBaseline()));
             } else {
                 newStorage = newStorage.setChild(Optional.of(newParentDir.get().createChild(childIdentity)));
             }
@@ -244,7 +250,7 @@ public class EditState {
                     if (dir.isPresent()) {
                         return dir.get().loadBaseline(tableFactories, Optional.empty());
                     } else {
-                        return RecordStore.empty();
+                        return Modules.emptyBaseline();
                     }
                 } catch (IOException ex) {
                     throw new UncheckedIOException(ex);
@@ -306,16 +312,16 @@ public class EditState {
                 Stream<Record> toRestore = Stream.concat(
                         followForeignKeysUp(was, record.get()),
                         followForeignKeysDown(was, record.get()));
-                Baseline is = state.getChild();
+                Baseline.Transient is = state.getChild().asTransient();
                 Iterator<Record> it = toRestore.iterator();
                 while (it.hasNext()) {
                     Record candidate = it.next();
                     Optional<Record> existing = is.get(candidate);
                     if (!existing.isPresent()) {
-                        is = is.add(candidate);
+                        is.add(candidate);
                     }
                 }
-                state = state.setChild(is);
+                state = state.setChild(is.persistent());
                 // Rely on autofix behaviours to resolve any conflicts that arose
                 state = AutoFix.onLoad(state, now);
             }
@@ -327,27 +333,33 @@ public class EditState {
         return lastChildIdentity.peek();
     }
 
+    /**
+     * Close storage once any diff baseline prefetch reading from it has
+     * stopped, without waiting for that here.
+     */
+    private void closeAfterPrefetch(RecordStorage old) {
+        diffBaselines.cancelPrefetch(old).thenRun(() -> {
+            try {
+                old.close();
+            } catch (IOException ex) {
+                Logger.getLogger(EditState.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        });
+    }
+
     private void setStorage(WhyHowPair<Optional<RecordStorage>> newStorage) {
         WhyHowPair<Optional<RecordStorage>> oldStorage = this.storage.getAndSet(newStorage);
         // Close any unused storage objects
         if (oldStorage.getParent().isPresent()) {
             RecordStorage old = oldStorage.getParent().get();
             if (newStorage.stream().noneMatch(n -> n.isPresent() && n.get().equals(old))) {
-                try {
-                    old.close();
-                } catch (IOException ex) {
-                    Logger.getLogger(EditState.class.getName()).log(Level.SEVERE, null, ex);
-                }
+                closeAfterPrefetch(old);
             }
         }
         if (oldStorage.getChild().isPresent()) {
             RecordStorage old = oldStorage.getChild().get();
             if (newStorage.stream().noneMatch(n -> n.isPresent() && n.get().equals(old))) {
-                try {
-                    old.close();
-                } catch (IOException ex) {
-                    Logger.getLogger(EditState.class.getName()).log(Level.SEVERE, null, ex);
-                }
+                closeAfterPrefetch(old);
             }
         }
     }
@@ -373,6 +385,33 @@ public class EditState {
     }
     private final AllTables tableFactories = new AllTables(
             Modules.getModules().flatMap(Module::getTables));
+    private final DiffBaselineCache diffBaselines = new DiffBaselineCache(tableFactories);
+    /**
+     * Whether to load the default baseline and recent versions in the
+     * background whenever a directory is loaded or saved.
+     */
+    private static final boolean PREFETCH_DIFF_BASELINES
+            = Preferences.userNodeForPackage(EditState.class)
+            .getBoolean("prefetchDiffBaselines", true);
+
+    private static final Preferences UNDO_PREFERENCES
+            = Preferences.userNodeForPackage(EditState.class);
+    /**
+     * Undo steps beyond the most recent few are held as record-level deltas,
+     * and the oldest steps are dropped once either the depth or the number
+     * of records held in deltas exceeds its limit. Out of range preferences
+     * are clamped to the nearest limit the buffer accepts.
+     */
+    private static final UndoBuffer.Policy<WhyHowPair<Baseline>> UNDO_POLICY
+            = new UndoBuffer.Policy<>(
+                    Math.max(0, UNDO_PREFERENCES.getInt("undoMaxDepth", 1000)),
+                    Math.max(1, UNDO_PREFERENCES.getInt("undoSnapshots", 16)),
+                    Math.max(0, UNDO_PREFERENCES.getLong("undoMaxDeltaRecords", 1000000)),
+                    BaselinePairDelta::between);
+
+    public UndoBuffer.Statistics getUndoStatistics() {
+        return undo.getStatistics();
+    }
 
     public boolean saveNeeded() {
         return !undo.get().equals(savedState.get());
@@ -384,6 +423,9 @@ public class EditState {
 
     private void loadVersionControl(Optional<RecordStorage> dir) {
         loadDiffBaseline(dir, diffVersion.get());
+        if (PREFETCH_DIFF_BASELINES && dir.isPresent()) {
+            diffBaselines.prefetch(executor, dir.get());
+        }
     }
 
     public void save() throws IOException {
@@ -400,16 +442,31 @@ public class EditState {
 
     private void saveToImpl(WhyHowPair<Optional<RecordStorage>> dir) throws IOException {
         WhyHowPair<Baseline> state = undo.get();
-        dir.getChild().get().saveBaseline(state.getChild());
+        // Only rewrite changed tables if this same storage was written by the
+        // last save. Otherwise the files may not match any state we hold.
+        Optional<WhyHowPair<Baseline>> previous = lastWritten.get()
+                .filter(written -> written.getKey() == dir)
+                .map(Pair::getValue);
+        lastWritten.set(Optional.empty());
+        if (previous.isPresent()) {
+            dir.getChild().get().saveBaseline(state.getChild(), previous.get().getChild());
+        } else {
+            dir.getChild().get().saveBaseline(state.getChild());
+        }
         Baseline parent = state.getParent();
         Optional<RecordStorage> parentDir = dir.getParent();
         if (!parent.isEmpty() && parentDir.isPresent()) {
             try (RecordStorage parentDirActual = parentDir.get()) {
-                parentDirActual.saveBaseline(parent);
+                if (previous.isPresent()) {
+                    parentDirActual.saveBaseline(parent, previous.get().getParent());
+                } else {
+                    parentDirActual.saveBaseline(parent);
+                }
             }
         }
         setStorage(dir);
         savedState.set(state);
+        lastWritten.set(Optional.of(new Pair<>(dir, state)));
         loadVersionControl(dir.getChild());
     }
 
@@ -434,7 +491,7 @@ public class EditState {
             Optional<RecordStorage> storage, Optional<VersionInfo> version) {
         if (storage.isPresent() && version.isPresent()) {
             try {
-                Baseline was = storage.get().loadBaseline(tableFactories, version.map(VersionInfo::getId));
+                Baseline was = diffBaselines.load(storage.get(), version.get());
                 diffBaseline.set(Optional.of(new Pair<>(version.get(), was)));
             } catch (IOException ex) {
                 LOG.log(Level.WARNING, null, ex);
@@ -454,8 +511,21 @@ public class EditState {
     private final UndoBuffer<WhyHowPair<Baseline>> undo;
     private final Executor executor;
     private final AtomicReference<WhyHowPair<Baseline>> savedState;
+    /**
+     * The storage most recently saved to, and the state written to it.
+     */
+    private final AtomicReference<Optional<Pair<WhyHowPair<Optional<RecordStorage>>, WhyHowPair<Baseline>>>> lastWritten
+            = new AtomicReference<>(Optional.empty());
     private final Changed changed;
 
+    /**
+     * The state as of the last change set published. Notifications are
+     * delivered one round at a time, so consecutive change sets chain
+     * together without gaps.
+     */
+    private final AtomicReference<WhyHowPair<Baseline>> lastPublished;
+    private final List<Consumer<ChangeSet>> changeSubscribers = new CopyOnWriteArrayList<>();
+
     public void subscribe(Runnable subscriber) {
         changed.subscribe(subscriber);
     }
@@ -464,6 +534,29 @@ public class EditState {
         changed.unsubscribe(subscriber);
     }
 
+    /**
+     * Subscribe to change notifications along with the changes to each
+     * baseline since the previous notification.
+     *
+     * @param subscriber Receives the change set for each notification
+     */
+    public void subscribeChanges(Consumer<ChangeSet> subscriber) {
+        changeSubscribers.add(subscriber);
+    }
+
+    public void unsubscribeChanges(Consumer<ChangeSet> subscriber) {
+        changeSubscribers.remove(subscriber);
+    }
+
+    private void publishChanges() {
+        WhyHowPair<Baseline> current = undo.get();
+        WhyHowPair<Baseline> previous = lastPublished.getAndSet(current);
+        ChangeSet changes = new ChangeSet(previous, current);
+        for (Consumer<ChangeSet> subscriber : changeSubscribers) {
+            subscriber.accept(changes);
+        }
+    }
+
     /**
      * Rename the current directory.
      *
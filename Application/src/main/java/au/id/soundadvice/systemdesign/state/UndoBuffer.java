@@ -26,13 +26,19 @@
  */
 package au.id.soundadvice.systemdesign.state;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.function.BiFunction;
 import java.util.function.UnaryOperator;
+import javax.annotation.Nullable;
 
 /**
- * Model an infinite undo buffer as we might find any any GUI editor app.
+ * Model an undo buffer as we might find any any GUI editor app. The most
+ * recent states are kept in full. Older states are compacted into deltas
+ * against their newer neighbour according to the buffer's policy, and the
+ * oldest states are discarded once the policy's limits are reached.
  *
  * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
  * @param <T> The type contained in the buffer
@@ -40,12 +46,147 @@ import java.util.function.UnaryOperator;
 public class UndoBuffer<T> {
 
     /**
-     * Construct with an initial state.
+     * The changes needed to reproduce an older state from a newer one.
+     *
+     * @param <T> The type contained in the buffer
+     */
+    public interface Delta<T> {
+
+        /**
+         * Reproduce the older state.
+         *
+         * @param newer The state the delta was taken from
+         * @return The state the delta was taken to
+         */
+        T apply(T newer);
+
+        /**
+         * The memory retained by this delta, in whatever unit the policy's
+         * budget is expressed in.
+         *
+         * @return The size of the delta
+         */
+        int size();
+    }
+
+    /**
+     * How much history to retain, and how to compact it.
+     *
+     * @param <T> The type contained in the buffer
+     */
+    public static final class Policy<T> {
+
+        private static final Policy<?> UNBOUNDED = new Policy<>(
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, null);
+
+        /**
+         * Keep every state in full, forever.
+         *
+         * @param <T> The type contained in the buffer
+         * @return The policy
+         */
+        public static <T> Policy<T> unbounded() {
+            return (Policy<T>) UNBOUNDED;
+        }
+
+        /**
+         * Construct a bounded policy.
+         *
+         * @param maxDepth The maximum number of undo steps, and separately of
+         * redo steps, to retain
+         * @param snapshots The number of most recent undo and redo steps to
+         * keep in full
+         * @param maxDeltaSize The total size of compacted deltas to retain in
+         * each of the undo and redo histories
+         * @param diff Find the delta that reproduces its second argument from
+         * its first
+         * @throws IllegalArgumentException If snapshots is less than one, as
+         * the newest step must be held in full for the steps below it to be
+         * compacted against, or if either limit is negative
+         */
+        public Policy(
+                int maxDepth, int snapshots, long maxDeltaSize,
+                @Nullable BiFunction<T, T, Delta<T>> diff) {
+            if (maxDepth < 0 || snapshots < 1 || maxDeltaSize < 0) {
+                throw new IllegalArgumentException(
+                        "maxDepth=" + maxDepth + " snapshots=" + snapshots
+                        + " maxDeltaSize=" + maxDeltaSize);
+            }
+            this.maxDepth = maxDepth;
+            this.snapshots = snapshots;
+            this.maxDeltaSize = maxDeltaSize;
+            this.diff = diff;
+        }
+        private final int maxDepth;
+        private final int snapshots;
+        private final long maxDeltaSize;
+        @Nullable
+        private final BiFunction<T, T, Delta<T>> diff;
+    }
+
+    /**
+     * The amount of history retained by a buffer.
+     */
+    public static final class Statistics {
+
+        private Statistics(
+                int undoDepth, int redoDepth, int snapshots, long deltaSize) {
+            this.undoDepth = undoDepth;
+            this.redoDepth = redoDepth;
+            this.snapshots = snapshots;
+            this.deltaSize = deltaSize;
+        }
+        private final int undoDepth;
+        private final int redoDepth;
+        private final int snapshots;
+        private final long deltaSize;
+
+        public int getUndoDepth() {
+            return undoDepth;
+        }
+
+        public int getRedoDepth() {
+            return redoDepth;
+        }
+
+        /**
+         * @return The number of undo and redo steps held in full
+         */
+        public int getSnapshots() {
+            return snapshots;
+        }
+
+        /**
+         * @return The total size of the undo and redo steps held as deltas
+         */
+        public long getDeltaSize() {
+            return deltaSize;
+        }
+
+        @Override
+        public String toString() {
+            return "undo=" + undoDepth + " redo=" + redoDepth
+                    + " snapshots=" + snapshots + " deltaSize=" + deltaSize;
+        }
+    }
+
+    /**
+     * Construct an unbounded buffer with an initial state.
      *
      * @param state The current state.
      */
     public UndoBuffer(T state) {
-        this.mustLock = new MustLock(state);
+        this(state, Policy.unbounded());
+    }
+
+    /**
+     * Construct with an initial state.
+     *
+     * @param state The current state.
+     * @param policy How much history to retain
+     */
+    public UndoBuffer(T state, Policy<T> policy) {
+        this.mustLock = new MustLock<>(state, policy);
     }
 
     public void reset(T state) {
@@ -56,13 +197,123 @@ public class UndoBuffer<T> {
         }
     }
 
+    /**
+     * A step in the history: either a full state, or a delta against the
+     * state of the step above it.
+     */
+    private static final class Step<T> {
+
+        Step(T state) {
+            this.state = state;
+            this.delta = null;
+        }
+
+        Step(Delta<T> delta) {
+            this.state = null;
+            this.delta = delta;
+        }
+        @Nullable
+        private final T state;
+        @Nullable
+        private final Delta<T> delta;
+
+        T get(T newer) {
+            return state == null ? delta.apply(newer) : state;
+        }
+    }
+
+    /**
+     * A stack of states, newest last. Each delta step reproduces its state
+     * from the state above it, or from the buffer's current state for the top
+     * step. That holds as steps are pushed and popped, as the state pushed is
+     * always the current state and the state popped always becomes the
+     * current state.
+     */
+    private static final class History<T> {
+
+        History(Policy<T> policy) {
+            this.policy = policy;
+        }
+        private final Policy<T> policy;
+        private final List<Step<T>> steps = new ArrayList<>();
+        // Every step below this index is a delta
+        private int fullFrom = 0;
+        private long deltaSize = 0;
+
+        boolean isEmpty() {
+            return steps.isEmpty();
+        }
+
+        int size() {
+            return steps.size();
+        }
+
+        int snapshots() {
+            return steps.size() - fullFrom;
+        }
+
+        long deltaSize() {
+            return deltaSize;
+        }
+
+        void clear() {
+            steps.clear();
+            fullFrom = 0;
+            deltaSize = 0;
+        }
+
+        void push(T state) {
+            steps.add(new Step<>(state));
+            compact();
+        }
+
+        T pop(T current) {
+            if (steps.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Step<T> step = steps.remove(steps.size() - 1);
+            if (step.delta != null) {
+                deltaSize -= step.delta.size();
+            }
+            fullFrom = Math.min(fullFrom, steps.size());
+            return step.get(current);
+        }
+
+        private void compact() {
+            if (policy.diff != null) {
+                // Each step is compacted once, when it falls out of the
+                // window of snapshots. The step above it is still in full.
+                while (snapshots() > policy.snapshots) {
+                    T older = steps.get(fullFrom).state;
+                    T newer = steps.get(fullFrom + 1).state;
+                    Delta<T> delta = policy.diff.apply(newer, older);
+                    steps.set(fullFrom, new Step<>(delta));
+                    deltaSize += delta.size();
+                    ++fullFrom;
+                }
+            }
+            // Dropping the oldest step leaves the others valid, as each one
+            // only depends on steps above it
+            while (steps.size() > policy.maxDepth
+                    || (deltaSize > policy.maxDeltaSize && fullFrom > 0)) {
+                Step<T> oldest = steps.remove(0);
+                if (oldest.delta != null) {
+                    deltaSize -= oldest.delta.size();
+                    --fullFrom;
+                }
+            }
+        }
+    }
+
     private static final class MustLock<T> {
 
-        MustLock(T state) {
+        MustLock(T state, Policy<T> policy) {
             this.currentState = state;
+            this.undoBuffer = new History<>(policy);
+            this.redoBuffer = new History<>(policy);
         }
-        private final Deque<T> undoBuffer = new ArrayDeque<>();
-        private final Deque<T> redoBuffer = new ArrayDeque<>();
+        private final History<T> undoBuffer;
+        private final History<T> redoBuffer;
         private T currentState;
     };
     private final MustLock<T> mustLock;
@@ -79,32 +330,49 @@ public class UndoBuffer<T> {
         }
     }
 
-    private void mustLockSet(T state) {
-        boolean differs = !Objects.equals(state, mustLock.currentState);
+    /**
+     * States are persistent structures, so an update that changes nothing
+     * normally hands back the very same instance. Check for that before
+     * falling back to equals(), which only has to walk the parts of the two
+     * states that are not shared.
+     */
+    private static <T> boolean same(T left, T right) {
+        return left == right || Objects.equals(left, right);
+    }
+
+    /**
+     * @return true if the state was changed
+     */
+    private boolean mustLockSet(T state) {
+        boolean differs = !same(state, mustLock.currentState);
         if (differs) {
             mustLock.undoBuffer.push(mustLock.currentState);
             mustLock.redoBuffer.clear();
             mustLock.currentState = state;
         }
+        return differs;
     }
 
     public boolean compareAndSet(T expect, T state) {
-        boolean matched;
         synchronized (mustLock) {
-            matched = expect.equals(mustLock.currentState);
-            if (matched) {
+            if (same(expect, mustLock.currentState)) {
                 mustLockSet(state);
+                return true;
+            } else {
+                return false;
             }
         }
-        return matched;
     }
 
     public final boolean update(UnaryOperator<T> update) {
         for (;;) {
             T oldState = get();
             T newState = update.apply(oldState);
-            if (compareAndSet(oldState, newState)) {
-                return !oldState.equals(newState);
+            synchronized (mustLock) {
+                // Usually nothing else has changed the state since we read it
+                if (same(oldState, mustLock.currentState)) {
+                    return mustLockSet(newState);
+                }
             }
         }
     }
@@ -132,7 +400,7 @@ public class UndoBuffer<T> {
     public T undo() {
         T state;
         synchronized (mustLock) {
-            state = mustLock.undoBuffer.pop();
+            state = mustLock.undoBuffer.pop(mustLock.currentState);
             mustLock.redoBuffer.push(mustLock.currentState);
             mustLock.currentState = state;
         }
@@ -142,11 +410,20 @@ public class UndoBuffer<T> {
     public T redo() {
         T state;
         synchronized (mustLock) {
-            state = mustLock.redoBuffer.pop();
+            state = mustLock.redoBuffer.pop(mustLock.currentState);
             mustLock.undoBuffer.push(mustLock.currentState);
             mustLock.currentState = state;
         }
         return state;
     }
 
+    public Statistics getStatistics() {
+        synchronized (mustLock) {
+            return new Statistics(
+                    mustLock.undoBuffer.size(),
+                    mustLock.redoBuffer.size(),
+                    mustLock.undoBuffer.snapshots() + mustLock.redoBuffer.snapshots(),
+                    mustLock.undoBuffer.deltaSize() + mustLock.redoBuffer.deltaSize());
+        }
+    }
 }
@@ -33,20 +33,31 @@ import au.id.soundadvice.systemdesign.entity.RecordStore;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.storage.RecordStorage;
 import au.id.soundadvice.systemdesign.physical.entity.Identity;
+import au.id.soundadvice.systemdesign.preferences.Modules;
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Identifiable;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import au.id.soundadvice.systemdesign.moduleapi.entity.References;
 import au.id.soundadvice.systemdesign.moduleapi.storage.VersionInfo;
+import au.id.soundadvice.systemdesign.storage.files.FileDigests;
 import au.id.soundadvice.systemdesign.storage.files.RecordReader;
 import au.id.soundadvice.systemdesign.storage.files.SaveTransaction;
+import au.id.soundadvice.systemdesign.storage.files.SysrecReader;
 import au.id.soundadvice.systemdesign.storage.versioning.IdentityValidator;
 import au.id.soundadvice.systemdesign.storage.versioning.VersionControl;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +65,11 @@ import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -63,7 +79,11 @@ import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
 import au.id.soundadvice.systemdesign.moduleapi.entity.TableFactory;
 import au.id.soundadvice.systemdesign.storage.versioning.NullVersionControl;
 import au.id.soundadvice.systemdesign.storage.versioning.jgit.GitVersionControl;
-import java.util.SortedMap;
+import java.util.Set;
+import java.util.SortedSet;
+import javax.annotation.Nullable;
+import java.util.TreeSet;
+import java.util.function.Predicate;
 
 /**
  *
@@ -77,21 +97,55 @@ public class CSVStorage implements FileStorage, IdentityValidator {
 
     private static final String IDENTITY_FILE = Identity.identity.name() + EXT;
 
+    /**
+     * Digests of the files we have written, per storage directory, so that
+     * unchanged tables can be detected without reading them back.
+     */
+    private static final ConcurrentMap<Path, FileDigests> DIGESTS = new ConcurrentHashMap<>();
+
     private final VersionControl vcs;
     private final Path path;
-
+    private final FileDigests digests;
+    private final Executor io;
+
+    /**
+     * Storage that writes its table files one at a time on the saving thread.
+     *
+     * @param path The directory to store tables in
+     * @return The storage
+     */
     public static CSVStorage forPath(Path path) {
+        return forPath(path, Runnable::run);
+    }
+
+    /**
+     * Storage that writes its table files concurrently. Storage for parent
+     * and child directories uses the same executor.
+     *
+     * @param path The directory to store tables in
+     * @param io The executor to write files on. A save waits for its writes,
+     * so this must not be a bounded pool that the save itself runs on.
+     * @return The storage
+     */
+    public static CSVStorage forPath(Path path, Executor io) {
         try {
             VersionControl vcs = new GitVersionControl(path);
-            return new CSVStorage(vcs, path);
+            return new CSVStorage(vcs, path, io);
         } catch (IOException ex) {
-            return new CSVStorage(new NullVersionControl(), path);
+            return new CSVStorage(new NullVersionControl(), path, io);
         }
     }
 
-    private CSVStorage(VersionControl vcs, Path path) {
+    CSVStorage(VersionControl vcs, Path path) {
+        this(vcs, path, Runnable::run);
+    }
+
+    CSVStorage(VersionControl vcs, Path path, Executor io) {
         this.vcs = vcs;
         this.path = path;
+        this.io = io;
+        this.digests = DIGESTS.computeIfAbsent(
+                path.toAbsolutePath().normalize(), key -> new FileDigests());
     }
 
     private Optional<String[]> readLine(CSVReader reader) throws IOException {
@@ -106,6 +160,7 @@ public class CSVStorage implements FileStorage, IdentityValidator {
     private Stream<Record> loadRecords(Table type, CSVReader reader) throws IOException {
         Optional<String[]> header = readLine(reader);
         if (header.isPresent()) {
+            Record.Loader loader = new Record.Loader(type, header.get());
             for (;;) {
                 Iterator<String[]> iterator = new Iterator<String[]>() {
                     Optional<String[]> nextLine = readLine(reader);
@@ -132,17 +187,7 @@ public class CSVStorage implements FileStorage, IdentityValidator {
                 };
 
                 return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
-                        .map(line -> {
-                            int linelen = Math.min(line.length, header.get().length);
-                            Map<String, String> values = new HashMap<>();
-                            for (int ii = 0; ii < linelen; ++ii) {
-                                values.put(header.get()[ii], line[ii]);
-                            }
-                            for (int ii = linelen; ii < header.get().length; ++ii) {
-                                values.put(header.get()[ii], "");
-                            }
-                            return Record.load(type, values);
-                        });
+                        .map(loader::load);
 
             }
         } else {
@@ -152,24 +197,35 @@ public class CSVStorage implements FileStorage, IdentityValidator {
 
     @Override
     public Baseline loadBaseline(TableFactory factory, Optional<String> label) throws IOException {
+        List<String> filenames = vcs.listFiles(this, label)
+                .filter(filename -> filename.endsWith(EXT))
+                .collect(Collectors.toList());
         try {
+            // Rows stream straight into the store without being buffered per
+            // file; each file is closed by flatMap once its rows have been
+            // consumed.
             return RecordStore.valueOf(
-                    vcs.listFiles(this, label)
+                    Modules.emptyBaseline(),
+                    filenames.stream()
                     .<Record>flatMap(filename -> {
-                        if (filename.endsWith(EXT)) {
-                            String typename = filename.substring(
-                                    0, filename.length() - EXT.length());
-                            try (
-                                    BufferedReader reader = vcs.getBufferedReader(this, filename, label);
-                                    CSVReader csv = new CSVReader(reader)) {
-                                // Collect and re-stream before try-with-resources exits
-                                List<Record> list = loadRecords(factory.apply(typename), csv).collect(Collectors.toList());
-                                return list.stream();
+                        String typename = filename.substring(
+                                0, filename.length() - EXT.length());
+                        try {
+                            CSVReader csv = new SysrecReader(
+                                    vcs.getBufferedReader(this, filename, label));
+                            try {
+                                return loadRecords(factory.apply(typename), csv)
+                                        .onClose(() -> close(csv));
                             } catch (IOException ex) {
-                                throw new UncheckedIOException(ex);
+                                try {
+                                    csv.close();
+                                } catch (IOException suppressed) {
+                                    ex.addSuppressed(suppressed);
+                                }
+                                throw ex;
                             }
-                        } else {
-                            return Stream.empty();
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
                         }
                     }));
         } catch (UncheckedIOException ex) {
@@ -177,56 +233,182 @@ public class CSVStorage implements FileStorage, IdentityValidator {
         }
     }
 
+    private static void close(CSVReader csv) {
+        try {
+            csv.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Returns the value of the named column, matching the layout of
+     * Record.getAllFields() without building a map per record.
+     */
+    private static String getColumn(Record record, String key, @Nullable String reference) {
+        if (Identifiable.IDENTIFIER.equals(key)) {
+            return record.getIdentifier().toString();
+        } else if (reference != null) {
+            return record.getRef(reference).map(RecordID::toString).orElse("");
+        } else {
+            Optional<String> field = record.getField(key);
+            if (field.isPresent()) {
+                return field.get();
+            } else {
+                return record.getMetaField(key).orElse("");
+            }
+        }
+    }
+
     private static void saveRecords(SaveTransaction transaction, Path csv, List<Record> records) throws IOException {
-        String[] headers = records.stream()
-                .flatMap(record -> record.getAllFieldNames())
-                .distinct().sorted()
-                .toArray(String[]::new);
+        SortedSet<String> headerSet = new TreeSet<>();
+        for (Record record : records) {
+            record.getAllFieldNames().forEach(headerSet::add);
+        }
+        String[] headers = headerSet.toArray(new String[headerSet.size()]);
+        String[] references = new String[headers.length];
+        for (int ii = 0; ii < headers.length; ++ii) {
+            if (headers[ii].startsWith(References.PREFIX)) {
+                references[ii] = headers[ii].substring(References.PREFIX.length());
+            }
+        }
+        Record[] sorted = records.toArray(new Record[records.size()]);
+        Arrays.sort(sorted, (left, right) -> left.getIdentifier().compareTo(right.getIdentifier()));
+
         Path directory = csv.getParent();
         Path tempFile = Files.createTempFile(directory, null, null);
         transaction.addJob(csv, tempFile);
-        try (CSVWriter writer = new CSVWriter(Files.newBufferedWriter(tempFile))) {
+        MessageDigest digest = FileDigests.newDigest();
+        try (CSVWriter writer = new CSVWriter(new BufferedWriter(
+                new OutputStreamWriter(
+                        new DigestOutputStream(Files.newOutputStream(tempFile), digest),
+                        StandardCharsets.UTF_8),
+                WRITE_BUFFER_SIZE))) {
             writer.writeNext(headers);
-            records.stream()
-                    .sorted((left, right) -> left.getIdentifier().compareTo(right.getIdentifier()))
-                    .forEachOrdered(record -> {
-                        SortedMap<String, String> allFields = record.getAllFields();
-                        writer.writeNext(
-                                Stream.of(headers)
-                                .map(key -> allFields.getOrDefault(key, ""))
-                                .toArray(String[]::new)
-                        );
-                    });
+            // The writer copies each row out before returning
+            String[] row = new String[headers.length];
+            for (Record record : sorted) {
+                for (int ii = 0; ii < headers.length; ++ii) {
+                    row[ii] = getColumn(record, headers[ii], references[ii]);
+                }
+                writer.writeNext(row);
+            }
         }
+        transaction.setDigest(tempFile, digest.digest());
     }
 
     @Override
     public void saveBaseline(Baseline baseline) throws IOException {
+        Map<String, List<Record>> types = baseline.stream()
+                // Collect for saving
+                .collect(Collectors.groupingBy(
+                        record -> record.getType().getTableName()));
+        saveTables(baseline, types, typename -> true);
+    }
+
+    @Override
+    public void saveBaseline(Baseline baseline, Baseline previous) throws IOException {
+        if (baseline instanceof RecordStore && previous instanceof RecordStore) {
+            RecordStore store = (RecordStore) baseline;
+            Set<String> changedNames = store.changedTypes((RecordStore) previous)
+                    .map(Table::getTableName)
+                    .collect(Collectors.toCollection(HashSet::new));
+            // A table edited, checked out or deleted on disk since the last
+            // save no longer matches previous, so it is written as well.
+            Set<String> names = store.types()
+                    .map(Table::getTableName)
+                    .collect(Collectors.toSet());
+            for (String name : names) {
+                if (!changedNames.contains(name)
+                        && !digests.isCurrent(path.resolve(name + EXT))) {
+                    changedNames.add(name);
+                }
+            }
+            try {
+                // Other table files that appeared on disk are cleared out, as
+                // a full save would
+                vcs.listFiles(this, Optional.empty())
+                        .filter(filename -> filename.endsWith(EXT))
+                        .map(filename -> filename.substring(0, filename.length() - EXT.length()))
+                        .filter(name -> !names.contains(name))
+                        .forEach(name -> {
+                            try {
+                                if (!digests.isCurrent(path.resolve(name + EXT))) {
+                                    changedNames.add(name);
+                                }
+                            } catch (IOException ex) {
+                                throw new UncheckedIOException(ex);
+                            }
+                        });
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+            if (changedNames.isEmpty()) {
+                return;
+            }
+            Map<String, List<Record>> types = store.types()
+                    .filter(type -> changedNames.contains(type.getTableName()))
+                    .flatMap(baseline::findByType)
+                    .collect(Collectors.groupingBy(
+                            record -> record.getType().getTableName()));
+            saveTables(baseline, types, changedNames::contains);
+        } else {
+            saveBaseline(baseline);
+        }
+    }
+
+    /**
+     * Write the nominated tables.
+     *
+     * @param baseline The whole baseline being saved
+     * @param types The records of each table to write
+     * @param dirty Tables to delete the file of if they have no records
+     */
+    private void saveTables(
+            Baseline baseline, Map<String, List<Record>> types, Predicate<String> dirty)
+            throws IOException {
         if (baseline.size() > 1 || Files.isDirectory(path)) {
             Files.createDirectories(path);
-            try (SaveTransaction transaction = new SaveTransaction(vcs)) {
-                Map<String, List<Record>> types = baseline.stream()
-                        // Collect for saving
-                        .collect(Collectors.groupingBy(
-                                record -> record.getType().getTableName()));
-                // Save each type
-                types.entrySet().stream().forEach(entry -> {
-                    Path csv = path.resolve(entry.getKey() + EXT);
-                    try {
-                        saveRecords(transaction, csv, entry.getValue());
-                    } catch (IOException ex) {
-                        throw new UncheckedIOException(ex);
+            try (SaveTransaction transaction = new SaveTransaction(vcs, digests)) {
+                // Save each type, writing the files concurrently on the io
+                // executor rather than the common pool. Every write
+                // finishes before a failure is reported, so the transaction is
+                // never closed under a writer that is still running.
+                List<CompletableFuture<Void>> writes = types.entrySet().stream()
+                        .map(entry -> CompletableFuture.runAsync(() -> {
+                            Path csv = path.resolve(entry.getKey() + EXT);
+                            try {
+                                saveRecords(transaction, csv, entry.getValue());
+                            } catch (IOException ex) {
+                                throw new UncheckedIOException(ex);
+                            }
+                        }, io))
+                        .collect(Collectors.toList());
+                try {
+                    CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+                } catch (CompletionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
                     }
-                });
+                    throw ex;
+                }
                 // Delete files for unpopulated types
                 vcs.listFiles(this, Optional.empty())
                         .forEach((String filename) -> {
                             if (filename.endsWith(EXT)) {
                                 String typename = filename.substring(
                                         0, filename.length() - EXT.length());
-                                if (!types.containsKey(typename)) {
+                                if (dirty.test(typename) && !types.containsKey(typename)) {
                                     try {
+                                        // A job whose temp file is missing
+                                        // deletes the real file on commit
                                         Path tempFile = Files.createTempFile(path, null, null);
+                                        Files.delete(tempFile);
                                         transaction.addJob(path.resolve(filename), tempFile);
                                     } catch (IOException ex) {
                                         throw new UncheckedIOException(ex);
@@ -246,7 +428,7 @@ public class CSVStorage implements FileStorage, IdentityValidator {
     public Optional<RecordStorage> getParent() {
         Path parentPath = path.getParent();
         VersionControl parentVcs = VersionControl.forPath(parentPath);
-        return Optional.of(new CSVStorage(parentVcs, parentPath));
+        return Optional.of(new CSVStorage(parentVcs, parentPath, io));
     }
 
     @Override
@@ -265,7 +447,7 @@ public class CSVStorage implements FileStorage, IdentityValidator {
                     .findAny()
                     .map(childPath -> {
                         VersionControl parentVcs = VersionControl.forPath(path);
-                        return new CSVStorage(parentVcs, childPath);
+                        return new CSVStorage(parentVcs, childPath, io);
                     });
         }
     }
@@ -285,7 +467,7 @@ public class CSVStorage implements FileStorage, IdentityValidator {
         if (path.equals(from)) {
             vcs.renameDirectory(from, to);
             VersionControl toVcs = VersionControl.forPath(to);
-            return new CSVStorage(toVcs, to);
+            return new CSVStorage(toVcs, to, io);
         }
         return this;
     }
@@ -307,7 +489,7 @@ public class CSVStorage implements FileStorage, IdentityValidator {
     }
 
     public static Optional<Record> getIdentity(BufferedReader buffered) throws IOException {
-        try (CSVReader csvreader = new CSVReader(buffered);
+        try (CSVReader csvreader = new SysrecReader(buffered);
                 RecordReader reader = new RecordReader(Identity.identity, csvreader)) {
             return reader.read();
         }
@@ -340,6 +522,11 @@ public class CSVStorage implements FileStorage, IdentityValidator {
         return vcs.getVersions();
     }
 
+    @Override
+    public List<VersionInfo> getVersions(int start, int count) throws IOException {
+        return vcs.getVersions(start, count);
+    }
+
     @Override
     public void commit(String message) throws IOException {
         vcs.commit(message);
@@ -351,7 +538,7 @@ public class CSVStorage implements FileStorage, IdentityValidator {
         return result.orElseGet(() -> {
             Path childPath = path.resolve(identityRecord.getLongName());
             VersionControl childvcs = VersionControl.forPath(childPath);
-            return new CSVStorage(childvcs, childPath);
+            return new CSVStorage(childvcs, childPath, io);
         });
     }
 
@@ -0,0 +1,166 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.storage.files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the content digest of files we have written or compared, so that
+ * a later save can tell whether a freshly written file differs from the one
+ * on disk without reading the on-disk copy again. A cached digest is only
+ * trusted while the file's modification time, size and file key are
+ * unchanged.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public final class FileDigests {
+
+    private static final String ALGORITHM = "SHA-1";
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static final class Entry {
+
+        private final FileTime lastModified;
+        private final long size;
+        @Nullable
+        private final Object fileKey;
+        private final byte[] digest;
+
+        private Entry(BasicFileAttributes attributes, byte[] digest) {
+            this.lastModified = attributes.lastModifiedTime();
+            this.size = attributes.size();
+            this.fileKey = attributes.fileKey();
+            this.digest = digest;
+        }
+
+        private boolean isCurrent(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && lastModified.equals(attributes.lastModifiedTime())
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+    private final ConcurrentMap<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    private static Optional<BasicFileAttributes> readAttributes(Path file) throws IOException {
+        try {
+            return Optional.of(Files.readAttributes(file, BasicFileAttributes.class));
+        } catch (NoSuchFileException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Return the digest of the file's current content, reading the file only
+     * if it has changed since we last saw it.
+     *
+     * @param file The file to digest
+     * @return The digest, or empty if the file does not exist
+     * @throws IOException If the file could not be read
+     */
+    public Optional<byte[]> get(Path file) throws IOException {
+        Optional<BasicFileAttributes> attributes = readAttributes(file);
+        if (!attributes.isPresent()) {
+            entries.remove(file);
+            return Optional.empty();
+        }
+        Entry entry = entries.get(file);
+        if (entry != null && entry.isCurrent(attributes.get())) {
+            return Optional.of(entry.digest);
+        }
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            while (in.read(buffer) >= 0) {
+                // Read until EOF
+            }
+        }
+        byte[] result = digest.digest();
+        entries.put(file, new Entry(attributes.get(), result));
+        return Optional.of(result);
+    }
+
+    /**
+     * Check that a file is still as it was when we last wrote or digested it,
+     * without reading it.
+     *
+     * @param file The file to check
+     * @return true if a digest is cached for the file and its modification
+     * time, size and file key are unchanged since
+     * @throws IOException If the file's attributes could not be read
+     */
+    public boolean isCurrent(Path file) throws IOException {
+        Entry entry = entries.get(file);
+        if (entry == null) {
+            return false;
+        }
+        Optional<BasicFileAttributes> attributes = readAttributes(file);
+        return attributes.isPresent() && entry.isCurrent(attributes.get());
+    }
+
+    /**
+     * Record the digest of content that has just been written to file.
+     *
+     * @param file The file written
+     * @param digest The digest of the content written
+     * @throws IOException If the file's attributes could not be read
+     */
+    public void put(Path file, byte[] digest) throws IOException {
+        Optional<BasicFileAttributes> attributes = readAttributes(file);
+        if (attributes.isPresent()) {
+            entries.put(file, new Entry(attributes.get(), digest));
+        } else {
+            entries.remove(file);
+        }
+    }
+
+    public void remove(Path file) {
+        entries.remove(file);
+    }
+}
@@ -32,14 +32,20 @@ import au.com.bytecode.opencsv.CSVWriter;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
 import au.id.soundadvice.systemdesign.moduleapi.entity.References;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -111,7 +117,8 @@ public class Merge {
                     String cell;
                     if (headerName.startsWith(References.PREFIX)) {
                         String headerSuffix = headerName.substring(References.PREFIX.length());
-                        cell = record.get().getRef(headerSuffix).toString();
+                        cell = record.get().getRef(headerSuffix)
+                                .map(RecordID::toString).orElse("");
                     } else {
                         cell = meta.get(headerName);
                         if (cell == null) {
@@ -127,11 +134,26 @@ public class Merge {
         };
     }
 
-    public static void threeWayCSV(
+    /**
+     * Merge three sorted record files into out.
+     *
+     * @return The number of records that both sides changed differently, each
+     * of which has been resolved field by field in favour of the newer side
+     */
+    public static int threeWayCSV(
             RecordReader ancestorReader, RecordReader leftReader, RecordReader rightReader,
             CSVWriter out, String now) throws IOException {
-        Function<Triplet<Optional<Record>>, Optional<Record>> boundRecordMerger
-                = triplet -> mergeRecord(triplet, now);
+        AtomicInteger conflicts = new AtomicInteger();
+        Function<Triplet<Optional<RecordReader.Line>>, Optional<RecordReader.Line>> boundRecordMerger
+                = triplet -> {
+                    // Only now do we need to look inside the records
+                    conflicts.incrementAndGet();
+                    return mergeRecord(new Triplet<>(
+                            triplet.ancestor.map(RecordReader.Line::getRecord),
+                            triplet.left.map(RecordReader.Line::getRecord),
+                            triplet.right.map(RecordReader.Line::getRecord)), now)
+                            .map(RecordReader.Line::of);
+                };
 
         try {
             List<String> allFields = Stream.concat(
@@ -140,54 +162,191 @@ public class Merge {
                     .distinct()
                     .sorted()
                     .collect(Collectors.toList());
-            out.writeNext(allFields.toArray(new String[0]));
+            String[] outHeader = allFields.toArray(new String[0]);
+            out.writeNext(outHeader);
             Consumer<Optional<Record>> outWriter = getMapWriter(out, allFields);
 
-            Optional<Record> ancestorNext;
-            Optional<Record> leftNext;
-            Optional<Record> rightNext;
+            Optional<RecordReader.Line> ancestorNext;
+            Optional<RecordReader.Line> leftNext;
+            Optional<RecordReader.Line> rightNext;
 
             /*
              * Populate state variables. Files should be sorted in identifier
              * order so we should be able to do this in constant space
              */
-            ancestorNext = ancestorReader.read();
-            leftNext = leftReader.read();
-            rightNext = rightReader.read();
+            ancestorNext = ancestorReader.readForMerge();
+            leftNext = leftReader.readForMerge();
+            rightNext = rightReader.readForMerge();
 
             for (;;) {
                 Optional<RecordID> currentIdentifier = min(
-                        ancestorNext.map(Record::getIdentifier),
-                        leftNext.map(Record::getIdentifier),
-                        rightNext.map(Record::getIdentifier));
+                        ancestorNext.map(RecordReader.Line::getIdentifier),
+                        leftNext.map(RecordReader.Line::getIdentifier),
+                        rightNext.map(RecordReader.Line::getIdentifier));
                 if (!currentIdentifier.isPresent()) {
                     // Done.
                     break;
                 }
-                Optional<Record> ancestorCurrent = ancestorNext.filter(
-                        record -> record.getIdentifier().equals(currentIdentifier.get()));
-                Optional<Record> leftCurrent = leftNext.filter(
-                        record -> record.getIdentifier().equals(currentIdentifier.get()));
-                Optional<Record> rightCurrent = rightNext.filter(
-                        record -> record.getIdentifier().equals(currentIdentifier.get()));
-                Optional<Record> result = merge(ancestorCurrent, leftCurrent, rightCurrent,
+                Optional<RecordReader.Line> ancestorCurrent = ancestorNext.filter(
+                        line -> line.getIdentifier().equals(currentIdentifier.get()));
+                Optional<RecordReader.Line> leftCurrent = leftNext.filter(
+                        line -> line.getIdentifier().equals(currentIdentifier.get()));
+                Optional<RecordReader.Line> rightCurrent = rightNext.filter(
+                        line -> line.getIdentifier().equals(currentIdentifier.get()));
+                Optional<RecordReader.Line> result = merge(ancestorCurrent, leftCurrent, rightCurrent,
                         boundRecordMerger);
 
-                outWriter.accept(result);
+                if (result.isPresent()) {
+                    Optional<String[]> cells = result.get().getCells(outHeader);
+                    if (cells.isPresent()) {
+                        out.writeNext(cells.get());
+                    } else {
+                        outWriter.accept(Optional.of(result.get().getRecord()));
+                    }
+                }
 
                 if (ancestorCurrent.isPresent()) {
-                    ancestorNext = ancestorReader.read();
+                    ancestorNext = ancestorReader.readForMerge();
                 }
                 if (leftCurrent.isPresent()) {
-                    leftNext = leftReader.read();
+                    leftNext = leftReader.readForMerge();
                 }
                 if (rightCurrent.isPresent()) {
-                    rightNext = rightReader.read();
+                    rightNext = rightReader.readForMerge();
                 }
             }
         } catch (UncheckedIOException ex) {
             throw ex.getCause();
         }
+        return conflicts.get();
+    }
+
+    /**
+     * Merge three record files, writing the result to output. Output may be
+     * one of the inputs: it is only replaced once the merge is complete.
+     *
+     * @return The number of conflicting records, as for threeWayCSV
+     */
+    public static int threeWayFiles(
+            Path ancestorFile, Path leftFile, Path rightFile, Path outputFile,
+            String now) throws IOException {
+        Path directory = outputFile.toAbsolutePath().getParent();
+        Path tmpFile = Files.createTempFile(directory, "merge", "");
+        try {
+            Table dummyType = new Table.Default("");
+            int conflicts;
+            try (
+                    BufferedReader ancestor = Files.newBufferedReader(ancestorFile);
+                    BufferedReader left = Files.newBufferedReader(leftFile);
+                    BufferedReader right = Files.newBufferedReader(rightFile);
+                    CSVReader ancestorCSVReader = new SysrecReader(ancestor);
+                    CSVReader leftCSVReader = new SysrecReader(left);
+                    CSVReader rightCSVReader = new SysrecReader(right);
+                    RecordReader ancestorReader = new RecordReader(dummyType, ancestorCSVReader);
+                    RecordReader leftReader = new RecordReader(dummyType, leftCSVReader);
+                    RecordReader rightReader = new RecordReader(dummyType, rightCSVReader);
+                    CSVWriter out = new CSVWriter(Files.newBufferedWriter(tmpFile))) {
+                conflicts = threeWayCSV(ancestorReader, leftReader, rightReader, out, now);
+            }
+            Files.move(tmpFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            return conflicts;
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * One file to merge in a batch.
+     */
+    public static final class FileMerge {
+
+        public FileMerge(Path ancestor, Path left, Path right, Path output) {
+            this.ancestor = ancestor;
+            this.left = left;
+            this.right = right;
+            this.output = output;
+        }
+
+        public Path getAncestor() {
+            return ancestor;
+        }
+
+        public Path getLeft() {
+            return left;
+        }
+
+        public Path getRight() {
+            return right;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+
+        private final Path ancestor;
+        private final Path left;
+        private final Path right;
+        private final Path output;
+    }
+
+    /**
+     * The outcome of merging one file in a batch.
+     */
+    public static final class FileMergeResult {
+
+        private FileMergeResult(FileMerge merge, int conflicts, Optional<Exception> error) {
+            this.merge = merge;
+            this.conflicts = conflicts;
+            this.error = error;
+        }
+
+        public FileMerge getMerge() {
+            return merge;
+        }
+
+        public int getConflicts() {
+            return conflicts;
+        }
+
+        public Optional<Exception> getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            if (error.isPresent()) {
+                return merge.output + ": failed: " + error.get();
+            } else {
+                return merge.output + ": " + conflicts + " conflicting records";
+            }
+        }
+
+        private final FileMerge merge;
+        private final int conflicts;
+        private final Optional<Exception> error;
+    }
+
+    /**
+     * Merge many files at once, in parallel. A failure to merge one file does
+     * not prevent the others from being merged.
+     *
+     * @param merges The files to merge
+     * @param now The timestamp to give merged records
+     * @return The outcome of each merge, in the order given
+     */
+    public static List<FileMergeResult> threeWayBatch(List<FileMerge> merges, String now) {
+        return merges.parallelStream()
+                .map(merge -> {
+                    try {
+                        int conflicts = threeWayFiles(
+                                merge.ancestor, merge.left, merge.right, merge.output, now);
+                        return new FileMergeResult(merge, conflicts, Optional.empty());
+                    } catch (IOException | RuntimeException ex) {
+                        // Malformed input can fail anywhere in the merge
+                        return new FileMergeResult(merge, 0, Optional.of(ex));
+                    }
+                })
+                .collect(Collectors.toList());
     }
 
     public static <T> T merge(
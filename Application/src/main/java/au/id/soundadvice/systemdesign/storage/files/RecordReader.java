@@ -28,18 +28,21 @@
 package au.id.soundadvice.systemdesign.storage.files;
 
 import au.com.bytecode.opencsv.CSVReader;
+import au.id.soundadvice.systemdesign.moduleapi.entity.MetaFields;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
+import javax.annotation.Nullable;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
 
 /**
@@ -50,13 +53,137 @@ public class RecordReader implements AutoCloseable {
 
     private final CSVReader csvreader;
     private final String[] header;
-    private final Table recordType;
+    private final Record.Loader loader;
+    private final int identifierColumn;
+    private final int lastChangeColumn;
 
     public RecordReader(Table recordType, CSVReader csvreader) throws IOException {
-        this.recordType = recordType;
         this.csvreader = csvreader;
 
         this.header = readLine(csvreader).orElse(new String[0]);
+        this.loader = new Record.Loader(recordType, header);
+        List<String> columns = Arrays.asList(header);
+        this.identifierColumn = columns.indexOf(MetaFields.identifier.name());
+        this.lastChangeColumn = columns.indexOf(MetaFields.lastChange.name());
+    }
+
+    /**
+     * A line read for merging. Its Record is only built if the merge needs to
+     * look inside it, so lines that are the same in every input can be
+     * compared and written out without loading them.
+     */
+    static final class Line {
+
+        private Line(@Nullable RecordReader reader, @Nullable String[] cells,
+                RecordID identifier, int fingerprint, @Nullable Record record) {
+            this.reader = reader;
+            this.cells = cells;
+            this.identifier = identifier;
+            this.fingerprint = fingerprint;
+            this.record = record;
+        }
+
+        /**
+         * A line holding the result of merging conflicting lines.
+         */
+        static Line of(Record record) {
+            return new Line(null, null, record.getIdentifier(), 0, record);
+        }
+
+        @Nullable
+        private final RecordReader reader;
+        @Nullable
+        private final String[] cells;
+        private final RecordID identifier;
+        private final int fingerprint;
+        @Nullable
+        private Record record;
+
+        RecordID getIdentifier() {
+            return identifier;
+        }
+
+        Record getRecord() {
+            if (record == null) {
+                assert reader != null && cells != null;
+                record = reader.lineToRecord(cells);
+            }
+            return record;
+        }
+
+        /**
+         * Return the cells of this line if they can be written unchanged under
+         * the header supplied.
+         */
+        Optional<String[]> getCells(String[] outputHeader) {
+            if (reader == null || cells == null
+                    || reader.lastChangeColumn < 0 || cells[reader.lastChangeColumn].isEmpty()
+                    || !Arrays.equals(reader.header, outputHeader)) {
+                return Optional.empty();
+            } else {
+                return Optional.of(cells);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return identifier.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Line other = (Line) obj;
+            if (!identifier.equals(other.identifier)) {
+                return false;
+            }
+            if (reader != null && other.reader != null && cells != null && other.cells != null
+                    && Arrays.equals(reader.header, other.reader.header)
+                    && fingerprint == other.fingerprint && Arrays.equals(cells, other.cells)) {
+                // Same layout and cells, so the records are equal
+                return true;
+            }
+            /*
+             * Different cells can still load as equal records, eg an empty
+             * lastChange loads as the epoch. Compare as Record.equals does.
+             */
+            return getRecord().equals(other.getRecord());
+        }
+    }
+
+    /**
+     * Read the next line without necessarily building its record.
+     *
+     * @return The line, or empty at the end of the file
+     * @throws IOException If the file could not be read
+     */
+    Optional<Line> readForMerge() throws IOException {
+        Optional<String[]> optLine = readLine(csvreader);
+        if (!optLine.isPresent()) {
+            return Optional.empty();
+        }
+        String[] cells = optLine.get();
+        if (cells.length != header.length) {
+            // Missing cells are empty, and extra cells are ignored on load
+            int length = cells.length;
+            cells = Arrays.copyOf(cells, header.length);
+            for (int ii = length; ii < cells.length; ++ii) {
+                cells[ii] = "";
+            }
+        }
+        if (identifierColumn < 0 || cells[identifierColumn].isEmpty()) {
+            // Loading will assign an identifier, so load now to find it
+            Record record = lineToRecord(cells);
+            return Optional.of(new Line(this, cells, record.getIdentifier(), 0, record));
+        }
+        return Optional.of(new Line(
+                this, cells, RecordID.load(cells[identifierColumn]).get(),
+                Arrays.hashCode(cells), null));
     }
 
     @Override
@@ -105,12 +232,7 @@ public class RecordReader implements AutoCloseable {
     }
 
     Record lineToRecord(String[] line) {
-        Map<String, String> fields = new HashMap<>();
-        int commonLength = Math.min(header.length, line.length);
-        for (int ii = 0; ii < commonLength; ++ii) {
-            fields.put(header[ii], line[ii]);
-        }
-        return Record.load(recordType, fields);
+        return loader.load(line);
     }
 
     private static Optional<String[]> readLine(CSVReader csvreader) throws IOException {
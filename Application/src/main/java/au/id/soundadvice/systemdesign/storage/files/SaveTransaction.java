@@ -34,7 +34,12 @@ import java.nio.file.Path;
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
 
 /**
  * A crude two-phase commit. It doesn't guarantee atomicity but will generally
@@ -48,7 +53,18 @@ import java.util.List;
 public class SaveTransaction implements Closeable {
 
     public SaveTransaction(VersionControl versionControl) {
+        this(versionControl, new FileDigests());
+    }
+
+    /**
+     * Create a transaction that consults and maintains a digest cache.
+     *
+     * @param versionControl The version control to notify of changed files
+     * @param digests Digests of the real files, reused between transactions
+     */
+    public SaveTransaction(VersionControl versionControl, FileDigests digests) {
         this.versionControl = versionControl;
+        this.digests = digests;
     }
 
     private static final class Job {
@@ -60,32 +76,73 @@ public class SaveTransaction implements Closeable {
 
         private final Path realFile;
         private final Path tempFile;
+        @Nullable
+        private byte[] digest = null;
     }
     private final List<Job> mustLockJobs = new ArrayList<>();
+    private final Map<Path, Job> byTempFile = new HashMap<>();
     private final VersionControl versionControl;
+    private final FileDigests digests;
 
     public synchronized void addJob(Path realFile, Path tempFile) {
-        mustLockJobs.add(new Job(realFile, tempFile));
+        Job job = new Job(realFile, tempFile);
+        mustLockJobs.add(job);
+        byTempFile.put(tempFile, job);
+    }
+
+    /**
+     * Record the digest of a temp file's content as it was written. Commit
+     * compares it against the cached digest of the real file rather than
+     * comparing the two files' content.
+     *
+     * @param tempFile The temp file of a job already added
+     * @param digest The digest of everything written to tempFile
+     */
+    public synchronized void setDigest(Path tempFile, byte[] digest) {
+        Job job = byTempFile.get(tempFile);
+        if (job == null) {
+            throw new IllegalArgumentException(tempFile.toString());
+        }
+        job.digest = digest;
+    }
+
+    /**
+     * When the new content's digest is known it decides the question alone:
+     * a mismatch means the file is rewritten, even if it differs only in its
+     * line endings, so neither file is read again beyond digesting a real
+     * file we have not seen before. Without a digest the files are compared
+     * line by line.
+     */
+    private boolean isUnchanged(Job job) throws IOException {
+        if (job.digest != null) {
+            Optional<byte[]> current = digests.get(job.realFile);
+            return current.isPresent() && Arrays.equals(current.get(), job.digest);
+        }
+        return FileUtils.contentEquals(job.tempFile, job.realFile);
     }
 
     public synchronized void commit() throws IOException {
         List<Path> changed = new ArrayList<>();
         for (Job job : mustLockJobs) {
             if (Files.exists(job.tempFile)) {
-                if (FileUtils.contentEquals(job.tempFile, job.realFile)) {
+                if (isUnchanged(job)) {
                     // Don't overwrite if identical. Delete temp file in close.
                 } else {
                     Files.move(job.tempFile, job.realFile, REPLACE_EXISTING, ATOMIC_MOVE);
+                    if (job.digest == null) {
+                        digests.remove(job.realFile);
+                    } else {
+                        digests.put(job.realFile, job.digest);
+                    }
                     changed.add(job.realFile);
                 }
             } else {
                 Files.deleteIfExists(job.realFile);
+                digests.remove(job.realFile);
                 changed.add(job.realFile);
             }
         }
-        for (Path path : changed) {
-            versionControl.changed(path);
-        }
+        versionControl.changed(changed);
     }
 
     @Override
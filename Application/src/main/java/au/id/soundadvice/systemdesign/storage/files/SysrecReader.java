@@ -0,0 +1,324 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.storage.files;
+
+import au.com.bytecode.opencsv.CSVParser;
+import au.com.bytecode.opencsv.CSVReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A CSVReader for .sysrec files that tokenizes straight out of its character
+ * buffer. Lines are never copied into a String of their own, and a field is
+ * copied out of the buffer once, as a single String, unless it contains
+ * escapes.
+ *
+ * It reproduces the parsing rules of opencsv 2.3's CSVReader with default
+ * settings exactly, quirks included: a backslash escapes a following quote
+ * or backslash inside a field and is otherwise dropped, a doubled quote in a
+ * quoted field is a literal quote, and a quoted field may span lines. The
+ * field state carries over from one line to the next as it does in
+ * CSVParser.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class SysrecReader extends CSVReader {
+
+    private static final char SEPARATOR = CSVParser.DEFAULT_SEPARATOR;
+    private static final char QUOTE = CSVParser.DEFAULT_QUOTE_CHARACTER;
+    private static final char ESCAPE = CSVParser.DEFAULT_ESCAPE_CHARACTER;
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    public SysrecReader(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create a reader with a given initial buffer size. The buffer grows as
+     * needed to hold the longest line.
+     *
+     * @param reader The source of characters
+     * @param bufferSize The initial buffer size in characters
+     */
+    public SysrecReader(Reader reader, int bufferSize) {
+        // The superclass only holds the reader so that close() will close it
+        super(reader);
+        this.reader = reader;
+        this.buf = new char[bufferSize];
+    }
+
+    private final Reader reader;
+    private char[] buf;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    // The current line is buf[lineStart, lineEnd)
+    private int lineStart;
+    private int lineEnd;
+
+    // Parser state, as in CSVParser
+    @Nullable
+    private String pending = null;
+    private boolean inField = false;
+
+    // The token being built: a span of buf until it needs to go to sb
+    private final List<String> tokens = new ArrayList<>();
+    private final StringBuilder sb = new StringBuilder();
+    private boolean useSb = false;
+    private int spanStart = -1;
+    private int spanEnd = -1;
+
+    /**
+     * Read more characters, keeping buf[keepFrom, limit).
+     *
+     * @return The amount buf's contents were shifted left by
+     */
+    private int fill(int keepFrom) throws IOException {
+        int keep = limit - keepFrom;
+        if (keep == buf.length) {
+            char[] grown = new char[buf.length * 2];
+            System.arraycopy(buf, keepFrom, grown, 0, keep);
+            buf = grown;
+        } else if (keepFrom > 0) {
+            System.arraycopy(buf, keepFrom, buf, 0, keep);
+        }
+        pos -= keepFrom;
+        limit = keep;
+        int read = reader.read(buf, limit, buf.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return keepFrom;
+    }
+
+    /**
+     * Find the next line as BufferedReader.readLine would.
+     *
+     * @return false at the end of input
+     */
+    private boolean nextLine() throws IOException {
+        int start = pos;
+        int scan = pos;
+        for (;;) {
+            while (scan < limit) {
+                char c = buf[scan];
+                if (c == '\n' || c == '\r') {
+                    if (c == '\r' && scan + 1 == limit && !eof) {
+                        // Need to see whether \n follows
+                        int shift = fill(start);
+                        start -= shift;
+                        scan -= shift;
+                        continue;
+                    }
+                    lineStart = start;
+                    lineEnd = scan;
+                    pos = scan + 1;
+                    if (c == '\r' && pos < limit && buf[pos] == '\n') {
+                        ++pos;
+                    }
+                    return true;
+                }
+                ++scan;
+            }
+            if (eof) {
+                if (start == limit) {
+                    return false;
+                }
+                lineStart = start;
+                lineEnd = limit;
+                pos = limit;
+                return true;
+            }
+            int shift = fill(start);
+            start -= shift;
+            scan -= shift;
+        }
+    }
+
+    private void append(int index) {
+        if (useSb) {
+            sb.append(buf[index]);
+        } else if (spanStart < 0) {
+            spanStart = index;
+            spanEnd = index + 1;
+        } else if (spanEnd == index) {
+            ++spanEnd;
+        } else {
+            toSb();
+            sb.append(buf[index]);
+        }
+    }
+
+    private void toSb() {
+        if (!useSb) {
+            sb.setLength(0);
+            if (spanStart >= 0) {
+                sb.append(buf, spanStart, spanEnd - spanStart);
+            }
+            useSb = true;
+        }
+    }
+
+    private int tokenLength() {
+        if (useSb) {
+            return sb.length();
+        } else {
+            return spanStart < 0 ? 0 : spanEnd - spanStart;
+        }
+    }
+
+    private boolean tokenIsAllWhiteSpace() {
+        if (useSb) {
+            for (int ii = 0; ii < sb.length(); ++ii) {
+                if (!Character.isWhitespace(sb.charAt(ii))) {
+                    return false;
+                }
+            }
+        } else if (spanStart >= 0) {
+            for (int ii = spanStart; ii < spanEnd; ++ii) {
+                if (!Character.isWhitespace(buf[ii])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private String takeToken() {
+        String result;
+        if (useSb) {
+            result = sb.toString();
+        } else if (spanStart < 0) {
+            result = "";
+        } else {
+            result = new String(buf, spanStart, spanEnd - spanStart);
+        }
+        clearToken();
+        return result;
+    }
+
+    private void clearToken() {
+        useSb = false;
+        spanStart = -1;
+        spanEnd = -1;
+        sb.setLength(0);
+    }
+
+    /**
+     * Tokenize the current line, a transliteration of CSVParser.parseLine for
+     * the multi-line case.
+     */
+    private String[] parseLine() {
+        tokens.clear();
+        clearToken();
+        boolean inQuotes = false;
+        if (pending != null) {
+            toSb();
+            sb.append(pending);
+            pending = null;
+            inQuotes = true;
+        }
+        int length = lineEnd - lineStart;
+        for (int i = 0; i < length; i++) {
+            char c = buf[lineStart + i];
+            if (c == ESCAPE) {
+                if ((inQuotes || inField) && length > i + 1) {
+                    char next = buf[lineStart + i + 1];
+                    if (next == QUOTE || next == ESCAPE) {
+                        append(lineStart + i + 1);
+                        i++;
+                    }
+                }
+            } else if (c == QUOTE) {
+                if ((inQuotes || inField) && length > i + 1
+                        && buf[lineStart + i + 1] == QUOTE) {
+                    append(lineStart + i + 1);
+                    i++;
+                } else {
+                    // the tricky case of an embedded quote in the middle: a,bc"d"ef,g
+                    if (i > 2
+                            && buf[lineStart + i - 1] != SEPARATOR
+                            && length > i + 1
+                            && buf[lineStart + i + 1] != SEPARATOR) {
+                        if (tokenLength() > 0 && tokenIsAllWhiteSpace()) {
+                            // discard white space leading up to quote
+                            clearToken();
+                        } else {
+                            append(lineStart + i);
+                        }
+                    }
+                    inQuotes = !inQuotes;
+                }
+                inField = !inField;
+            } else if (c == SEPARATOR && !inQuotes) {
+                tokens.add(takeToken());
+                inField = false;
+            } else {
+                append(lineStart + i);
+                inField = true;
+            }
+        }
+        if (inQuotes) {
+            // continuing a quoted section, re-append newline
+            toSb();
+            sb.append('\n');
+            pending = sb.toString();
+            clearToken();
+        } else {
+            tokens.add(takeToken());
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    @Override
+    public String[] readNext() throws IOException {
+        String[] result = null;
+        do {
+            if (!nextLine()) {
+                return result;
+            }
+            String[] r = parseLine();
+            if (r.length > 0) {
+                if (result == null) {
+                    result = r;
+                } else {
+                    String[] t = new String[result.length + r.length];
+                    System.arraycopy(result, 0, t, 0, result.length);
+                    System.arraycopy(r, 0, t, result.length, r.length);
+                    result = t;
+                }
+            }
+        } while (pending != null);
+        return result;
+    }
+}
@@ -33,6 +33,9 @@ import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -54,10 +57,19 @@ public class NullVersionControl implements VersionControl {
         return Stream.empty();
     }
 
+    @Override
+    public List<VersionInfo> getVersions(int start, int count) {
+        return Collections.emptyList();
+    }
+
     @Override
     public void changed(Path filename) {
     }
 
+    @Override
+    public void changed(Collection<Path> filenames) {
+    }
+
     @Override
     public boolean canCommit() {
         return false;
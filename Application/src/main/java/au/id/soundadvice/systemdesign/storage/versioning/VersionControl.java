@@ -33,6 +33,8 @@ import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -54,10 +56,28 @@ public interface VersionControl extends Closeable {
 
     public Stream<VersionInfo> getVersions() throws IOException;
 
+    /**
+     * Return one page of versions, newest first.
+     *
+     * @param start The number of versions to skip
+     * @param count The maximum number of versions to return
+     * @return The versions in the page
+     * @throws IOException If the versions could not be listed
+     */
+    public List<VersionInfo> getVersions(int start, int count) throws IOException;
+
     public Optional<VersionInfo> getDefaultBaseline();
 
     public void changed(Path filename) throws IOException;
 
+    /**
+     * Stage a set of added, modified or deleted files in one operation.
+     *
+     * @param filenames The files that have changed on disk
+     * @throws IOException If the files could not be staged
+     */
+    public void changed(Collection<Path> filenames) throws IOException;
+
     public boolean canCommit();
 
     public void commit(String message) throws IOException;
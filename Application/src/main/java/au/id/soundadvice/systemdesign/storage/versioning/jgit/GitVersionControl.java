@@ -32,6 +32,7 @@ import au.id.soundadvice.systemdesign.storage.versioning.NullVersionControl;
 import au.id.soundadvice.systemdesign.storage.versioning.VersionControl;
 import au.id.soundadvice.systemdesign.moduleapi.storage.VersionInfo;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -45,16 +46,26 @@ import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 import javafx.util.Pair;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand.ListMode;
+import org.eclipse.jgit.api.RmCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
@@ -111,7 +122,7 @@ public class GitVersionControl implements VersionControl {
     @Override
     public Stream<VersionInfo> getBranches() throws IOException {
         try {
-            return refToVersionInfo(repo.branchList().setListMode(ListMode.ALL).call().stream());
+            return refToVersionInfo(repo.branchList().setListMode(ListMode.ALL).call());
         } catch (GitAPIException ex) {
             throw new IOException(ex);
         }
@@ -119,15 +130,56 @@ public class GitVersionControl implements VersionControl {
 
     @Override
     public Stream<VersionInfo> getVersions() throws IOException {
+        return getVersions(0, Integer.MAX_VALUE).stream();
+    }
+
+    @Override
+    public List<VersionInfo> getVersions(int start, int count) throws IOException {
+        List<VersionInfo> versions = getSortedVersions();
+        int from = Math.min(start, versions.size());
+        int to = (int) Math.min((long) from + count, versions.size());
+        return versions.subList(from, to);
+    }
+
+    /**
+     * The tags, resolved and sorted newest first. Listing the tag refs is
+     * cheap, but resolving and sorting them is not, so the sorted list is
+     * kept until the set of tags changes. Paging through the versions then
+     * only resolves each tag once.
+     * <p>
+     * The first page still resolves every tag. Ordering by commit time needs
+     * the commit time of every tagged commit, and a RevWalk seeded with the
+     * tags would parse the same commit headers before returning its first
+     * commit, so there is no cheaper way to find the newest few.
+     */
+    private List<VersionInfo> getSortedVersions() throws IOException {
         try {
-            return refToVersionInfo(repo.tagList().call().stream());
             // TODO: Support remote tags in the future?
             // Currently authentication issues are getting my way.
-//            return refToVersionInfo(repo.lsRemote().setTags(true).call().stream());
+            List<Ref> refs = repo.tagList().call();
+            Map<String, ObjectId> key = new HashMap<>();
+            for (Ref ref : refs) {
+                key.put(ref.getName(), ref.getObjectId());
+            }
+            synchronized (versionsLock) {
+                if (!key.equals(versionsKey)) {
+                    List<Pair<Ref, RevCommit>> tags = resolve(refs);
+                    tags.sort(NEWEST_FIRST);
+                    sortedVersions = Collections.unmodifiableList(tags.stream()
+                            .map(tag -> toVersionInfo(tag.getKey(), tag.getValue()))
+                            .collect(Collectors.toList()));
+                    versionsKey = key;
+                }
+                return sortedVersions;
+            }
         } catch (GitAPIException ex) {
             throw new IOException(ex);
         }
     }
+    private final Object versionsLock = new Object();
+    @Nullable
+    private Map<String, ObjectId> versionsKey = null;
+    private List<VersionInfo> sortedVersions = Collections.emptyList();
 
     @Override
     public Optional<VersionInfo> getDefaultBaseline() {
@@ -136,52 +188,108 @@ public class GitVersionControl implements VersionControl {
                     repo.branchList()
                     .setListMode(ListMode.ALL)
                     .setContains("HEAD")
-                    .call()
-                    .stream()).findAny();
-        } catch (GitAPIException ex) {
+                    .call()).findAny();
+        } catch (GitAPIException | IOException ex) {
             return Optional.empty();
         }
     }
 
-    private Stream<VersionInfo> refToVersionInfo(Stream<Ref> refs) {
-        return refs.flatMap(ref -> {
-            try {
-                Iterable<RevCommit> iterable
-                        = repo.log().add(ref.getObjectId()).setMaxCount(1).call();
-                return StreamSupport.stream(iterable.spliterator(), false)
-                        .map(commit -> {
-                            Calendar timestamp = Calendar.getInstance();
-                            timestamp.setTimeInMillis(commit.getCommitTime() * 1000L);
-                            String name = ref.getName();
-                            if (name.startsWith("refs/tags/")) {
-                                name = name.substring(10);
-                            } else if (name.startsWith("refs/heads/")) {
-                                name = name.substring(11);
-                            } else if (name.startsWith("refs/remotes/")) {
-                                name = name.substring(13);
-                            }
-                            String description = name
-                                    + " (" + commit.getId().abbreviate(7).name() + ')';
-                            return new VersionInfo(
-                                    ref.getObjectId().name(),
-                                    description,
-                                    timestamp);
-                        });
-            } catch (MissingObjectException | IncorrectObjectTypeException | GitAPIException ex) {
-                LOG.log(Level.WARNING, null, ex);
-                return Stream.empty();
+    private static final Comparator<Pair<Ref, RevCommit>> NEWEST_FIRST = (left, right) -> {
+        int tscompare = Integer.compare(
+                right.getValue().getCommitTime(), left.getValue().getCommitTime());
+        if (tscompare != 0) {
+            return tscompare;
+        }
+        return shortName(left.getKey()).compareTo(shortName(right.getKey()));
+    };
+
+    /**
+     * Resolve each ref to the commit it refers to, peeling annotated tags,
+     * using a single RevWalk for the lot.
+     */
+    private List<Pair<Ref, RevCommit>> resolve(List<Ref> refs) throws IOException {
+        List<Pair<Ref, RevCommit>> result = new ArrayList<>(refs.size());
+        try (RevWalk revWalk = new RevWalk(repo.getRepository())) {
+            revWalk.setRetainBody(false);
+            for (Ref ref : refs) {
+                if (ref.getObjectId() == null) {
+                    // Unborn branch
+                    continue;
+                }
+                try {
+                    result.add(new Pair<>(ref, revWalk.parseCommit(ref.getObjectId())));
+                } catch (MissingObjectException | IncorrectObjectTypeException ex) {
+                    LOG.log(Level.WARNING, null, ex);
+                }
             }
-        });
+        }
+        return result;
+    }
+
+    private Stream<VersionInfo> refToVersionInfo(List<Ref> refs) throws IOException {
+        return resolve(refs).stream()
+                .map(resolved -> toVersionInfo(resolved.getKey(), resolved.getValue()));
+    }
+
+    private static String shortName(Ref ref) {
+        String name = ref.getName();
+        if (name.startsWith("refs/tags/")) {
+            name = name.substring(10);
+        } else if (name.startsWith("refs/heads/")) {
+            name = name.substring(11);
+        } else if (name.startsWith("refs/remotes/")) {
+            name = name.substring(13);
+        }
+        return name;
+    }
+
+    private static VersionInfo toVersionInfo(Ref ref, RevCommit commit) {
+        Calendar timestamp = Calendar.getInstance();
+        timestamp.setTimeInMillis(commit.getCommitTime() * 1000L);
+        String description = shortName(ref)
+                + " (" + commit.getId().abbreviate(7).name() + ')';
+        return new VersionInfo(
+                ref.getObjectId().name(),
+                description,
+                timestamp);
     }
 
     @Override
     public void changed(Path filename) throws IOException {
+        changed(Collections.singletonList(filename));
+    }
+
+    /**
+     * Stage every file with one add and one rm command, rather than a command
+     * (and a rewrite of .git/index) per file. Going through the commands keeps
+     * the repository's filters, line ending conversion and file modes.
+     */
+    @Override
+    public void changed(Collection<Path> filenames) throws IOException {
+        if (filenames.isEmpty()) {
+            return;
+        }
         try {
-            Path pattern = this.repositoryRoot.relativize(filename);
-            if (Files.exists(filename)) {
-                repo.add().addFilepattern(pattern.toString()).call();
-            } else {
-                repo.rm().addFilepattern(pattern.toString()).call();
+            AddCommand add = repo.add();
+            RmCommand rm = repo.rm();
+            boolean adding = false;
+            boolean removing = false;
+            for (Path filename : filenames) {
+                String pattern = this.repositoryRoot.relativize(filename)
+                        .toString().replace(File.separatorChar, '/');
+                if (Files.exists(filename)) {
+                    add.addFilepattern(pattern);
+                    adding = true;
+                } else {
+                    rm.addFilepattern(pattern);
+                    removing = true;
+                }
+            }
+            if (adding) {
+                add.call();
+            }
+            if (removing) {
+                rm.call();
             }
         } catch (GitAPIException ex) {
             throw new IOException(ex);
@@ -225,10 +333,65 @@ public class GitVersionControl implements VersionControl {
         }
     }
 
-    private final AtomicReference<Pair<String, ObjectId>> diffCache
-            = new AtomicReference<>(new Pair<>(null, ObjectId.zeroId()));
+    private static final int MAX_CACHED_LABELS = 16;
+    private static final int MAX_CACHED_TREES = 1024;
+
+    /**
+     * A map that evicts its least recently used entry beyond a fixed size.
+     */
+    private static <K, V> Map<K, V> lruCache(int maxSize) {
+        return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * The entries of one git tree (directory), in tree order.
+     */
+    private static final class TreeEntries {
+
+        private final Map<String, ObjectId> entries = new LinkedHashMap<>();
+        private final Set<String> subtrees = new HashSet<>();
+    }
+
+    /**
+     * The matched directory for each (label, identity) pair, or the zero id if
+     * the identity does not exist in that commit.
+     */
+    private final Map<Pair<String, Path>, ObjectId> diffCache = lruCache(MAX_CACHED_LABELS);
+    /**
+     * The entries of each tree we have read. Trees are immutable and content
+     * addressed, so these never go stale and are shared between commits.
+     */
+    private final Map<ObjectId, TreeEntries> treeCache = lruCache(MAX_CACHED_TREES);
     private final NullVersionControl delegate = new NullVersionControl();
 
+    private TreeEntries getTree(ObjectId tree) throws IOException {
+        TreeEntries result = treeCache.get(tree);
+        if (result == null) {
+            result = new TreeEntries();
+            try (TreeWalk treeWalk = new TreeWalk(repo.getRepository())) {
+                treeWalk.setRecursive(false);
+                treeWalk.addTree(tree);
+
+                while (treeWalk.next()) {
+                    String name = treeWalk.getNameString();
+                    result.entries.put(name, treeWalk.getObjectId(0));
+                    if (treeWalk.isSubtree()) {
+                        result.subtrees.add(name);
+                    }
+                }
+            }
+            treeCache.put(tree, result);
+        }
+        return result;
+    }
+
     /**
      * Find the tree that contains the required identity.
      *
@@ -238,47 +401,41 @@ public class GitVersionControl implements VersionControl {
     private ObjectId findMatchingIdentity(
             IdentityValidator identityValidator,
             ObjectId tree) throws IOException {
-        try (TreeWalk treeWalk = new TreeWalk(repo.getRepository())) {
-            treeWalk.setRecursive(false);
-            treeWalk.addTree(tree);
-
-            while (treeWalk.next()) {
-                if (treeWalk.isSubtree()) {
-                    ObjectId candidateId = findMatchingIdentity(
-                            identityValidator, treeWalk.getObjectId(0));
-                    if (ObjectId.zeroId().equals(candidateId)) {
-                        // Keep searching
-                    } else {
-                        return candidateId;
-                    }
-                } else if (identityValidator.getIdentityFilename().equals(treeWalk.getNameString())) {
-                    // Read the identity file
-                    ObjectLoader loader = repo.getRepository().open(
-                            treeWalk.getObjectId(0));
-                    ObjectStream stream = loader.openStream();
-                    InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
-                    if (identityValidator.isIdentityMatched(new BufferedReader(reader))) {
-                        // We found it
-                        return tree;
-                    }
+        TreeEntries entries = getTree(tree);
+        for (Map.Entry<String, ObjectId> entry : entries.entries.entrySet()) {
+            if (entries.subtrees.contains(entry.getKey())) {
+                ObjectId candidateId = findMatchingIdentity(
+                        identityValidator, entry.getValue());
+                if (ObjectId.zeroId().equals(candidateId)) {
+                    // Keep searching
+                } else {
+                    return candidateId;
+                }
+            } else if (identityValidator.getIdentityFilename().equals(entry.getKey())) {
+                // Read the identity file
+                ObjectLoader loader = repo.getRepository().open(entry.getValue());
+                ObjectStream stream = loader.openStream();
+                InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+                if (identityValidator.isIdentityMatched(new BufferedReader(reader))) {
+                    // We found it
+                    return tree;
                 }
             }
-            return ObjectId.zeroId();
         }
+        return ObjectId.zeroId();
     }
 
-    private Pair<String, ObjectId> findDiff(IdentityValidator identityValidator, String label) throws IOException {
-        Pair<String, ObjectId> diff = diffCache.get();
-        if (!label.equals(diff.getKey())) {
+    private ObjectId findDiff(IdentityValidator identityValidator, String label) throws IOException {
+        Pair<String, Path> key = new Pair<>(label, identityValidator.getPath());
+        ObjectId diff = diffCache.get(key);
+        if (diff == null) {
             // Grab the id of the commit we are trying to diff against
             ObjectId id = ObjectId.fromString(label);
             try (RevWalk revWalk = new RevWalk(repo.getRepository())) {
                 // Read the commit
                 RevCommit commit = revWalk.parseCommit(id);
-                ObjectId matchedDirectory = findMatchingIdentity(
-                        identityValidator, commit.getTree());
-                diff = new Pair<>(label, matchedDirectory);
-                diffCache.set(diff);
+                diff = findMatchingIdentity(identityValidator, commit.getTree());
+                diffCache.put(key, diff);
             }
         }
         return diff;
@@ -288,23 +445,13 @@ public class GitVersionControl implements VersionControl {
     public Stream<String> listFiles(
             IdentityValidator identityValidator, Optional<String> label) throws IOException {
         if (label.isPresent()) {
-            Pair<String, ObjectId> diff = findDiff(identityValidator, label.get());
+            ObjectId diff = findDiff(identityValidator, label.get());
 
-            if (ObjectId.zeroId().equals(diff.getValue())) {
+            if (ObjectId.zeroId().equals(diff)) {
                 // No such tree
                 return Stream.empty();
             } else {
-                // Find the file in this tree
-                try (TreeWalk treeWalk = new TreeWalk(repo.getRepository())) {
-                    treeWalk.setRecursive(false);
-                    treeWalk.addTree(diff.getValue());
-
-                    List<String> filenames = new ArrayList<>();
-                    while (treeWalk.next()) {
-                        filenames.add(treeWalk.getNameString());
-                    }
-                    return filenames.stream();
-                }
+                return new ArrayList<>(getTree(diff).entries.keySet()).stream();
             }
         } else {
             return delegate.listFiles(identityValidator, label);
@@ -315,25 +462,13 @@ public class GitVersionControl implements VersionControl {
     public boolean exists(
             IdentityValidator identityValidator, String filename, Optional<String> label) throws IOException {
         if (label.isPresent()) {
-            Pair<String, ObjectId> diff = findDiff(identityValidator, label.get());
+            ObjectId diff = findDiff(identityValidator, label.get());
 
-            if (ObjectId.zeroId().equals(diff.getValue())) {
+            if (ObjectId.zeroId().equals(diff)) {
                 // No such tree
                 return false;
             } else {
-                // Find the file in this tree
-                try (TreeWalk treeWalk = new TreeWalk(repo.getRepository())) {
-                    treeWalk.setRecursive(false);
-                    treeWalk.addTree(diff.getValue());
-
-                    while (treeWalk.next()) {
-                        if (filename.equals(treeWalk.getNameString())) {
-                            return true;
-                        }
-                    }
-                    // No such file
-                    return false;
-                }
+                return getTree(diff).entries.containsKey(filename);
             }
         } else {
             return delegate.exists(identityValidator, filename, label);
@@ -344,31 +479,23 @@ public class GitVersionControl implements VersionControl {
     public BufferedReader getBufferedReader(
             IdentityValidator identityValidator, String filename, Optional<String> label) throws IOException {
         if (label.isPresent()) {
-            Pair<String, ObjectId> diff = findDiff(identityValidator, label.get());
+            ObjectId diff = findDiff(identityValidator, label.get());
 
-            if (ObjectId.zeroId().equals(diff.getValue())) {
+            if (ObjectId.zeroId().equals(diff)) {
                 // No such tree
                 throw new FileNotFoundException(identityValidator.getPath() + " does not exist for label " + label.get());
             } else {
-                // Find the file in this tree
-                try (TreeWalk treeWalk = new TreeWalk(repo.getRepository())) {
-                    treeWalk.setRecursive(false);
-                    treeWalk.addTree(diff.getValue());
-
-                    while (treeWalk.next()) {
-                        if (filename.equals(treeWalk.getNameString())) {
-                            // Read the file
-                            ObjectLoader loader = repo.getRepository().open(
-                                    treeWalk.getObjectId(0));
-                            ObjectStream stream = loader.openStream();
-                            InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
-                            return new BufferedReader(reader);
-                        }
-                    }
+                ObjectId blob = getTree(diff).entries.get(filename);
+                if (blob == null) {
                     // No such file
                     throw new FileNotFoundException(filename + " does not exist for label " + label.get()
                     );
                 }
+                // Read the file
+                ObjectLoader loader = repo.getRepository().open(blob);
+                ObjectStream stream = loader.openStream();
+                InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+                return new BufferedReader(reader);
             }
         } else {
             return delegate.getBufferedReader(identityValidator, filename, label);
@@ -0,0 +1,235 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.consistency;
+
+import au.id.soundadvice.systemdesign.entity.RecordStore;
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.suggest.Problem;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class IncrementalTraceProblemsTest {
+
+    /**
+     * A table whose problems depend on records other than the ones being
+     * checked, read in each of the ways a module might read them.
+     */
+    private static final class Block extends Table.Default {
+
+        Block() {
+            super("block");
+        }
+
+        @Override
+        public Stream<Problem> getTraceProblems(
+                WhyHowPair<Baseline> context, Record traceParent, Stream<Record> traceChildren) {
+            return traceChildren.flatMap(child -> {
+                List<Problem> result = new ArrayList<>();
+                if (!child.getLongName().equals(traceParent.getLongName())) {
+                    result.add(Problem.flowProblem(
+                            child.getLongName() + " does not match " + traceParent.getLongName(),
+                            Optional.of((baselines, now) -> baselines),
+                            Optional.empty()));
+                }
+                if (context.getParent().findByLongName(child.getLongName()).count() > 1) {
+                    result.add(problem(child.getLongName() + " is ambiguous in parent"));
+                }
+                return result.stream();
+            });
+        }
+
+        @Override
+        public Stream<Problem> getUntracedParentProblems(
+                WhyHowPair<Baseline> context, Stream<Record> untracedParents) {
+            long blocks = context.getChild().findByType(this).count();
+            return untracedParents
+                    .filter(parent -> blocks > 0)
+                    .map(parent -> problem(
+                            parent.getLongName() + " is missing from " + blocks + " blocks"));
+        }
+
+        @Override
+        public Stream<Problem> getUntracedChildProblems(
+                WhyHowPair<Baseline> context, Stream<Record> untracedChildren) {
+            return untracedChildren.map(child -> problem(
+                    child.getLongName() + " is untraced in "
+                    + child.getContainer()
+                    .flatMap(context.getChild()::getAnyType)
+                    .map(Record::getLongName)
+                    .orElse("nothing")
+                    + " and contains " + context.getChild().findReverse(child.getIdentifier()).count()));
+        }
+    }
+
+    /**
+     * A table whose problems depend on sibling records and on the whole of the
+     * child baseline.
+     */
+    private static final class Part extends Table.Default {
+
+        Part() {
+            super("part");
+        }
+
+        @Override
+        public Stream<Problem> getTraceProblems(
+                WhyHowPair<Baseline> context, Record traceParent, Stream<Record> traceChildren) {
+            long siblings = context.getChild()
+                    .findByTrace(Optional.of(traceParent.getIdentifier()), this).count();
+            return traceChildren.map(child -> problem(
+                    child.getLongName() + " has " + siblings + " siblings"));
+        }
+
+        @Override
+        public Stream<Problem> getUntracedChildProblems(
+                WhyHowPair<Baseline> context, Stream<Record> untracedChildren) {
+            int size = context.getChild().size();
+            return untracedChildren.map(child -> problem(
+                    child.getLongName() + " is one of " + size));
+        }
+    }
+
+    private static final Table block = new Block();
+    private static final Table part = new Part();
+
+    private static Problem problem(String description) {
+        return Problem.flowProblem(description, Optional.empty(), Optional.empty());
+    }
+
+    /**
+     * Describe problems as a multiset. The full recompute finds problems in
+     * hash map order over records and tables, so their order carries no
+     * meaning and is not compared.
+     */
+    private static Map<String, Long> describe(Stream<Problem> problems) {
+        return problems
+                .map(problem -> problem.getDescription()
+                        + " down=" + problem.getFlowDownSolution().isPresent()
+                        + " up=" + problem.getFlowUpSolution().isPresent())
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    }
+
+    private static <T> T pick(Random random, List<T> list) {
+        return list.get(random.nextInt(list.size()));
+    }
+
+    private static Record create(Random random) {
+        return Record.create(random.nextInt(3) == 0 ? part : block)
+                .newIdentifier()
+                .setLongName("name" + random.nextInt(20))
+                .build(ISO8601.EPOCH);
+    }
+
+    private static Baseline edit(
+            Random random, Baseline baseline, List<Record> created, List<Record> traces) {
+        List<Record> records = baseline.stream().collect(Collectors.toList());
+        if (records.isEmpty() || traces.isEmpty() || random.nextInt(6) == 0) {
+            Record record = create(random);
+            created.add(record);
+            return baseline.add(record);
+        }
+        Record record = pick(random, records);
+        switch (random.nextInt(5)) {
+            case 0:
+                return baseline.remove(record.getIdentifier());
+            case 1:
+                return baseline.add(record.asBuilder()
+                        .setLongName("name" + random.nextInt(20))
+                        .build(ISO8601.EPOCH));
+            case 2:
+                // Traces may refer to records that have since been removed
+                return baseline.add(record.asBuilder()
+                        .setTrace(pick(random, traces))
+                        .build(ISO8601.EPOCH));
+            case 3:
+                return baseline.add(record.asBuilder()
+                        .removeTrace()
+                        .build(ISO8601.EPOCH));
+            default:
+                return baseline.add(record.asBuilder()
+                        .setContainer(pick(random, records))
+                        .build(ISO8601.EPOCH));
+        }
+    }
+
+    @Test
+    public void testMatchesFullRecompute() {
+        Random random = new Random(4);
+        IncrementalTraceProblems engine = new IncrementalTraceProblems();
+        List<Record> parentRecords = new ArrayList<>();
+        List<Record> childRecords = new ArrayList<>();
+        Baseline parent = RecordStore.empty();
+        Baseline child = RecordStore.empty();
+        for (int ii = 0; ii < 60; ++ii) {
+            parent = edit(random, parent, parentRecords, parentRecords);
+        }
+        for (int ii = 0; ii < 120; ++ii) {
+            child = edit(random, child, childRecords, parentRecords);
+        }
+        List<WhyHowPair<Baseline>> history = new ArrayList<>();
+        for (int step = 0; step < 2000; ++step) {
+            if (!history.isEmpty() && random.nextInt(20) == 0) {
+                // Jump back, as undo would
+                WhyHowPair<Baseline> state = pick(random, history);
+                parent = state.getParent();
+                child = state.getChild();
+            } else {
+                int edits = random.nextInt(50) == 0 ? 200 : 1 + random.nextInt(3);
+                for (int ii = 0; ii < edits; ++ii) {
+                    if (random.nextInt(4) == 0) {
+                        parent = edit(random, parent, parentRecords, parentRecords);
+                    } else {
+                        child = edit(random, child, childRecords, parentRecords);
+                    }
+                }
+            }
+            WhyHowPair<Baseline> state = new WhyHowPair<>(parent, child);
+            history.add(state);
+            assertEquals(
+                    describe(AllSuggestions.getAllTraceProblems(state)),
+                    describe(engine.getProblems(state).stream()),
+                    "step " + step);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.DiffPair;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class DiffPairFindTest {
+
+    private static final Table box = new Table.Default("box");
+    private static final Table item = new Table.Default("item");
+
+    /**
+     * Finds records by the name of their container rather than by their own
+     * content, so an unchanged record can be found on one side only.
+     */
+    private static Stream<Record> inBox(Baseline baseline) {
+        return baseline.findByLongName("box")
+                .flatMap(container -> baseline.findReverse(container.getIdentifier()));
+    }
+
+    private static final List<Function<Baseline, Stream<Record>>> finders = Arrays.asList(
+            baseline -> baseline.findByType(item),
+            baseline -> baseline.findByType(box),
+            baseline -> baseline.findByLongName("name1"),
+            DiffPairFindTest::inBox);
+
+    /**
+     * The algorithm find replaced: every identifier found on either side,
+     * looked up again on each side.
+     */
+    private static Stream<DiffPair<Record>> reference(
+            DiffPair<Baseline> baselines,
+            Function<Baseline, Stream<Record>> finder, Table recordType) {
+        return baselines.map((baseline, record) -> finder.apply(baseline))
+                .stream()
+                .flatMap(stream -> stream)
+                .map(Record::getIdentifier)
+                .distinct()
+                .map(identifier -> DiffPair.get(baselines, identifier, recordType));
+    }
+
+    private static void check(DiffPair<Baseline> baselines) {
+        for (Function<Baseline, Stream<Record>> finder : finders) {
+            for (Table type : Arrays.asList(box, item)) {
+                assertEquals(
+                        reference(baselines, finder, type).collect(Collectors.toList()),
+                        DiffPair.find(baselines, finder, type).collect(Collectors.toList()));
+            }
+        }
+    }
+
+    @Test
+    public void testFoundThroughChangedContext() {
+        Record container = Record.create(box)
+                .newIdentifier()
+                .setLongName("box")
+                .build(ISO8601.EPOCH);
+        Record contained = Record.create(item)
+                .newIdentifier()
+                .setLongName("contained")
+                .setContainer(container)
+                .build(ISO8601.EPOCH);
+        Baseline was = RecordStore.empty().add(container).add(contained);
+        Baseline is = was.add(container.asBuilder()
+                .setLongName("crate")
+                .build(ISO8601.EPOCH));
+        DiffPair<Baseline> baselines = DiffPair.get(Optional.of(was), is);
+
+        List<DiffPair<Record>> found = DiffPair.find(baselines, DiffPairFindTest::inBox, item)
+                .collect(Collectors.toList());
+        assertEquals(1, found.size());
+        assertEquals(Optional.of(contained), found.get(0).getWasInstance());
+        assertEquals(Optional.of(contained), found.get(0).getIsInstance());
+        check(baselines);
+        check(DiffPair.get(Optional.of(is), was));
+    }
+
+    @Test
+    public void testMatchesReference() {
+        Random random = new Random(7);
+        List<Record> records = new ArrayList<>();
+        Baseline was = RecordStore.empty();
+        for (int ii = 0; ii < 200; ++ii) {
+            Record record = Record.create(random.nextInt(4) == 0 ? box : item)
+                    .newIdentifier()
+                    .setLongName(random.nextInt(4) == 0 ? "box" : "name" + random.nextInt(5))
+                    .build(ISO8601.EPOCH);
+            records.add(record);
+            was = was.add(record);
+        }
+        for (int ii = 0; ii < 100; ++ii) {
+            Record record = records.get(random.nextInt(records.size()));
+            Record container = records.get(random.nextInt(records.size()));
+            was = was.add(record.asBuilder().setContainer(container).build(ISO8601.EPOCH));
+        }
+        for (int step = 0; step < 50; ++step) {
+            Baseline is = was;
+            int edits = 1 + random.nextInt(10);
+            for (int ii = 0; ii < edits; ++ii) {
+                Optional<Record> current = is.getAnyType(
+                        records.get(random.nextInt(records.size())).getIdentifier());
+                if (!current.isPresent()) {
+                    continue;
+                }
+                Record record = current.get();
+                switch (random.nextInt(4)) {
+                    case 0:
+                        is = is.remove(record.getIdentifier());
+                        break;
+                    case 1:
+                        is = is.add(record.asBuilder()
+                                .setLongName(random.nextBoolean() ? "box" : "name" + random.nextInt(5))
+                                .build(ISO8601.EPOCH));
+                        break;
+                    case 2:
+                        // Change type, keeping the identifier
+                        is = is.remove(record.getIdentifier()).add(
+                                Record.create(box.equals(record.getType()) ? item : box)
+                                .setIdentifier(record.getIdentifier())
+                                .setLongName(record.getLongName())
+                                .build(ISO8601.EPOCH));
+                        break;
+                    default:
+                        Record container = records.get(random.nextInt(records.size()));
+                        is = is.add(record.asBuilder()
+                                .setContainer(container)
+                                .build(ISO8601.EPOCH));
+                        break;
+                }
+            }
+            check(DiffPair.get(Optional.of(was), is));
+            check(DiffPair.get(Optional.of(is), was));
+            check(DiffPair.get(Optional.empty(), is));
+            was = is;
+        }
+        assertTrue(was.size() > 0);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class HashTrieTest {
+
+    /**
+     * A key whose hash code is deliberately shared with other keys.
+     */
+    private static final class Colliding {
+
+        private final int hash;
+        private final String name;
+
+        Colliding(int hash, String name) {
+            this.hash = hash;
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Colliding
+                    && ((Colliding) obj).hash == hash
+                    && ((Colliding) obj).name.equals(name);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static <K, V> void assertMatches(Map<K, V> expected, HashTrie<K, V> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.hashCode(), actual.hashCode());
+        for (Map.Entry<K, V> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+        assertEquals(expected, actual.entries().collect(
+                Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+    }
+
+    @Test
+    public void testRandomUpdates() {
+        Random random = new Random(1);
+        Map<Integer, Integer> expected = new HashMap<>();
+        HashTrie<Integer, Integer> actual = HashTrie.empty();
+        for (int ii = 0; ii < 20000; ++ii) {
+            Integer key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.remove(key);
+            } else {
+                Integer value = random.nextInt(10);
+                expected.put(key, value);
+                actual = actual.put(key, value);
+            }
+        }
+        assertMatches(expected, actual);
+    }
+
+    @Test
+    public void testDiff() {
+        Random random = new Random(3);
+        Map<Object, Object> leftMap = new HashMap<>();
+        HashTrie<Object, Object> left = HashTrie.empty();
+        for (int ii = 0; ii < 5000; ++ii) {
+            Object key = ii % 10 == 0 ? new Colliding(ii % 7, "c" + ii) : ii;
+            leftMap.put(key, ii);
+            left = left.put(key, ii);
+        }
+        for (int round = 0; round < 20; ++round) {
+            Map<Object, Object> rightMap = new HashMap<>(leftMap);
+            HashTrie<Object, Object> right = left;
+            for (int ii = 0; ii < round * 10; ++ii) {
+                Object key = random.nextInt(3) == 0
+                        ? new Colliding(random.nextInt(7), "c" + random.nextInt(6000))
+                        : random.nextInt(6000);
+                if (random.nextBoolean()) {
+                    rightMap.remove(key);
+                    right = right.remove(key);
+                } else {
+                    Integer value = random.nextInt(3);
+                    rightMap.put(key, value);
+                    right = right.put(key, value);
+                }
+            }
+            Map<Object, List<Object>> expected = new HashMap<>();
+            for (Object key : leftMap.keySet()) {
+                if (!leftMap.get(key).equals(rightMap.get(key))) {
+                    expected.put(key, Arrays.asList(leftMap.get(key), rightMap.get(key)));
+                }
+            }
+            for (Object key : rightMap.keySet()) {
+                if (!leftMap.containsKey(key)) {
+                    expected.put(key, Arrays.asList(null, rightMap.get(key)));
+                }
+            }
+            Map<Object, List<Object>> actual = new HashMap<>();
+            left.diff(right, (key, leftValue, rightValue) -> assertNull(
+                    actual.put(key, Arrays.asList(leftValue, rightValue))));
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testShapeIsIndependentOfHistory() {
+        List<Integer> keys = new ArrayList<>();
+        for (int ii = 0; ii < 2000; ++ii) {
+            keys.add(ii * 7919);
+        }
+        HashTrie<Integer, String> forward = HashTrie.empty();
+        for (Integer key : keys) {
+            forward = forward.put(key, key.toString());
+        }
+        Collections.shuffle(keys, new Random(2));
+        HashTrie<Integer, String> shuffled = HashTrie.empty();
+        for (Integer key : keys) {
+            shuffled = shuffled.put(key + 1, "extra");
+            shuffled = shuffled.put(key, key.toString());
+        }
+        assertFalse(forward.equals(shuffled));
+        for (Integer key : keys) {
+            shuffled = shuffled.remove(key + 1);
+        }
+        assertEquals(forward, shuffled);
+        assertEquals(forward.hashCode(), shuffled.hashCode());
+    }
+
+    @Test
+    public void testCollisions() {
+        Map<Colliding, Integer> expected = new HashMap<>();
+        HashTrie<Colliding, Integer> actual = HashTrie.empty();
+        for (int ii = 0; ii < 100; ++ii) {
+            Colliding key = new Colliding(ii % 3, "key" + ii);
+            expected.put(key, ii);
+            actual = actual.put(key, ii);
+        }
+        assertMatches(expected, actual);
+        for (int ii = 0; ii < 100; ii += 2) {
+            Colliding key = new Colliding(ii % 3, "key" + ii);
+            expected.remove(key);
+            actual = actual.remove(key);
+        }
+        assertMatches(expected, actual);
+        assertNull(actual.get(new Colliding(0, "key0")));
+        assertFalse(actual.containsKey(new Colliding(0, "missing")));
+    }
+
+    @Test
+    public void testEditTokenLeavesOriginalUnchanged() {
+        Random random = new Random(3);
+        Map<Integer, Integer> expectedOriginal = new HashMap<>();
+        HashTrie<Integer, Integer> original = HashTrie.empty();
+        for (int ii = 0; ii < 1000; ++ii) {
+            expectedOriginal.put(ii, ii);
+            original = original.put(ii, ii);
+        }
+        Object edit = new Object();
+        Map<Integer, Integer> expected = new HashMap<>(expectedOriginal);
+        HashTrie<Integer, Integer> edited = original;
+        for (int ii = 0; ii < 5000; ++ii) {
+            Integer key = random.nextInt(2000);
+            if (random.nextBoolean()) {
+                expected.remove(key);
+                edited = edited.remove(key, edit);
+            } else {
+                expected.put(key, -ii);
+                edited = edited.put(key, -ii, edit);
+            }
+        }
+        assertMatches(expectedOriginal, original);
+        assertMatches(expected, edited);
+
+        // Later persistent updates must not disturb the edited trie
+        HashTrie<Integer, Integer> after = edited.put(-1, -1).remove(0);
+        assertMatches(expected, edited);
+        assertEquals(expected.size() + 1 - (expected.containsKey(0) ? 1 : 0), after.size());
+    }
+
+    @Test
+    public void testUnchangedUpdatesReturnSameInstance() {
+        HashTrie<String, String> trie = HashTrie.<String, String>empty()
+                .put("a", "A")
+                .put("b", "B");
+        assertSame(trie, trie.put("a", "A"));
+        assertSame(trie, trie.remove("c"));
+        assertTrue(trie.remove("a").remove("b").isEmpty());
+        assertSame(HashTrie.empty(), trie.remove("a").remove("b"));
+    }
+}
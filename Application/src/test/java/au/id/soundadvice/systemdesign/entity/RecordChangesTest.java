@@ -0,0 +1,116 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class RecordChangesTest {
+
+    private static final Table box = new Table.Default("box");
+
+    private static Record create(String longName) {
+        return Record.create(box)
+                .newIdentifier()
+                .setLongName(longName)
+                .build(ISO8601.EPOCH);
+    }
+
+    @Test
+    public void addedRemovedAndModifiedAreSeparated() {
+        Record kept = create("kept");
+        Record removed = create("removed");
+        Record modified = create("modified");
+        Record added = create("added");
+        RecordStore previous = RecordStore.valueOf(Stream.of(kept, removed, modified));
+        RecordStore current = previous
+                .remove(removed.getIdentifier())
+                .add(modified.asBuilder().setLongName("renamed").build(ISO8601.EPOCH))
+                .add(added);
+
+        RecordChanges changes = RecordChanges.between(previous, current);
+        assertEquals(Collections.singleton(added.getIdentifier()), changes.getAdded());
+        assertEquals(Collections.singleton(removed.getIdentifier()), changes.getRemoved());
+        assertEquals(Collections.singleton(modified.getIdentifier()), changes.getModified());
+        assertEquals(3, changes.size());
+        assertTrue(changes.contains(modified.getIdentifier()));
+        assertFalse(changes.contains(kept.getIdentifier()));
+        assertEquals(
+                Stream.of(added, removed, modified)
+                .map(Record::getIdentifier)
+                .collect(Collectors.toSet()),
+                changes.stream().collect(Collectors.toSet()));
+
+        RecordChanges reverse = RecordChanges.between(current, previous);
+        assertEquals(changes.getAdded(), reverse.getRemoved());
+        assertEquals(changes.getRemoved(), reverse.getAdded());
+        assertEquals(changes.getModified(), reverse.getModified());
+    }
+
+    @Test
+    public void unchangedBaselinesHaveNoChanges() {
+        RecordStore store = RecordStore.valueOf(Stream.of(create("one"), create("two")));
+        Record temporary = create("temporary");
+        assertSame(RecordChanges.empty(), RecordChanges.between(store, store));
+        assertSame(RecordChanges.empty(), RecordChanges.between(
+                store, store.add(temporary).remove(temporary.getIdentifier())));
+        assertTrue(RecordChanges.between(RecordStore.empty(), RecordStore.empty()).isEmpty());
+    }
+
+    @Test
+    public void storesWithoutSharedStructureAreCompared() {
+        Record[] records = IntStream.range(0, 1000)
+                .mapToObj(ii -> create("record" + ii))
+                .toArray(Record[]::new);
+        RecordStore previous = RecordStore.valueOf(Stream.of(records));
+        Record changed = records[500].asBuilder().setLongName("changed").build(ISO8601.EPOCH);
+        // Loaded separately, so no subtrees are shared
+        RecordStore current = RecordStore.valueOf(Stream.of(records)
+                .map(record -> record.getIdentifier().equals(changed.getIdentifier()) ? changed : record));
+
+        RecordChanges changes = RecordChanges.between(previous, current);
+        assertTrue(changes.getAdded().isEmpty());
+        assertTrue(changes.getRemoved().isEmpty());
+        assertEquals(Collections.singleton(changed.getIdentifier()), changes.getModified());
+    }
+}
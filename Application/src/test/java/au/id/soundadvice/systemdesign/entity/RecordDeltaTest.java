@@ -0,0 +1,93 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class RecordDeltaTest {
+
+    private static final Table box = new Table.Default("box");
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final RecordIndex<String> byLongName = RecordIndex.create(
+            "byLongName", box, record -> {
+                lookups.incrementAndGet();
+                return Stream.of(record.getLongName());
+            });
+
+    private static Record create(String longName) {
+        return Record.create(box)
+                .newIdentifier()
+                .setLongName(longName)
+                .build(ISO8601.EPOCH);
+    }
+
+    @Test
+    public void applyReproducesTo() {
+        Record one = create("one");
+        Record two = create("two");
+        RecordStore from = RecordStore.empty().add(one);
+        RecordStore to = from.remove(one.getIdentifier()).add(two);
+        RecordDelta delta = RecordDelta.between(from, to);
+        assertEquals(to, delta.apply(from));
+        assertSame(from, RecordDelta.between(from, from).apply(from));
+    }
+
+    @Test
+    public void applyToAnotherBaselineKeepsModuleIndexes() {
+        Record one = create("one");
+        Record two = create("two");
+        RecordStore from = RecordStore.empty(Stream.of(byLongName)).add(one);
+        RecordStore to = from.add(two);
+        RecordDelta delta = RecordDelta.between(from, to);
+        // A transient is not a RecordStore, so the delta rebuilds the store
+        Baseline applied = delta.apply(from.asTransient());
+        assertEquals(
+                Stream.of(one, two).collect(Collectors.toSet()),
+                applied.stream().collect(Collectors.toSet()));
+        lookups.set(0);
+        assertEquals(1, applied.findByIndex(byLongName, "two").count());
+        // A maintained index is not rebuilt by scanning the type
+        assertEquals(0, lookups.get());
+    }
+}
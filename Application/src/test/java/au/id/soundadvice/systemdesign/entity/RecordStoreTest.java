@@ -0,0 +1,148 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.entity;
+
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class RecordStoreTest {
+
+    private static final Table box = new Table.Default("box");
+    private static final Table item = new Table.Default("item");
+
+    private static Record.Builder create(Table type, String longName) {
+        return Record.create(type)
+                .newIdentifier()
+                .setLongName(longName);
+    }
+
+    @Test
+    public void danglingReferencesAreRemoved() {
+        Record missing = create(box, "missing").build(ISO8601.EPOCH);
+        Record orphan = create(box, "orphan").setContainer(missing).build(ISO8601.EPOCH);
+        Record grandchild = create(item, "grandchild").setContainer(orphan).build(ISO8601.EPOCH);
+        Record kept = create(box, "kept").build(ISO8601.EPOCH);
+        // The reference to kept points forwards
+        Record child = create(item, "child").setContainer(kept).build(ISO8601.EPOCH);
+        RecordStore store = RecordStore.valueOf(Stream.of(grandchild, child, orphan, kept));
+        assertEquals(
+                Stream.of(child, kept).collect(Collectors.toSet()),
+                store.stream().collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void duplicateIdentifiersAreRejected() {
+        Record one = create(box, "one").build(ISO8601.EPOCH);
+        Record renamed = one.asBuilder().setLongName("renamed").build(ISO8601.EPOCH);
+        assertThrows(IllegalStateException.class,
+                () -> RecordStore.valueOf(Stream.of(one, renamed)));
+    }
+
+    @Test
+    public void transientDiffIsUnaffectedByLaterUpdates() {
+        Record one = create(box, "one").build(ISO8601.EPOCH);
+        Record two = create(box, "two").build(ISO8601.EPOCH);
+        Record three = create(item, "three").build(ISO8601.EPOCH);
+        RecordStore store = RecordStore.empty().add(one);
+        Baseline.Transient updating = store.asTransient().add(two);
+        Baseline was = updating.diff(store).getWas();
+        updating.add(three).remove(one.getIdentifier());
+        assertEquals(
+                Stream.of(one, two).collect(Collectors.toSet()),
+                was.stream().collect(Collectors.toSet()));
+        assertEquals(2, was.size());
+        assertEquals(Optional.of(one), was.getAnyType(one.getIdentifier()));
+        assertEquals(Optional.empty(), was.getAnyType(three.getIdentifier()));
+        assertEquals(0, was.findByType(item).count());
+        assertEquals(
+                Stream.of(two, three).collect(Collectors.toSet()),
+                updating.persistent().stream().collect(Collectors.toSet()));
+        assertEquals(Collections.singleton(one), store.stream().collect(Collectors.toSet()));
+    }
+
+    /**
+     * Records in random order, each contained by a random other record and
+     * a third of them traced to one.
+     */
+    private static List<Record> generate(int count) {
+        Random random = new Random(3);
+        List<Record> records = new ArrayList<>(count);
+        for (int ii = 0; ii < count; ++ii) {
+            Record.Builder builder = create(ii % 2 == 0 ? box : item, "Record " + ii);
+            if (ii > 0) {
+                builder = builder.setContainer(records.get(random.nextInt(ii)));
+            }
+            if (ii % 3 == 0 && ii > 0) {
+                builder = builder.setTrace(records.get(random.nextInt(ii)));
+            }
+            records.add(builder.build(ISO8601.EPOCH));
+        }
+        Collections.shuffle(records, random);
+        return records;
+    }
+
+    /**
+     * Time loading stores of 10k, 100k and 1M records. Run with
+     * -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void valueOfBenchmark() {
+        for (int count : new int[]{10000, 100000, 1000000}) {
+            List<Record> records = generate(count);
+            assertEquals(count, RecordStore.valueOf(records.stream()).size());
+            int runs = count < 1000000 ? 15 : 5;
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < runs; ++run) {
+                long start = System.nanoTime();
+                RecordStore.valueOf(records.stream());
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.println("Loading " + count + " records: "
+                    + best / 1000000 + " ms (best of " + runs + ")");
+        }
+    }
+}
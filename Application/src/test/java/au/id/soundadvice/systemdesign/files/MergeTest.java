@@ -34,15 +34,25 @@ import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
 import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import au.id.soundadvice.systemdesign.storage.files.FileUtils;
 import au.id.soundadvice.systemdesign.storage.files.RecordReader;
 import org.junit.jupiter.api.Test;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  *
@@ -340,4 +350,177 @@ public class MergeTest {
             assertEquals(Optional.empty(), result.read());
         }
     }
+
+    @Test
+    public void batchMerge() throws Exception {
+        RecordID identifier = RecordID.create();
+        RecordID owner = RecordID.create();
+        Table unknownType = new Table.Default("unknown");
+        long now = System.currentTimeMillis();
+        long ancestorTime = now - 3000;
+        long leftTime = now - 2000;
+        long rightTime = now - 1000;
+        Path directory = Files.createTempDirectory("merge");
+        try {
+            Path ancestor1 = directory.resolve("ancestor1");
+            Path left1 = directory.resolve("left1");
+            Path right1 = directory.resolve("right1");
+            Files.write(ancestor1, Arrays.asList("a,b,identifier,lastChange,z",
+                    "A,B," + identifier + "," + ISO8601.of(ancestorTime) + ",Z"));
+            Files.write(left1, Arrays.asList("a,b,identifier,lastChange,z",
+                    "AAA,B," + identifier + "," + ISO8601.of(leftTime) + ",Z"));
+            Files.write(right1, Arrays.asList("a,b,identifier,lastChange,z",
+                    "BBB,B," + identifier + "," + ISO8601.of(rightTime) + ",Z"));
+            Path ancestor2 = directory.resolve("ancestor2");
+            Path left2 = directory.resolve("left2");
+            Path right2 = directory.resolve("right2");
+            Path out2 = directory.resolve("out2");
+            Files.write(ancestor2, Arrays.asList("a,identifier,ref:owner",
+                    "A," + identifier + "," + owner));
+            Files.write(left2, Arrays.asList("a,identifier,ref:owner",
+                    "AAA," + identifier + "," + owner));
+            Files.write(right2, Arrays.asList("a,identifier,ref:owner",
+                    "A," + identifier + "," + owner));
+
+            List<Merge.FileMergeResult> results = Merge.threeWayBatch(Arrays.asList(
+                    new Merge.FileMerge(ancestor1, left1, right1, left1),
+                    new Merge.FileMerge(ancestor2, left2, right2, out2),
+                    new Merge.FileMerge(directory.resolve("missing"), left2, right2, left2)),
+                    ISO8601.of(now));
+
+            assertEquals(3, results.size());
+            assertEquals(1, results.get(0).getConflicts());
+            assertFalse(results.get(0).getError().isPresent());
+            assertEquals(0, results.get(1).getConflicts());
+            assertFalse(results.get(1).getError().isPresent());
+            assertTrue(results.get(2).getError().isPresent());
+
+            try (RecordReader result = new RecordReader(unknownType, new CSVReader(Files.newBufferedReader(left1)))) {
+                Record expected = Record.create(unknownType)
+                        .setIdentifier(identifier)
+                        .putField("a", "BBB")
+                        .putField("b", "B")
+                        .putField("z", "Z")
+                        .build(ISO8601.of(now));
+                assertEquals(Optional.of(expected), result.read());
+                assertEquals(Optional.empty(), result.read());
+            }
+            try (RecordReader result = new RecordReader(unknownType, new CSVReader(Files.newBufferedReader(out2)))) {
+                Optional<Record> entry = result.read();
+                assertEquals(Optional.of("AAA"), entry.flatMap(record -> record.getField("a")));
+                assertEquals(Optional.of(owner), entry.flatMap(record -> record.getRef("owner")));
+                assertEquals(Optional.empty(), result.read());
+            }
+        } finally {
+            FileUtils.recursiveDelete(directory);
+        }
+    }
+
+    @Test
+    public void batchMergeUncheckedFailure() throws Exception {
+        RecordID identifier = RecordID.create();
+        long now = System.currentTimeMillis();
+        Path directory = Files.createTempDirectory("merge");
+        try {
+            Path ancestor = directory.resolve("ancestor");
+            Path left = directory.resolve("left");
+            Path right = directory.resolve("right");
+            Path out1 = directory.resolve("out1");
+            Path out3 = directory.resolve("out3");
+            Files.write(ancestor, Arrays.asList("a,identifier", "A," + identifier));
+            Files.write(left, Arrays.asList("a,identifier", "AAA," + identifier));
+            Files.write(right, Arrays.asList("a,identifier", "A," + identifier));
+            // Reading from a closed file system fails with an unchecked exception
+            Path closed;
+            URI archive = URI.create("jar:" + directory.resolve("closed.zip").toUri());
+            try (FileSystem fileSystem = FileSystems.newFileSystem(
+                    archive, Collections.singletonMap("create", "true"))) {
+                closed = fileSystem.getPath("/ancestor");
+            }
+
+            List<Merge.FileMergeResult> results = Merge.threeWayBatch(Arrays.asList(
+                    new Merge.FileMerge(ancestor, left, right, out1),
+                    new Merge.FileMerge(closed, left, right, directory.resolve("out2")),
+                    new Merge.FileMerge(ancestor, left, right, out3)),
+                    ISO8601.of(now));
+
+            assertEquals(3, results.size());
+            assertFalse(results.get(0).getError().isPresent());
+            assertTrue(results.get(1).getError().get() instanceof RuntimeException);
+            assertFalse(results.get(2).getError().isPresent());
+            assertTrue(Files.readAllLines(out1).get(1).contains("AAA"));
+            assertTrue(Files.readAllLines(out3).get(1).contains("AAA"));
+        } finally {
+            FileUtils.recursiveDelete(directory);
+        }
+    }
+
+    @Test
+    public void sameRecordDifferentLayouts() throws Exception {
+        RecordID identifier = RecordID.create();
+        Table unknownType = new Table.Default("unknown");
+        String resultString;
+        int conflicts;
+        try (
+                RecordReader ancestor = new RecordReader(unknownType, new CSVReader(new StringReader(
+                        "a,b,identifier,z" + System.lineSeparator()
+                        + "A,B," + identifier + ",Z")));
+                RecordReader left = new RecordReader(unknownType, new CSVReader(new StringReader(
+                        "a,b,c,identifier,z" + System.lineSeparator()
+                        + "A,B,," + identifier + ",Z")));
+                RecordReader right = new RecordReader(unknownType, new CSVReader(new StringReader(
+                        "z,identifier,b,a" + System.lineSeparator()
+                        + "ZZZ," + identifier + ",B,A")));
+                StringWriter result = new StringWriter();
+                CSVWriter out = new CSVWriter(result)) {
+            conflicts = Merge.threeWayCSV(ancestor, left, right, out, ISO8601.EPOCH);
+            resultString = result.toString();
+        }
+        assertEquals(0, conflicts);
+        try (RecordReader result = new RecordReader(unknownType, new CSVReader(new StringReader(resultString)))) {
+            Optional<Record> entry = result.read();
+            Record expected = Record.create(unknownType)
+                    .setIdentifier(identifier)
+                    .putField("a", "A")
+                    .putField("b", "B")
+                    .putField("z", "ZZZ")
+                    .build(ISO8601.EPOCH);
+            assertEquals(Optional.of(expected), entry);
+            assertEquals(Optional.empty(), result.read());
+        }
+    }
+
+    @Test
+    public void sameRecordDifferentCells() throws Exception {
+        RecordID identifier = RecordID.create();
+        Table unknownType = new Table.Default("unknown");
+        String resultString;
+        int conflicts;
+        try (
+                RecordReader ancestor = new RecordReader(unknownType, new CSVReader(new StringReader(
+                        "a,identifier,lastChange" + System.lineSeparator()
+                        + "A," + identifier + ",")));
+                RecordReader left = new RecordReader(unknownType, new CSVReader(new StringReader(
+                        "a,identifier,lastChange" + System.lineSeparator()
+                        + "A," + identifier + "," + ISO8601.EPOCH)));
+                RecordReader right = new RecordReader(unknownType, new CSVReader(new StringReader(
+                        "a,identifier,lastChange" + System.lineSeparator()
+                        + "AAA," + identifier + ",")));
+                StringWriter result = new StringWriter();
+                CSVWriter out = new CSVWriter(result)) {
+            conflicts = Merge.threeWayCSV(ancestor, left, right, out, ISO8601.EPOCH);
+            resultString = result.toString();
+        }
+        // An empty lastChange loads as the epoch, so left is unchanged
+        assertEquals(0, conflicts);
+        try (RecordReader result = new RecordReader(unknownType, new CSVReader(new StringReader(resultString)))) {
+            Optional<Record> entry = result.read();
+            Record expected = Record.create(unknownType)
+                    .setIdentifier(identifier)
+                    .putField("a", "AAA")
+                    .build(ISO8601.EPOCH);
+            assertEquals(Optional.of(expected), entry);
+            assertEquals(Optional.empty(), result.read());
+        }
+    }
 }
@@ -0,0 +1,178 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.files;
+
+import au.id.soundadvice.systemdesign.storage.files.FileDigests;
+import au.id.soundadvice.systemdesign.storage.files.SaveTransaction;
+import au.id.soundadvice.systemdesign.storage.versioning.NullVersionControl;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check when a save transaction trusts the digest cache and when it compares
+ * files.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class SaveTransactionTest {
+
+    private static final class Recording extends NullVersionControl {
+
+        private final List<Path> changed = new ArrayList<>();
+
+        @Override
+        public void changed(Collection<Path> filenames) {
+            changed.addAll(filenames);
+        }
+    }
+
+    @TempDir
+    Path directory;
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] digest(String content) {
+        return FileDigests.newDigest().digest(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Save content over realFile, returning the files the transaction
+     * reported as changed.
+     */
+    private List<Path> save(
+            FileDigests digests, Path realFile, String content, boolean withDigest)
+            throws IOException {
+        Recording vcs = new Recording();
+        try (SaveTransaction transaction = new SaveTransaction(vcs, digests)) {
+            Path tempFile = Files.createTempFile(directory, null, null);
+            transaction.addJob(realFile, tempFile);
+            write(tempFile, content);
+            if (withDigest) {
+                transaction.setDigest(tempFile, digest(content));
+            }
+            transaction.commit();
+        }
+        return vcs.changed;
+    }
+
+    @Test
+    public void matchingDigestSkipsTheFile() throws IOException {
+        FileDigests digests = new FileDigests();
+        Path file = directory.resolve("table.sysrec");
+        assertEquals(Collections.singletonList(file), save(digests, file, "a,b\n", true));
+        assertTrue(digests.isCurrent(file));
+        assertEquals(Collections.emptyList(), save(digests, file, "a,b\n", true));
+        assertEquals("a,b\n", read(file));
+    }
+
+    @Test
+    public void cachedDigestIsTrustedWhileAttributesMatch() throws IOException {
+        FileDigests digests = new FileDigests();
+        Path file = directory.resolve("table.sysrec");
+        save(digests, file, "a,b\n", true);
+        // Same size and modification time: the cache cannot tell, and the
+        // file is not read again
+        FileTime modified = Files.getLastModifiedTime(file);
+        write(file, "c,d\n");
+        Files.setLastModifiedTime(file, modified);
+        assertTrue(digests.isCurrent(file));
+        assertEquals(Collections.emptyList(), save(digests, file, "a,b\n", true));
+        assertEquals("c,d\n", read(file));
+    }
+
+    @Test
+    public void editedFileIsDigestedAgain() throws IOException {
+        FileDigests digests = new FileDigests();
+        Path file = directory.resolve("table.sysrec");
+        save(digests, file, "a,b\n", true);
+        write(file, "a,b\nc,d\n");
+        assertFalse(digests.isCurrent(file));
+        assertArrayEquals(digest("a,b\nc,d\n"), digests.get(file).get());
+        assertTrue(digests.isCurrent(file));
+        assertEquals(Collections.singletonList(file), save(digests, file, "a,b\n", true));
+        assertEquals("a,b\n", read(file));
+    }
+
+    @Test
+    public void digestMismatchRewritesLineEndingChanges() throws IOException {
+        FileDigests digests = new FileDigests();
+        Path file = directory.resolve("table.sysrec");
+        write(file, "a,b\r\n");
+        assertEquals(Collections.singletonList(file), save(digests, file, "a,b\n", true));
+        assertEquals("a,b\n", read(file));
+        assertTrue(digests.isCurrent(file));
+    }
+
+    @Test
+    public void withoutDigestLinesAreCompared() throws IOException {
+        FileDigests digests = new FileDigests();
+        Path file = directory.resolve("table.sysrec");
+        write(file, "a,b\r\n");
+        assertEquals(Collections.emptyList(), save(digests, file, "a,b\n", false));
+        assertEquals("a,b\r\n", read(file));
+        assertEquals(Collections.singletonList(file), save(digests, file, "c,d\n", false));
+        assertEquals("c,d\n", read(file));
+        assertFalse(digests.isCurrent(file));
+    }
+
+    @Test
+    public void missingTempFileDeletesTheRealFile() throws IOException {
+        FileDigests digests = new FileDigests();
+        Path file = directory.resolve("table.sysrec");
+        save(digests, file, "a,b\n", true);
+        Recording vcs = new Recording();
+        try (SaveTransaction transaction = new SaveTransaction(vcs, digests)) {
+            transaction.addJob(file, directory.resolve("never-written"));
+            transaction.commit();
+        }
+        assertEquals(Collections.singletonList(file), vcs.changed);
+        assertFalse(Files.exists(file));
+        assertFalse(digests.isCurrent(file));
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.files;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+import au.id.soundadvice.systemdesign.storage.files.SysrecReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Check that SysrecReader tokenizes exactly as opencsv's CSVReader does.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class SysrecReaderTest {
+
+    private static final int[] BUFFER_SIZES = {1, 2, 3, 7, 64, 1 << 16};
+
+    private static final String[] QUIRKS = {
+        "",
+        "\n",
+        "\n\n\n",
+        "a,b,c",
+        "a,b,c\n",
+        "a,b,c\r\nd,e\rf\n\rg",
+        "\"quoted\",plain,\"with,comma\"",
+        "\"multi\nline\",x\nnext,row",
+        "\"multi\r\nline\rwith\r\ncrlf\",x",
+        "\"unterminated\nquote",
+        "\"doubled \"\" quote\",\"\"\"\"",
+        "a\"b\"c,d",
+        "abc\"def\"ghi,jkl",
+        "   \"ws before quote\",x",
+        "x,   \"ws after separator\"",
+        "back\\slash,\\\"escaped\\\",\"in \\\" quotes\"",
+        "\\,\\\\,\\a,a\\,\"\\\\\"",
+        "trailing,",
+        ",leading",
+        ",,,",
+        "\"\"",
+        "\"\",\"\"",
+        "\"a\"b,c",
+        "a\",b",
+        "ab\",\"cd",
+        "x,\"\"quoted twice\"\",y",
+        "unicode,é中😀,\"ü\nline\"",
+        "last line without newline"
+    };
+
+    private static List<String[]> readAll(CSVReader reader) throws IOException {
+        List<String[]> result = new ArrayList<>();
+        for (;;) {
+            String[] line = reader.readNext();
+            if (line == null) {
+                return result;
+            }
+            result.add(line);
+        }
+    }
+
+    /**
+     * A reader that returns at most one character per read, to exercise
+     * every buffer boundary.
+     */
+    private static Reader trickle(String input) {
+        return new StringReader(input) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    private static void assertSameTokens(String input) throws IOException {
+        List<String[]> expected = readAll(new CSVReader(new StringReader(input)));
+        for (int bufferSize : BUFFER_SIZES) {
+            assertSame(input, expected,
+                    readAll(new SysrecReader(new StringReader(input), bufferSize)));
+            assertSame(input, expected,
+                    readAll(new SysrecReader(trickle(input), bufferSize)));
+        }
+    }
+
+    private static void assertSame(
+            String input, List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size(), input);
+        for (int ii = 0; ii < expected.size(); ++ii) {
+            assertEquals(
+                    Arrays.asList(expected.get(ii)),
+                    Arrays.asList(actual.get(ii)),
+                    input);
+        }
+    }
+
+    @Test
+    public void quirks() throws IOException {
+        for (String input : QUIRKS) {
+            assertSameTokens(input);
+        }
+        // The field state carries over between lines, so try them together
+        assertSameTokens(String.join("\n", QUIRKS));
+    }
+
+    @Test
+    public void randomQuirks() throws IOException {
+        String alphabet = "ab ,\"\\\n\ré";
+        Random random = new Random(0);
+        for (int ii = 0; ii < 2000; ++ii) {
+            StringBuilder builder = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int jj = 0; jj < length; ++jj) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameTokens(builder.toString());
+        }
+    }
+
+    @Test
+    public void writtenFiles() throws IOException {
+        String[] cells = {
+            "", "plain", "with,comma", "with \"quotes\"", "back\\slash",
+            "\\\"", "multi\nline", "crlf\r\nline", "  padded  ",
+            "é中😀", "uuid-0f8fad5b-d9cb-469f-a165-70867728950e"
+        };
+        Random random = new Random(1);
+        for (int ii = 0; ii < 50; ++ii) {
+            StringWriter output = new StringWriter();
+            try (CSVWriter writer = new CSVWriter(output)) {
+                int rows = random.nextInt(50);
+                int columns = 1 + random.nextInt(8);
+                for (int row = 0; row < rows; ++row) {
+                    String[] line = new String[columns];
+                    for (int column = 0; column < columns; ++column) {
+                        line[column] = cells[random.nextInt(cells.length)];
+                    }
+                    writer.writeNext(line);
+                }
+            }
+            assertSameTokens(output.toString());
+        }
+    }
+
+    private interface Open {
+
+        CSVReader apply(Path path) throws IOException;
+    }
+
+    private static long countFields(Open open, Path path) throws IOException {
+        long fields = 0;
+        try (CSVReader reader = open.apply(path)) {
+            for (;;) {
+                String[] line = reader.readNext();
+                if (line == null) {
+                    return fields;
+                }
+                fields += line.length;
+            }
+        }
+    }
+
+    private static long time(Open open, Path path, long expectedFields) throws IOException {
+        long start = System.nanoTime();
+        assertEquals(expectedFields, countFields(open, path));
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Compare tokenizing throughput against opencsv on a large generated
+     * file in the shape of a table file. Run with -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void benchmark() throws IOException {
+        Path path = Files.createTempFile("benchmark", ".sysrec");
+        try {
+            Random random = new Random(2);
+            try (CSVWriter writer = new CSVWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+                writer.writeNext(new String[]{
+                    "container", "description", "identifier", "lastChange",
+                    "longName", "shortName", "trace", "type"});
+                for (int row = 0; row < 100000; ++row) {
+                    writer.writeNext(new String[]{
+                        new UUID(random.nextLong(), random.nextLong()).toString(),
+                        "A description of item " + row + ", with \"quotes\" and a comma"
+                        + (random.nextInt(10) == 0 ? "\nspanning two lines" : ""),
+                        new UUID(random.nextLong(), random.nextLong()).toString(),
+                        "2016-01-01T00:00:00.000Z",
+                        "Item " + row,
+                        Integer.toString(row),
+                        new UUID(random.nextLong(), random.nextLong()).toString(),
+                        "item"});
+                }
+            }
+            Open opencsv = file -> new CSVReader(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+            Open sysrec = file -> new SysrecReader(Files.newBufferedReader(file, StandardCharsets.UTF_8));
+            long fields = countFields(opencsv, path);
+            assertEquals(fields, countFields(sysrec, path));
+            // Alternate the two so that neither runs on a warmer JVM
+            long opencsvBest = Long.MAX_VALUE;
+            long sysrecBest = Long.MAX_VALUE;
+            for (int run = 0; run < 15; ++run) {
+                opencsvBest = Math.min(opencsvBest, time(opencsv, path, fields));
+                sysrecBest = Math.min(sysrecBest, time(sysrec, path, fields));
+            }
+            System.out.println("Tokenizing " + Files.size(path) / 1000000 + " MB: opencsv "
+                    + opencsvBest / 1000000 + " ms, SysrecReader "
+                    + sysrecBest / 1000000 + " ms (best of 15)");
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.state;
+
+import au.id.soundadvice.systemdesign.entity.RecordChanges;
+import au.id.soundadvice.systemdesign.entity.RecordStore;
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class ChangeSetTest {
+
+    private static final Table box = new Table.Default("box");
+
+    private static Record create(String longName) {
+        return Record.create(box)
+                .newIdentifier()
+                .setLongName(longName)
+                .build(ISO8601.EPOCH);
+    }
+
+    private static Record rename(Record record, String longName) {
+        return record.asBuilder().setLongName(longName).build(ISO8601.EPOCH);
+    }
+
+    @Test
+    public void andThenSpansBothChangeSets() {
+        Record parent = create("parent");
+        Record modified = create("modified");
+        Record transientRecord = create("transient");
+        Record added = create("added");
+        Baseline empty = RecordStore.empty();
+        WhyHowPair<Baseline> first = new WhyHowPair<>(
+                RecordStore.empty().add(parent), RecordStore.valueOf(Stream.of(modified)));
+        WhyHowPair<Baseline> second = first.setChild(
+                first.getChild().add(rename(modified, "once")).add(transientRecord));
+        WhyHowPair<Baseline> third = second.setChild(
+                second.getChild().add(rename(modified, "twice"))
+                .remove(transientRecord.getIdentifier())
+                .add(added));
+
+        ChangeSet combined = new ChangeSet(first, second).andThen(new ChangeSet(second, third));
+        assertSame(first, combined.getPrevious());
+        assertSame(third, combined.getCurrent());
+        assertTrue(combined.getParent().isEmpty());
+        RecordChanges child = combined.getChild();
+        assertEquals(Collections.singleton(added.getIdentifier()), child.getAdded());
+        assertTrue(child.getRemoved().isEmpty());
+        assertEquals(Collections.singleton(modified.getIdentifier()), child.getModified());
+        assertEquals(Collections.singleton(box), combined.getTables());
+        assertSame(child, combined.get(WhyHowPair.Selector.CHILD));
+
+        ChangeSet unchanged = new ChangeSet(first, second).andThen(new ChangeSet(second, first));
+        assertTrue(unchanged.isEmpty());
+        assertTrue(unchanged.getChild().isEmpty());
+        assertTrue(unchanged.getTables().isEmpty());
+        // Removed records are typed from the previous state
+        assertTrue(new ChangeSet(first, first.setParent(empty)).getTables().contains(box));
+    }
+
+    @Test
+    public void consecutiveNotificationsChain() {
+        EditState edit = EditState.init(Runnable::run, ISO8601.EPOCH);
+        List<ChangeSet> published = new ArrayList<>();
+        edit.subscribeChanges(published::add);
+        WhyHowPair<Baseline> initial = edit.getState();
+
+        Record record = create("record");
+        edit.updateChild(child -> child.add(record));
+        edit.updateChild(child -> child.add(rename(record, "renamed")));
+        edit.updateChild(child -> child.remove(record.getIdentifier()));
+
+        assertEquals(3, published.size());
+        assertSame(initial, published.get(0).getPrevious());
+        for (int ii = 1; ii < published.size(); ++ii) {
+            assertSame(published.get(ii - 1).getCurrent(), published.get(ii).getPrevious());
+        }
+        assertSame(edit.getState(), published.get(2).getCurrent());
+        assertEquals(Collections.singleton(record.getIdentifier()), published.get(0).getChild().getAdded());
+        assertEquals(Collections.singleton(record.getIdentifier()), published.get(1).getChild().getModified());
+        assertEquals(Collections.singleton(record.getIdentifier()), published.get(2).getChild().getRemoved());
+        assertTrue(published.stream().allMatch(changes -> changes.getParent().isEmpty()));
+
+        // Folding the sets together as a collapsing subscriber would
+        ChangeSet combined = published.stream().reduce(ChangeSet::andThen).get();
+        assertSame(initial, combined.getPrevious());
+        assertTrue(combined.isEmpty());
+        assertTrue(combined.getChild().isEmpty());
+    }
+
+    @Test
+    public void coalescedRoundsPublishOneChangeSet() {
+        Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+        EditState edit = EditState.init(pending::add, ISO8601.EPOCH);
+        List<ChangeSet> published = new ArrayList<>();
+        edit.subscribeChanges(published::add);
+        WhyHowPair<Baseline> initial = edit.getState();
+
+        Record first = create("first");
+        Record second = create("second");
+        edit.updateChild(child -> child.add(first));
+        edit.updateParent(parent -> parent.add(second));
+        edit.updateChild(child -> child.add(rename(first, "renamed")));
+        assertTrue(published.isEmpty());
+        for (Runnable task = pending.poll(); task != null; task = pending.poll()) {
+            task.run();
+        }
+
+        assertEquals(1, published.size());
+        ChangeSet changes = published.get(0);
+        assertSame(initial, changes.getPrevious());
+        assertSame(edit.getState(), changes.getCurrent());
+        assertEquals(Collections.singleton(first.getIdentifier()), changes.getChild().getAdded());
+        assertTrue(changes.getChild().getModified().isEmpty());
+        assertEquals(Collections.singleton(second.getIdentifier()), changes.getParent().getAdded());
+    }
+
+    @Test
+    public void diffVersionSwitchHasNoRecordChanges() {
+        EditState edit = EditState.init(Runnable::run, ISO8601.EPOCH);
+        List<ChangeSet> published = new ArrayList<>();
+        edit.subscribeChanges(published::add);
+
+        edit.setDiffVersion(Optional.empty());
+
+        assertEquals(1, published.size());
+        ChangeSet changes = published.get(0);
+        assertTrue(changes.isEmpty());
+        assertTrue(changes.getParent().isEmpty());
+        assertTrue(changes.getChild().isEmpty());
+        assertTrue(changes.getTables().isEmpty());
+        assertEquals(
+                Collections.emptyList(),
+                Stream.of(changes.getParent(), changes.getChild())
+                .flatMap(RecordChanges::stream)
+                .collect(Collectors.toList()));
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.state;
+
+import au.id.soundadvice.systemdesign.entity.RecordStore;
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.entity.TableFactory;
+import au.id.soundadvice.systemdesign.moduleapi.storage.RecordStorage;
+import au.id.soundadvice.systemdesign.moduleapi.storage.VersionInfo;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import au.id.soundadvice.systemdesign.storage.FileStorage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class DiffBaselineCacheTest {
+
+    private static final Table item = new Table.Default("item");
+    private static final TableFactory FACTORY = name -> item;
+
+    private static VersionInfo version(String id) {
+        return new VersionInfo(id, id, Calendar.getInstance());
+    }
+
+    /**
+     * A directory whose versions each hold a fixed number of records. Loads
+     * are counted, and a load of a gated version waits until it is opened.
+     */
+    private static final class FakeStorage implements FileStorage {
+
+        private final List<VersionInfo> versions;
+        private final int size;
+        private final Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+        private final Map<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+        private final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+
+        private FakeStorage(int size, String... versions) {
+            this.size = size;
+            this.versions = Arrays.asList(versions).stream()
+                    .map(DiffBaselineCacheTest::version)
+                    .collect(Collectors.toList());
+        }
+
+        private CountDownLatch gate(String id) {
+            CountDownLatch gate = new CountDownLatch(1);
+            gates.put(id, gate);
+            return gate;
+        }
+
+        private int loads(String id) {
+            AtomicInteger count = loads.get(id);
+            return count == null ? 0 : count.get();
+        }
+
+        @Override
+        public Baseline loadBaseline(TableFactory factory, Optional<String> label) throws IOException {
+            String id = label.get();
+            started.add(id);
+            CountDownLatch gate = gates.get(id);
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+            loads.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+            RecordStore result = RecordStore.empty();
+            for (int ii = 0; ii < size; ++ii) {
+                result = result.add(Record.create(factory.apply("item"))
+                        .newIdentifier()
+                        .setLongName(id + ii)
+                        .build(ISO8601.EPOCH));
+            }
+            return result;
+        }
+
+        @Override
+        public Path getPath() {
+            return Paths.get("fake");
+        }
+
+        @Override
+        public FileStorage renameDirectory(Path from, Path to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Stream<VersionInfo> getBranches() {
+            return Stream.empty();
+        }
+
+        @Override
+        public Stream<VersionInfo> getVersions() {
+            return versions.stream();
+        }
+
+        @Override
+        public List<VersionInfo> getVersions(int start, int count) {
+            return versions.subList(
+                    Math.min(start, versions.size()),
+                    Math.min(start + count, versions.size()));
+        }
+
+        @Override
+        public void saveBaseline(Baseline relations) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void saveBaseline(Baseline relations, Baseline previous) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void commit(String message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<RecordStorage> getParent() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<RecordStorage> getChild(RecordID identifier) {
+            return Optional.empty();
+        }
+
+        @Override
+        public RecordStorage createChild(Record identityRecord) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean identityFileExists() {
+            return true;
+        }
+
+        @Override
+        public boolean isVersionControlled() {
+            return true;
+        }
+
+        @Override
+        public boolean canCommit() {
+            return false;
+        }
+
+        @Override
+        public Optional<VersionInfo> getDefaultBaseline() {
+            return Optional.of(version("master"));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void loadsAreCached() throws IOException {
+        DiffBaselineCache cache = new DiffBaselineCache(FACTORY);
+        FakeStorage storage = new FakeStorage(2, "v1");
+        Baseline first = cache.load(storage, version("v1"));
+        assertSame(first, cache.load(storage, version("v1")));
+        assertEquals(1, storage.loads("v1"));
+    }
+
+    @Test
+    public void concurrentLoadsAreShared() throws Exception {
+        DiffBaselineCache cache = new DiffBaselineCache(FACTORY);
+        FakeStorage storage = new FakeStorage(2, "v1");
+        CountDownLatch gate = storage.gate("v1");
+        Future<Baseline> first = executor.submit(() -> cache.load(storage, version("v1")));
+        assertEquals("v1", storage.started.poll(10, TimeUnit.SECONDS));
+        // The first load has registered its entry, so this one waits on it
+        Future<Baseline> second = executor.submit(() -> cache.load(storage, version("v1")));
+        gate.countDown();
+        assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, storage.loads("v1"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws IOException {
+        DiffBaselineCache cache = new DiffBaselineCache(FACTORY, 2, Long.MAX_VALUE);
+        FakeStorage storage = new FakeStorage(1, "v1", "v2", "v3");
+        cache.load(storage, version("v1"));
+        cache.load(storage, version("v2"));
+        cache.load(storage, version("v1"));
+        cache.load(storage, version("v3"));
+        cache.load(storage, version("v1"));
+        cache.load(storage, version("v3"));
+        assertEquals(1, storage.loads("v1"));
+        assertEquals(1, storage.loads("v3"));
+        cache.load(storage, version("v2"));
+        assertEquals(2, storage.loads("v2"));
+    }
+
+    @Test
+    public void recordCountIsBounded() throws IOException {
+        DiffBaselineCache cache = new DiffBaselineCache(FACTORY, 10, 5);
+        FakeStorage storage = new FakeStorage(3, "v1", "v2");
+        cache.load(storage, version("v1"));
+        cache.load(storage, version("v2"));
+        cache.load(storage, version("v2"));
+        assertEquals(1, storage.loads("v2"));
+        cache.load(storage, version("v1"));
+        assertEquals(2, storage.loads("v1"));
+        // The most recently used entry is kept even if it alone is too big
+        DiffBaselineCache small = new DiffBaselineCache(FACTORY, 10, 1);
+        small.load(storage, version("v1"));
+        small.load(storage, version("v1"));
+        assertEquals(3, storage.loads("v1"));
+    }
+
+    @Test
+    public void prefetchLoadsRecentVersions() throws Exception {
+        DiffBaselineCache cache = new DiffBaselineCache(FACTORY);
+        FakeStorage storage = new FakeStorage(1, "v1", "v2", "v3", "v4");
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        cache.prefetch(single, storage);
+        single.shutdown();
+        assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+        for (String id : Arrays.asList("master", "v1", "v2", "v3")) {
+            cache.load(storage, version(id));
+            assertEquals(1, storage.loads(id), id);
+        }
+        assertEquals(0, storage.loads("v4"));
+        assertTrue(cache.cancelPrefetch(storage).isDone());
+    }
+
+    @Test
+    public void cancelledPrefetchStopsWithoutBlocking() throws Exception {
+        DiffBaselineCache cache = new DiffBaselineCache(FACTORY);
+        FakeStorage storage = new FakeStorage(1, "v1", "v2", "v3");
+        CountDownLatch gate = storage.gate("master");
+        cache.prefetch(executor, storage);
+        assertEquals("master", storage.started.poll(10, TimeUnit.SECONDS));
+        // The load in progress holds the storage open, but cancelling does
+        // not wait for it
+        CompletableFuture<Void> stopped = cache.cancelPrefetch(storage);
+        assertFalse(stopped.isDone());
+        gate.countDown();
+        stopped.get(10, TimeUnit.SECONDS);
+        assertEquals(1, storage.loads("master"));
+        for (String id : Arrays.asList("v1", "v2", "v3")) {
+            assertEquals(0, storage.loads(id), id);
+        }
+    }
+
+    @Test
+    public void newPrefetchCancelsTheOldOne() throws Exception {
+        DiffBaselineCache cache = new DiffBaselineCache(FACTORY);
+        FakeStorage storage = new FakeStorage(1, "v1", "v2", "v3");
+        CountDownLatch gate = storage.gate("master");
+        cache.prefetch(executor, storage);
+        assertEquals("master", storage.started.poll(10, TimeUnit.SECONDS));
+        cache.prefetch(executor, storage);
+        // The second prefetch shares the first's load of master
+        gate.countDown();
+        for (String id : Arrays.asList("v1", "v2", "v3")) {
+            assertEquals(id, storage.started.poll(10, TimeUnit.SECONDS));
+        }
+        cache.cancelPrefetch(storage).get(10, TimeUnit.SECONDS);
+        for (String id : Arrays.asList("master", "v1", "v2", "v3")) {
+            assertEquals(1, storage.loads(id), id);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.state;
+
+import au.id.soundadvice.systemdesign.entity.RecordStore;
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class UndoBufferTest {
+
+    /**
+     * Integers stand in for states, and a delta is the difference between
+     * two of them.
+     */
+    private static UndoBuffer.Delta<Integer> diff(Integer newer, Integer older) {
+        int offset = older - newer;
+        return new UndoBuffer.Delta<Integer>() {
+            @Override
+            public Integer apply(Integer state) {
+                return state + offset;
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+    }
+
+    private static UndoBuffer<Integer> edited(UndoBuffer.Policy<Integer> policy, int edits) {
+        UndoBuffer<Integer> buffer = new UndoBuffer<>(0, policy);
+        for (int ii = 1; ii <= edits; ++ii) {
+            // Vary the steps so that deltas differ from one another
+            buffer.set(ii * ii);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void compactedHistoryReplays() {
+        UndoBuffer<Integer> buffer = edited(
+                new UndoBuffer.Policy<>(1000, 3, Long.MAX_VALUE, UndoBufferTest::diff),
+                20);
+        assertEquals(3, buffer.getStatistics().getSnapshots());
+        assertEquals(17, buffer.getStatistics().getDeltaSize());
+        for (int ii = 19; ii >= 0; --ii) {
+            assertEquals(ii * ii, (int) buffer.undo());
+        }
+        assertFalse(buffer.canUndo());
+        for (int ii = 1; ii <= 10; ++ii) {
+            assertEquals(ii * ii, (int) buffer.redo());
+        }
+        // Branch from the middle of the history
+        buffer.set(-1);
+        assertFalse(buffer.canRedo());
+        assertEquals(100, (int) buffer.undo());
+        assertEquals(-1, (int) buffer.redo());
+        for (int ii = 10; ii >= 0; --ii) {
+            assertEquals(ii * ii, (int) buffer.undo());
+        }
+    }
+
+    @Test
+    public void depthIsBounded() {
+        UndoBuffer<Integer> buffer = edited(
+                new UndoBuffer.Policy<>(5, 2, Long.MAX_VALUE, UndoBufferTest::diff),
+                20);
+        assertEquals(5, buffer.getStatistics().getUndoDepth());
+        for (int ii = 19; ii >= 15; --ii) {
+            assertEquals(ii * ii, (int) buffer.undo());
+        }
+        assertFalse(buffer.canUndo());
+        assertEquals(5, buffer.getStatistics().getRedoDepth());
+    }
+
+    @Test
+    public void deltaSizeIsBounded() {
+        UndoBuffer<Integer> buffer = edited(
+                new UndoBuffer.Policy<>(1000, 2, 4, UndoBufferTest::diff),
+                20);
+        UndoBuffer.Statistics statistics = buffer.getStatistics();
+        assertEquals(6, statistics.getUndoDepth());
+        assertEquals(2, statistics.getSnapshots());
+        assertEquals(4, statistics.getDeltaSize());
+        for (int ii = 19; ii >= 14; --ii) {
+            assertEquals(ii * ii, (int) buffer.undo());
+        }
+        assertFalse(buffer.canUndo());
+    }
+
+    @Test
+    public void unboundedKeepsEverything() {
+        UndoBuffer<Integer> buffer = new UndoBuffer<>(0);
+        for (int ii = 1; ii <= 2000; ++ii) {
+            buffer.set(ii);
+        }
+        UndoBuffer.Statistics statistics = buffer.getStatistics();
+        assertEquals(2000, statistics.getUndoDepth());
+        assertEquals(2000, statistics.getSnapshots());
+        assertEquals(0, statistics.getDeltaSize());
+        assertTrue(buffer.canUndo());
+    }
+
+    @Test
+    public void policyNeedsASnapshot() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new UndoBuffer.Policy<>(1000, 0, Long.MAX_VALUE, UndoBufferTest::diff));
+        assertThrows(IllegalArgumentException.class,
+                () -> new UndoBuffer.Policy<>(-1, 2, Long.MAX_VALUE, UndoBufferTest::diff));
+        UndoBuffer<Integer> buffer = edited(
+                new UndoBuffer.Policy<>(1000, 1, Long.MAX_VALUE, UndoBufferTest::diff),
+                5);
+        assertEquals(1, buffer.getStatistics().getSnapshots());
+        for (int ii = 4; ii >= 0; --ii) {
+            assertEquals(ii * ii, (int) buffer.undo());
+        }
+    }
+
+    private static final Table box = new Table.Default("box");
+    private static final Table item = new Table.Default("item");
+
+    /**
+     * Describe a baseline by its records and by what each of its indexes
+     * returns, so that a replayed store with stale indexes does not compare
+     * equal to the original.
+     */
+    private static TreeMap<String, Set<Record>> describe(Baseline baseline) {
+        TreeMap<String, Set<Record>> result = new TreeMap<>();
+        result.put("all", baseline.stream().collect(Collectors.toSet()));
+        for (Table type : Arrays.asList(box, item)) {
+            result.put("type " + type, baseline.findByType(type).collect(Collectors.toSet()));
+        }
+        result.put("untraced", baseline.findByTrace(Optional.empty()).collect(Collectors.toSet()));
+        baseline.stream().forEach(record -> {
+            RecordID identifier = record.getIdentifier();
+            result.put("reverse " + identifier,
+                    baseline.findReverse(identifier).collect(Collectors.toSet()));
+            result.put("trace " + identifier,
+                    baseline.findByTrace(Optional.of(identifier)).collect(Collectors.toSet()));
+            result.put("name " + record.getLongName(),
+                    baseline.findByLongName(record.getLongName()).collect(Collectors.toSet()));
+        });
+        return result;
+    }
+
+    private static Baseline edit(Random random, Baseline baseline) {
+        List<Record> records = baseline.stream().collect(Collectors.toList());
+        if (records.size() < 2 || random.nextInt(5) == 0) {
+            return baseline.add(Record.create(random.nextBoolean() ? box : item)
+                    .newIdentifier()
+                    .setLongName("name" + random.nextInt(10))
+                    .build(ISO8601.EPOCH));
+        }
+        Record record = records.get(random.nextInt(records.size()));
+        Record other = records.get(random.nextInt(records.size()));
+        switch (random.nextInt(5)) {
+            case 0:
+                // Removal cascades to records that refer to this one
+                return baseline.remove(record.getIdentifier());
+            case 1:
+                return baseline.add(record.asBuilder()
+                        .setLongName("name" + random.nextInt(10))
+                        .build(ISO8601.EPOCH));
+            case 2:
+                // Change type, keeping the identifier
+                return baseline.remove(record.getIdentifier()).add(
+                        Record.create(box.equals(record.getType()) ? item : box)
+                        .setIdentifier(record.getIdentifier())
+                        .setLongName(record.getLongName())
+                        .build(ISO8601.EPOCH));
+            case 3:
+                return baseline.add(record.asBuilder()
+                        .setTrace(other)
+                        .build(ISO8601.EPOCH));
+            default:
+                return baseline.add(record.asBuilder()
+                        .setContainer(other)
+                        .build(ISO8601.EPOCH));
+        }
+    }
+
+    @Test
+    public void recordDeltasReplayBaselines() {
+        Random random = new Random(22);
+        UndoBuffer<WhyHowPair<Baseline>> buffer = new UndoBuffer<>(
+                new WhyHowPair<>(RecordStore.empty(), RecordStore.empty()),
+                new UndoBuffer.Policy<>(1000, 1, Long.MAX_VALUE, BaselinePairDelta::between));
+        List<WhyHowPair<Baseline>> states = new ArrayList<>();
+        states.add(buffer.get());
+        for (int step = 0; step < 200; ++step) {
+            WhyHowPair<Baseline> state = buffer.get();
+            Baseline parent = state.getParent();
+            Baseline child = state.getChild();
+            int edits = 1 + random.nextInt(4);
+            for (int ii = 0; ii < edits; ++ii) {
+                if (random.nextInt(4) == 0) {
+                    parent = edit(random, parent);
+                } else {
+                    child = edit(random, child);
+                }
+            }
+            WhyHowPair<Baseline> next = new WhyHowPair<>(parent, child);
+            if (!next.equals(state)) {
+                buffer.set(next);
+                states.add(next);
+            }
+        }
+        assertEquals(1, buffer.getStatistics().getSnapshots());
+        assertTrue(buffer.getStatistics().getDeltaSize() > 0);
+        for (int ii = states.size() - 2; ii >= 0; --ii) {
+            WhyHowPair<Baseline> state = buffer.undo();
+            assertEquals(describe(states.get(ii).getParent()), describe(state.getParent()));
+            assertEquals(describe(states.get(ii).getChild()), describe(state.getChild()));
+        }
+        assertFalse(buffer.canUndo());
+        for (int ii = 1; ii < states.size(); ++ii) {
+            WhyHowPair<Baseline> state = buffer.redo();
+            assertEquals(describe(states.get(ii).getParent()), describe(state.getParent()));
+            assertEquals(describe(states.get(ii).getChild()), describe(state.getChild()));
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.storage;
+
+import au.id.soundadvice.systemdesign.entity.RecordStore;
+import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.entity.TableFactory;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import au.id.soundadvice.systemdesign.storage.versioning.NullVersionControl;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class CSVStorageTest {
+
+    private static final Map<String, Table> TABLES = new HashMap<>();
+    private static final TableFactory FACTORY
+            = name -> TABLES.computeIfAbsent(name, Table.Default::new);
+    private static final Table box = FACTORY.apply("box");
+    private static final Table item = FACTORY.apply("item");
+
+    @TempDir
+    Path directory;
+
+    private static Record create(Table type, String longName) {
+        return Record.create(type)
+                .newIdentifier()
+                .setLongName(longName)
+                .build(ISO8601.EPOCH);
+    }
+
+    private Baseline load() throws IOException {
+        return CSVStorage.forPath(directory).loadBaseline(FACTORY, Optional.empty());
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Baseline baseline = RecordStore.empty()
+                .add(create(box, "one"))
+                .add(create(box, "two"))
+                .add(create(item, "three"));
+        CSVStorage.forPath(directory).saveBaseline(baseline);
+        assertEquals(
+                baseline.stream().collect(Collectors.toSet()),
+                load().stream().collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void duplicateIdentifiersAcrossTablesAreRejected() throws IOException {
+        Baseline baseline = RecordStore.empty()
+                .add(create(box, "one"))
+                .add(create(box, "two"));
+        CSVStorage.forPath(directory).saveBaseline(baseline);
+        // The same rows appear again under another table
+        Files.copy(directory.resolve("box.sysrec"), directory.resolve("item.sysrec"));
+        assertThrows(IllegalStateException.class, this::load);
+    }
+
+    /**
+     * Version control that records the files each save reports as changed.
+     */
+    private static final class Recording extends NullVersionControl {
+
+        private final List<Path> changed = new ArrayList<>();
+
+        @Override
+        public void changed(Collection<Path> filenames) {
+            changed.addAll(filenames);
+        }
+    }
+
+    private final Recording vcs = new Recording();
+
+    /**
+     * Save baseline over previous, returning the names of the files written
+     * or deleted.
+     */
+    private Set<String> save(Baseline baseline, Baseline previous) throws IOException {
+        vcs.changed.clear();
+        new CSVStorage(vcs, directory).saveBaseline(baseline, previous);
+        return vcs.changed.stream()
+                .map(file -> file.getFileName().toString())
+                .collect(Collectors.toSet());
+    }
+
+    private static Set<String> names(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private void assertLoads(Baseline expected) throws IOException {
+        assertEquals(
+                expected.stream().collect(Collectors.toSet()),
+                load().stream().collect(Collectors.toSet()));
+    }
+
+    private Object fileKey(String filename) throws IOException {
+        return Files.readAttributes(directory.resolve(filename), BasicFileAttributes.class)
+                .fileKey();
+    }
+
+    private Baseline saved() throws IOException {
+        Baseline baseline = RecordStore.empty()
+                .add(create(box, "one"))
+                .add(create(box, "two"))
+                .add(create(item, "three"));
+        assertEquals(names("box.sysrec", "item.sysrec"), save(baseline, RecordStore.empty()));
+        return baseline;
+    }
+
+    @Test
+    public void unchangedBaselineWritesNothing() throws IOException {
+        Baseline baseline = saved();
+        assertEquals(Collections.emptySet(), save(baseline, baseline));
+        assertLoads(baseline);
+    }
+
+    @Test
+    public void onlyTheEditedTableIsWritten() throws IOException {
+        Baseline baseline = saved();
+        Object itemKey = fileKey("item.sysrec");
+        Record one = baseline.findByLongName("one").findAny().get();
+        Baseline edited = baseline.add(one.asBuilder()
+                .setLongName("renamed")
+                .build(ISO8601.EPOCH));
+        assertEquals(names("box.sysrec"), save(edited, baseline));
+        assertEquals(itemKey, fileKey("item.sysrec"));
+        assertLoads(edited);
+    }
+
+    @Test
+    public void emptiedTableIsDeleted() throws IOException {
+        Baseline baseline = saved();
+        Record three = baseline.findByLongName("three").findAny().get();
+        Baseline emptied = baseline.remove(three.getIdentifier());
+        assertEquals(names("item.sysrec"), save(emptied, baseline));
+        assertFalse(Files.exists(directory.resolve("item.sysrec")));
+        assertLoads(emptied);
+    }
+
+    @Test
+    public void tableEditedOnDiskIsRewritten() throws IOException {
+        Baseline baseline = saved();
+        Path file = directory.resolve("box.sysrec");
+        Files.write(file, "identifier,longName\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(names("box.sysrec"), save(baseline, baseline));
+        assertLoads(baseline);
+    }
+
+    @Test
+    public void tableDeletedOnDiskIsRestored() throws IOException {
+        Baseline baseline = saved();
+        Files.delete(directory.resolve("item.sysrec"));
+        assertEquals(names("item.sysrec"), save(baseline, baseline));
+        assertLoads(baseline);
+    }
+
+    @Test
+    public void strayTableIsRemoved() throws IOException {
+        Baseline baseline = saved();
+        Files.copy(directory.resolve("item.sysrec"), directory.resolve("stray.sysrec"));
+        assertEquals(names("stray.sysrec"), save(baseline, baseline));
+        assertFalse(Files.exists(directory.resolve("stray.sysrec")));
+        assertLoads(baseline);
+    }
+
+    /**
+     * A baseline of records spread evenly over the given number of tables.
+     */
+    private static Baseline generate(int tables, int records) {
+        Table[] types = IntStream.range(0, tables)
+                .mapToObj(table -> FACTORY.apply("table" + table))
+                .toArray(Table[]::new);
+        return RecordStore.valueOf(IntStream.range(0, records)
+                .mapToObj(record -> create(types[record % tables], "Record " + record)));
+    }
+
+    /**
+     * Time loading a 200k record baseline split over 20 table files. Run with
+     * -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void loadBenchmark() throws IOException {
+        Baseline baseline = generate(20, 200000);
+        CSVStorage.forPath(directory).saveBaseline(baseline);
+        assertEquals(baseline.size(), load().size());
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 15; ++run) {
+            long start = System.nanoTime();
+            load();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println("Loading " + baseline.size() + " records: "
+                + best / 1000000 + " ms (best of 15)");
+    }
+
+    private static long timeSave(CSVStorage storage, Baseline baseline) throws IOException {
+        long start = System.nanoTime();
+        storage.saveBaseline(baseline);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Compare saving a 100k record baseline split over 20 table files on the
+     * saving thread against saving it on a pool. Run with -Dbenchmark=true.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void saveBenchmark() throws IOException {
+        Baseline baseline = generate(20, 100000);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            CSVStorage sequential = CSVStorage.forPath(directory.resolve("sequential"));
+            CSVStorage concurrent = CSVStorage.forPath(directory.resolve("concurrent"), executor);
+            // Alternate the two so that neither runs on a warmer JVM
+            long sequentialBest = Long.MAX_VALUE;
+            long concurrentBest = Long.MAX_VALUE;
+            for (int run = 0; run < 15; ++run) {
+                sequentialBest = Math.min(sequentialBest, timeSave(sequential, baseline));
+                concurrentBest = Math.min(concurrentBest, timeSave(concurrent, baseline));
+            }
+            assertEquals(baseline.size(), sequential.loadBaseline(FACTORY, Optional.empty()).size());
+            assertEquals(baseline.size(), concurrent.loadBaseline(FACTORY, Optional.empty()).size());
+            System.out.println("Saving " + baseline.size() + " records: sequential "
+                    + sequentialBest / 1000000 + " ms, concurrent "
+                    + concurrentBest / 1000000 + " ms (best of 15)");
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
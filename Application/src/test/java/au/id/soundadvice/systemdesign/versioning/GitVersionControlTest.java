@@ -0,0 +1,114 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.versioning;
+
+import au.id.soundadvice.systemdesign.moduleapi.storage.VersionInfo;
+import au.id.soundadvice.systemdesign.storage.versioning.jgit.GitVersionControl;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Check paging through the tags of a repository.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class GitVersionControlTest {
+
+    @TempDir
+    Path directory;
+
+    private static RevCommit commit(Git git, int time) throws Exception {
+        PersonIdent ident = new PersonIdent(
+                "test", "test@example.com", new Date(time * 1000L), TimeZone.getTimeZone("UTC"));
+        return git.commit()
+                .setMessage("commit " + time)
+                .setAllowEmpty(true)
+                .setAuthor(ident)
+                .setCommitter(ident)
+                .call();
+    }
+
+    private static List<String> names(List<VersionInfo> versions) {
+        return versions.stream()
+                .map(version -> version.getDescription().split(" ")[0])
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void pagesFollowCommitTime() throws Exception {
+        try (Git git = Git.init().setDirectory(directory.toFile()).call()) {
+            // Tags are created out of commit order, annotated and not, with
+            // two tags sharing a commit
+            RevCommit first = commit(git, 1000);
+            RevCommit second = commit(git, 2000);
+            RevCommit third = commit(git, 3000);
+            git.tag().setName("c").setObjectId(third).setAnnotated(true).setMessage("c").call();
+            git.tag().setName("a").setObjectId(first).setAnnotated(false).call();
+            git.tag().setName("b2").setObjectId(second).setAnnotated(false).call();
+            git.tag().setName("b1").setObjectId(second).setAnnotated(true).setMessage("b1").call();
+
+            try (GitVersionControl vcs = new GitVersionControl(directory)) {
+                List<String> all = Arrays.asList("c", "b1", "b2", "a");
+                assertEquals(all, names(vcs.getVersions(0, Integer.MAX_VALUE)));
+                assertEquals(all, names(vcs.getVersions().collect(Collectors.toList())));
+                List<String> paged = new ArrayList<>();
+                for (int start = 0; start < 5; start += 2) {
+                    paged.addAll(names(vcs.getVersions(start, 2)));
+                }
+                assertEquals(all, paged);
+                assertEquals(Arrays.asList("b1", "b2", "a"), names(vcs.getVersions(1, 10)));
+                assertEquals(Collections.singletonList("a"), names(vcs.getVersions(3, 1)));
+                assertEquals(Collections.emptyList(), names(vcs.getVersions(4, 1)));
+                assertEquals(Collections.emptyList(), names(vcs.getVersions(10, 1)));
+                assertEquals(Collections.emptyList(), names(vcs.getVersions(0, 0)));
+                assertEquals(Collections.singletonList("b2"),
+                        names(vcs.getVersions(2, Integer.MAX_VALUE - 1).subList(0, 1)));
+
+                // A new tag is seen by the next call
+                git.tag().setName("d").setObjectId(commit(git, 4000)).setAnnotated(false).call();
+                assertEquals(Arrays.asList("d", "c"), names(vcs.getVersions(0, 2)));
+                git.tagDelete().setTags("c").call();
+                assertEquals(Arrays.asList("d", "b1"), names(vcs.getVersions(0, 2)));
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import au.id.soundadvice.systemdesign.moduleapi.Module;
 import au.id.soundadvice.systemdesign.moduleapi.drawing.Drawing;
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
 import au.id.soundadvice.systemdesign.moduleapi.collection.DiffPair;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
 import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
 import au.id.soundadvice.systemdesign.moduleapi.tree.Tree;
 import java.util.stream.Stream;
@@ -43,6 +44,13 @@ public class BudgetModule implements Module {
                 BudgetAllocation.budgetAllocation);
     }
 
+    @Override
+    public Stream<RecordIndex<?>> getIndexes() {
+        return Stream.of(
+                Budget.BY_KEY,
+                BudgetAllocation.BY_BUDGET_AND_ITEM);
+    }
+
     @Override
     public Stream<Drawing> getDrawings(DiffPair<Baseline> baselines) {
         return Stream.empty();
@@ -53,4 +61,9 @@ public class BudgetModule implements Module {
 //        return Stream.of(new BudgetTree(baselines));
         return Stream.empty();
     }
+
+    @Override
+    public boolean isTreeDrawnFrom(Table table) {
+        return false;
+    }
 }
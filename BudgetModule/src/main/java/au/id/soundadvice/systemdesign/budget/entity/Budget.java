@@ -27,6 +27,7 @@
 package au.id.soundadvice.systemdesign.budget.entity;
 
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
 import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
@@ -250,8 +251,11 @@ public enum Budget implements Table {
         }
     }
 
+    public static final RecordIndex<Key> BY_KEY = RecordIndex.create(
+            "budget.key", budget, record -> Stream.of(budget.getKey(record)));
+
     public static Stream<Record> find(Baseline baseline, Key key) {
-        return find(baseline).filter(budget -> key.equals(Budget.budget.getKey(budget)));
+        return baseline.findByIndex(BY_KEY, key);
     }
 
     public static Stream<Record> find(Baseline baseline) {
@@ -27,8 +27,10 @@
 package au.id.soundadvice.systemdesign.budget.entity;
 
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
 import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
 import au.id.soundadvice.systemdesign.moduleapi.suggest.Problem;
 import au.id.soundadvice.systemdesign.physical.entity.Identity;
 import java.text.ParseException;
@@ -66,9 +68,21 @@ public enum BudgetAllocation implements Table {
         return baseline.findReverse(budget.getIdentifier(), BudgetAllocation.budgetAllocation);
     }
 
+    /**
+     * Allocations by each record they refer to, paired with the item they
+     * allocate to.
+     */
+    public static final RecordIndex<Pair<RecordID, RecordID>> BY_BUDGET_AND_ITEM = RecordIndex.create(
+            "budgetAllocation.budgetAndItem", budgetAllocation,
+            allocation -> allocation.getViewOf()
+            .map(item -> allocation.getReferences().values().stream()
+                    .distinct()
+                    .map(budget -> new Pair<>(budget, item)))
+            .orElse(Stream.empty()));
+
     public static Optional<Record> getForItemAndBudget(Baseline baseline, Record budget, Record item) {
-        return findForBudget(baseline, budget)
-                .filter(allocation -> allocation.getViewOf().get().equals(item.getIdentifier()))
+        return baseline.findByIndex(BY_BUDGET_AND_ITEM,
+                new Pair<>(budget.getIdentifier(), item.getIdentifier()))
                 .findAny();
     }
 
@@ -42,6 +42,7 @@ import au.id.soundadvice.systemdesign.moduleapi.Module;
 import au.id.soundadvice.systemdesign.moduleapi.drawing.Drawing;
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
 import au.id.soundadvice.systemdesign.moduleapi.collection.DiffPair;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.collection.RecordConnectionScope;
 import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
@@ -78,8 +79,7 @@ public class LogicalModule implements Module {
             ConnectionScope interfaceScope = new ConnectionScope(
                     externalItem.getTrace().get(), system.get().getIdentifier(), Direction.None);
             Optional<Record> iface
-                    = functional.findByScope(interfaceScope)
-                    .filter(candidate -> candidate.getType().equals(Interface.iface))
+                    = functional.findByScope(interfaceScope, Interface.iface)
                     .findAny();
             if (!iface.isPresent()) {
                 return baselines;
@@ -204,6 +204,11 @@ public class LogicalModule implements Module {
                 LogicalDrawing.logicalDrawing);
     }
 
+    @Override
+    public Stream<RecordIndex<?>> getIndexes() {
+        return Stream.of(FunctionView.BY_FUNCTION_AND_DRAWING);
+    }
+
     @Override
     public Stream<Drawing> getDrawings(DiffPair<Baseline> baselines) {
         return DiffPair.find(
@@ -217,4 +222,12 @@ public class LogicalModule implements Module {
     public Stream<Tree> getTrees(WhyHowPair<Baseline> baselines) {
         return Stream.of(new LogicalTree(menus, baselines), new TypeTree(menus, baselines));
     }
+
+    @Override
+    public boolean isTreeDrawnFrom(Table table) {
+        return table == Identity.identity
+                || table == Item.item
+                || table == Function.function
+                || table == FlowType.flowType;
+    }
 }
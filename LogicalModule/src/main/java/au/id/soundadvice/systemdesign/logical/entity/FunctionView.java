@@ -27,6 +27,7 @@
 package au.id.soundadvice.systemdesign.logical.entity;
 
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
 import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
@@ -87,9 +88,17 @@ public enum FunctionView implements Table {
         return baseline.findReverse(drawing.getIdentifier(), functionView);
     }
 
+    public static final RecordIndex<Pair<RecordID, RecordID>> BY_FUNCTION_AND_DRAWING = RecordIndex.create(
+            "functionView.functionAndDrawing", functionView,
+            view -> view.getViewOf()
+            .flatMap(function -> view.getContainer()
+                    .map(drawing -> new Pair<>(function, drawing)))
+            .map(Stream::of)
+            .orElse(Stream.empty()));
+
     public static Optional<Record> get(Baseline baseline, Record function, Record drawing) {
-        return findForFunction(baseline, function)
-                .filter(view -> FunctionView.functionView.getDrawing(baseline, view).is(drawing))
+        return baseline.findByIndex(BY_FUNCTION_AND_DRAWING,
+                new Pair<>(function.getIdentifier(), drawing.getIdentifier()))
                 .findAny();
     }
 
@@ -100,29 +109,49 @@ public enum FunctionView implements Table {
         if (existingView.isPresent()) {
             return new Pair<>(baseline, existingView.get());
         } else {
-            Record view;
-            if (origin.isPresent()) {
-                view = Record.create(functionView)
-                        .setViewOf(function)
+            Record view = newView(baseline, now, function, drawing, origin);
+            baseline = baseline.add(view);
+            return new Pair<>(baseline, view);
+        }
+    }
+
+    /**
+     * Create a view in a transient baseline, which is updated in place.
+     *
+     * @param baseline The baseline to update
+     * @param now The current time in ISO8601 format
+     * @param function The function this view refers to
+     * @param drawing The drawing to place the view on
+     * @param origin The location for the view, if known
+     */
+    public static void create(
+            Baseline.Transient baseline, String now, Record function, Record drawing, Optional<Point2D> origin) {
+        if (!get(baseline, function, drawing).isPresent()) {
+            baseline.add(newView(baseline, now, function, drawing, origin));
+        }
+    }
+
+    private static Record newView(
+            Baseline baseline, String now, Record function, Record drawing, Optional<Point2D> origin) {
+        if (origin.isPresent()) {
+            return Record.create(functionView)
+                    .setViewOf(function)
+                    .setContainer(drawing)
+                    .setOrigin(origin.get())
+                    .build(now);
+        } else {
+            Optional<Record> nearMatch = findForFunction(baseline, function).findAny();
+            if (nearMatch.isPresent()) {
+                return nearMatch.get().asBuilder()
                         .setContainer(drawing)
-                        .setOrigin(origin.get())
                         .build(now);
             } else {
-                Optional<Record> nearMatch = findForFunction(baseline, function).findAny();
-                if (nearMatch.isPresent()) {
-                    view = nearMatch.get().asBuilder()
-                            .setContainer(drawing)
-                            .build(now);
-                } else {
-                    view = Record.create(functionView)
-                            .setViewOf(function)
-                            .setContainer(drawing)
-                            .setOrigin(DEFAULT_ORIGIN)
-                            .build(now);
-                }
+                return Record.create(functionView)
+                        .setViewOf(function)
+                        .setContainer(drawing)
+                        .setOrigin(DEFAULT_ORIGIN)
+                        .build(now);
             }
-            baseline = baseline.add(view);
-            return new Pair<>(baseline, view);
         }
     }
 
@@ -131,7 +160,7 @@ public enum FunctionView implements Table {
         Baseline parent = state.getParent();
         Baseline child = state.getChild();
         Iterator<Record> drawings = child.findByType(LogicalDrawing.logicalDrawing).iterator();
-        WhyHowPair<Baseline> result = state;
+        Baseline.Transient updatedChild = child.asTransient();
         while (drawings.hasNext()) {
             Record drawing = drawings.next();
             Map<RecordID, Record> functionsWithExistingViews
@@ -143,8 +172,7 @@ public enum FunctionView implements Table {
             if (trace.isPresent()) {
                 // Functions that directly trace to the drawing owner
                 functionsForDiagram = child
-                        .findByTrace(trace)
-                        .filter(function -> Function.function.equals(function.getType()))
+                        .findByTrace(trace, Function.function)
                         .flatMap(function -> {
                             // Find related
                             Stream<Record> related = Flow.findForFunction(child, function)
@@ -172,11 +200,10 @@ public enum FunctionView implements Table {
                     .iterator();
             while (functionsToAdd.hasNext()) {
                 Record functionToAdd = functionsToAdd.next();
-                result = result.setChild(FunctionView.create(result.getChild(), now, functionToAdd, drawing, Optional.empty())
-                        .getKey());
+                FunctionView.create(updatedChild, now, functionToAdd, drawing, Optional.empty());
             }
         }
-        return result;
+        return state.setChild(updatedChild.persistent());
     }
 
     public Record getFunction(Baseline baseline, Record view) {
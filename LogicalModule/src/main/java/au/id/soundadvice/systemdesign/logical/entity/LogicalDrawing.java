@@ -141,11 +141,11 @@ public enum LogicalDrawing implements Table {
                     // Any drawing traced to the nominated parent function
                     // (including the Optional.empty parent function)
                     //is a match
-                    return !baselines.getChild().findByTrace(trace.map(Record::getIdentifier))
-                            .filter(record -> LogicalDrawing.logicalDrawing.equals(record.getType()))
+                    return !baselines.getChild().findByTrace(
+                            trace.map(Record::getIdentifier), LogicalDrawing.logicalDrawing)
                             .findAny().isPresent();
                 }).iterator();
-        WhyHowPair<Baseline> result = baselines;
+        Baseline.Transient updatedChild = baselines.getChild().asTransient();
         while (it.hasNext()) {
             Optional<Record> traceFunction = it.next();
             Record newDrawing;
@@ -154,8 +154,8 @@ public enum LogicalDrawing implements Table {
             } else {
                 newDrawing = createForContext(now);
             }
-            result = result.setChild(result.getChild().add(newDrawing));
+            updatedChild.add(newDrawing);
         }
-        return result;
+        return baselines.setChild(updatedChild.persistent());
     }
 }
@@ -30,6 +30,7 @@ import java.util.stream.Stream;
 import au.id.soundadvice.systemdesign.moduleapi.drawing.Drawing;
 import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
 import au.id.soundadvice.systemdesign.moduleapi.collection.DiffPair;
+import au.id.soundadvice.systemdesign.moduleapi.collection.RecordIndex;
 import au.id.soundadvice.systemdesign.moduleapi.collection.WhyHowPair;
 import au.id.soundadvice.systemdesign.moduleapi.tree.Tree;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
@@ -70,6 +71,17 @@ public interface Module {
      */
     public Stream<Table> getTables();
 
+    /**
+     * Return the secondary indexes this module queries baselines through.
+     * Baselines maintain each index as records are added and removed. Modules
+     * that declare no indexes need not override this.
+     *
+     * @return
+     */
+    default public Stream<RecordIndex<?>> getIndexes() {
+        return Stream.empty();
+    }
+
     /**
      * Return the drawings for this module within the nominated baseline.
      *
@@ -85,4 +97,16 @@ public interface Module {
      * @return All trees for this module from the nominated baseline pair
      */
     public Stream<Tree> getTrees(WhyHowPair<Baseline> baselines);
+
+    /**
+     * Determine whether this module's trees are drawn from records of the
+     * nominated type, so must be rebuilt when such a record changes. By
+     * default trees are rebuilt for any change.
+     *
+     * @param table The type of a changed record
+     * @return true if the trees may differ after the change
+     */
+    default public boolean isTreeDrawnFrom(Table table) {
+        return true;
+    }
 }
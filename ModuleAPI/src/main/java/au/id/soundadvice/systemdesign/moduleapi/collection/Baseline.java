@@ -85,6 +85,17 @@ public interface Baseline {
      */
     public Stream<Record> findByTrace(Optional<RecordID> parentIdentifier);
 
+    /**
+     * Returns records of the nominated type that trace to the nominated
+     * parent.
+     *
+     * @param parentIdentifier The identifier of the traced object in the parent
+     * baseline
+     * @param type The type of record to search for
+     * @return A stream of records of type that trace to parentIdentifier
+     */
+    public Stream<Record> findByTrace(Optional<RecordID> parentIdentifier, Table type);
+
     /**
      * Returns records that completely include the nominated scope. If the
      * scope's direction is None, all directions are included.
@@ -94,6 +105,17 @@ public interface Baseline {
      */
     public Stream<Record> findByScope(ConnectionScope scope);
 
+    /**
+     * Returns records of the nominated type that completely include the
+     * nominated scope. If the scope's direction is None, all directions are
+     * included.
+     *
+     * @param scope The scope of the connection records to return
+     * @param type The type of record to search for
+     * @return A stream of records of type that match the nominated scope
+     */
+    public Stream<Record> findByScope(ConnectionScope scope, Table type);
+
     /**
      * Returns records whose long name is equal to the specified value.
      *
@@ -102,6 +124,15 @@ public interface Baseline {
      */
     public Stream<Record> findByLongName(String longName);
 
+    /**
+     * Returns records found under key in a module's secondary index.
+     *
+     * @param index The index to search
+     * @param key The key to search for
+     * @return A stream of records of the index type that have the key
+     */
+    public <K> Stream<Record> findByIndex(RecordIndex<K> index, K key);
+
     /**
      * Returns a list of records in the baseline with references to the given
      * identifier.
@@ -154,4 +185,65 @@ public interface Baseline {
     public Baseline mergeRecords(String now, Stream<Record> toMerge, BinaryOperator<Record> mergeFunction);
 
     public boolean isEmpty();
+
+    /**
+     * Find the records that differ between this baseline and other. Snapshots
+     * of the same baseline share structure, and shared structure is skipped
+     * without being visited, so the cost is proportional to the size of the
+     * change rather than the size of the baseline.
+     *
+     * @param other The baseline to compare against
+     * @return The differences, with this baseline as the was side
+     */
+    public BaselineDiff diff(Baseline other);
+
+    /**
+     * Returns a transient copy of this baseline for applying a batch of
+     * changes. This baseline is not affected by changes made to the copy.
+     *
+     * @return A transient baseline with the same content as this baseline
+     */
+    public Transient asTransient();
+
+    /**
+     * A baseline that is updated in place, for use when many changes are
+     * applied in sequence. The add, remove and mergeRecords methods update and
+     * return this same object. Streams returned by a transient baseline must be
+     * consumed before the next change is made. A transient baseline must not be
+     * shared between threads, and must not be retained once persistent() has
+     * been called.
+     */
+    public interface Transient extends Baseline {
+
+        /**
+         * Adds a new record in place, replacing any existing record with the
+         * same identifier.
+         *
+         * @param newRecord The record to add
+         * @return This baseline
+         */
+        @Override
+        public Transient add(Record newRecord);
+
+        /**
+         * Removes the identified record in place, if it exists.
+         *
+         * @param identifier The identifier of the record to remove
+         * @return This baseline
+         */
+        @Override
+        public Transient remove(RecordID identifier);
+
+        @Override
+        public Transient mergeRecords(String now, Stream<Record> toMerge, BinaryOperator<Record> mergeFunction);
+
+        /**
+         * Freeze the changes made so far into an immutable baseline. No
+         * further changes can be made through this object.
+         *
+         * @return The immutable baseline
+         */
+        @CheckReturnValue
+        public Baseline persistent();
+    }
 }
@@ -0,0 +1,135 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.moduleapi.collection;
+
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The records that differ between two baselines, grouped by table. Each
+ * difference is a DiffPair whose was side is the baseline diff() was called
+ * on.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public final class BaselineDiff {
+
+    /**
+     * Construct a diff from its differences.
+     *
+     * @param was The baseline compared from
+     * @param is The baseline compared to
+     * @param changes The records that were added, removed or changed
+     */
+    public BaselineDiff(Baseline was, Baseline is, Collection<DiffPair<Record>> changes) {
+        this.was = was;
+        this.is = is;
+        Map<RecordID, DiffPair<Record>> tmpByIdentifier = new HashMap<>();
+        Map<Table, List<DiffPair<Record>>> tmpByTable = new HashMap<>();
+        for (DiffPair<Record> pair : changes) {
+            tmpByIdentifier.put(pair.getSample().getIdentifier(), pair);
+            // A record whose type has changed is listed under both tables
+            pair.stream()
+                    .map(Record::getType)
+                    .distinct()
+                    .forEach(type -> tmpByTable.computeIfAbsent(
+                            type, key -> new ArrayList<>()).add(pair));
+        }
+        this.byIdentifier = Collections.unmodifiableMap(tmpByIdentifier);
+        this.byTable = Collections.unmodifiableMap(tmpByTable);
+    }
+    private final Baseline was;
+    private final Baseline is;
+    private final Map<RecordID, DiffPair<Record>> byIdentifier;
+    private final Map<Table, List<DiffPair<Record>>> byTable;
+
+    public Baseline getWas() {
+        return was;
+    }
+
+    public Baseline getIs() {
+        return is;
+    }
+
+    /**
+     * @return Every difference
+     */
+    public Stream<DiffPair<Record>> stream() {
+        return byIdentifier.values().stream();
+    }
+
+    /**
+     * @param type The table of interest
+     * @return The differences to records of the given type
+     */
+    public Stream<DiffPair<Record>> stream(Table type) {
+        return byTable.getOrDefault(type, Collections.emptyList()).stream();
+    }
+
+    /**
+     * @return The tables with at least one difference
+     */
+    public Set<Table> getTables() {
+        return byTable.keySet();
+    }
+
+    public Optional<DiffPair<Record>> get(RecordID identifier) {
+        return Optional.ofNullable(byIdentifier.get(identifier));
+    }
+
+    /**
+     * @param identifier The record of interest
+     * @return true if the record differs between the two baselines
+     */
+    public boolean contains(RecordID identifier) {
+        return byIdentifier.containsKey(identifier);
+    }
+
+    public boolean isEmpty() {
+        return byIdentifier.isEmpty();
+    }
+
+    public int size() {
+        return byIdentifier.size();
+    }
+
+    @Override
+    public String toString() {
+        return byIdentifier.values().toString();
+    }
+}
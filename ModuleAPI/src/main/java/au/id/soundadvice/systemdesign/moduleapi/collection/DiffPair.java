@@ -37,6 +37,7 @@ import java.util.function.Function;
 import java.util.stream.Stream;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -114,15 +115,61 @@ public class DiffPair<T> implements DiffInfo {
         return new DiffPair<>(was, was, is, Optional.of(is));
     }
 
+    /**
+     * Find records in either baseline.
+     *
+     * A record may be found on one side only because the records around it
+     * have changed, so the finder is run against both baselines. The records
+     * it returns are paired by identifier, and only a record found on one
+     * side alone is looked up again on the other. The cost is proportional to
+     * the number of records found, whether or not the two baselines share
+     * structure.
+     *
+     * @param baselines The baselines to search
+     * @param finder The lookup to run against each baseline
+     * @param recordType The type of record to find
+     * @return A pair for each record found in either baseline
+     */
     public static Stream<DiffPair<Record>> find(
             DiffPair<?> baselines,
             Function<Baseline, Stream<Record>> finder, Table recordType) {
-        return baselines.map((baseline, record) -> finder.apply(baseline))
-                .stream()
-                .flatMap(stream -> stream)
-                .map(Record::getIdentifier)
-                .distinct()
-                .map(recordIdentifier -> DiffPair.get(baselines, recordIdentifier, recordType));
+        Baseline isBaseline = baselines.isBaseline;
+        if (!baselines.wasBaseline.isPresent()) {
+            return finder.apply(isBaseline)
+                    .map(Record::getIdentifier)
+                    .distinct()
+                    .map(identifier -> DiffPair.get(baselines, identifier, recordType));
+        }
+        Baseline wasBaseline = baselines.wasBaseline.get();
+        Map<RecordID, Record> was = collect(finder.apply(wasBaseline));
+        Map<RecordID, Record> is = collect(finder.apply(isBaseline));
+        return Stream.concat(
+                was.keySet().stream(),
+                is.keySet().stream().filter(identifier -> !was.containsKey(identifier)))
+                .map(identifier -> {
+                    Optional<Record> wasInstance = find(wasBaseline, was, identifier, recordType);
+                    Optional<Record> isInstance = find(isBaseline, is, identifier, recordType);
+                    return new DiffPair<>(
+                            baselines.wasBaseline, wasInstance, isBaseline, isInstance);
+                });
+    }
+
+    private static Map<RecordID, Record> collect(Stream<Record> records) {
+        return records.collect(Collectors.toMap(
+                Record::getIdentifier, Function.identity(),
+                (left, right) -> left, LinkedHashMap::new));
+    }
+
+    private static Optional<Record> find(
+            Baseline baseline, Map<RecordID, Record> found,
+            RecordID identifier, Table recordType) {
+        Record record = found.get(identifier);
+        if (record == null) {
+            return baseline.get(identifier, recordType);
+        } else {
+            return Optional.of(record)
+                    .filter(candidate -> recordType.equals(candidate.getType()));
+        }
     }
 
     public static DiffPair<Record> get(
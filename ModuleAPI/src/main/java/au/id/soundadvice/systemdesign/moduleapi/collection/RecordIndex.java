@@ -0,0 +1,95 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.moduleapi.collection;
+
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A secondary index over the records of one type, declared by a module. Each
+ * record of the type is indexed under every key its key function returns.
+ * Indexes are compared by identity, so each should be declared once as a
+ * constant.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ * @param <K> Key type
+ */
+public final class RecordIndex<K> {
+
+    /**
+     * Declare an index.
+     *
+     * @param name A name for the index, for diagnostics
+     * @param type The type of record to index
+     * @param keys Returns the keys a record should be found under
+     * @return The index
+     */
+    public static <K> RecordIndex<K> create(
+            String name, Table type, Function<Record, Stream<K>> keys) {
+        return new RecordIndex<>(name, type, keys);
+    }
+
+    private final String name;
+    private final Table type;
+    private final Function<Record, Stream<K>> keys;
+
+    private RecordIndex(String name, Table type, Function<Record, Stream<K>> keys) {
+        this.name = name;
+        this.type = type;
+        this.keys = keys;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Table getType() {
+        return type;
+    }
+
+    /**
+     * Returns the keys the record is indexed under. Records of any other type
+     * are not indexed.
+     *
+     * @param record The record to index
+     * @return The record's keys
+     */
+    public Stream<K> getKeys(Record record) {
+        if (type.equals(record.getType())) {
+            return keys.apply(record);
+        } else {
+            return Stream.empty();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * 
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ * 
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.moduleapi.entity;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable sorted map from field names to values, stored as a shared
+ * array of interned keys alongside a flat array of values. Records of the
+ * same type almost always carry the same set of field names, so the key
+ * array is shared between them and each record only pays for its values.
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+final class CompactSortedMap<V> extends AbstractMap<String, V>
+        implements SortedMap<String, V> {
+
+    private static final String[] NO_KEYS = new String[0];
+    private static final CompactSortedMap<?> EMPTY
+            = new CompactSortedMap<>(NO_KEYS, new Object[0]);
+    private static final ReferenceQueue<String[]> COLLECTED = new ReferenceQueue<>();
+
+    /**
+     * A weakly held shared key array, remembering the key it is registered
+     * under so that it can be unregistered once collected.
+     */
+    private static final class SchemaRef extends WeakReference<String[]> {
+
+        private final List<String> key;
+
+        private SchemaRef(String[] keys, List<String> key) {
+            super(keys, COLLECTED);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Shared key arrays are held weakly, so combinations of keys that no
+     * live map uses any more are dropped rather than accumulating.
+     */
+    private static final ConcurrentMap<List<String>, SchemaRef> SCHEMAS
+            = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    static <V> CompactSortedMap<V> empty() {
+        return (CompactSortedMap<V>) EMPTY;
+    }
+
+    /**
+     * Copy a naturally-ordered map into compact form.
+     */
+    static <V> CompactSortedMap<V> copyOf(SortedMap<String, V> map) {
+        if (map instanceof CompactSortedMap) {
+            return (CompactSortedMap<V>) map;
+        } else if (map.isEmpty()) {
+            return empty();
+        }
+        String[] keys = map.keySet().toArray(NO_KEYS);
+        Object[] values = map.values().toArray();
+        return new CompactSortedMap<>(schema(keys), values);
+    }
+
+    /**
+     * Return the shared key array equal to keys, registering keys as the
+     * shared array if no live map uses the combination.
+     */
+    private static String[] schema(String[] keys) {
+        for (;;) {
+            SchemaRef collected = (SchemaRef) COLLECTED.poll();
+            if (collected == null) {
+                break;
+            }
+            SCHEMAS.remove(collected.key, collected);
+        }
+        SchemaRef ref = SCHEMAS.get(Arrays.asList(keys));
+        String[] existing = ref == null ? null : ref.get();
+        if (existing != null) {
+            return existing;
+        }
+        for (int ii = 0; ii < keys.length; ++ii) {
+            keys[ii] = keys[ii].intern();
+        }
+        // The registered key must not refer to the array itself, or the
+        // array could never be collected
+        List<String> key = Arrays.asList(keys.clone());
+        SchemaRef created = new SchemaRef(keys, key);
+        for (;;) {
+            SchemaRef prior = SCHEMAS.putIfAbsent(key, created);
+            if (prior == null) {
+                return keys;
+            }
+            existing = prior.get();
+            if (existing != null) {
+                return existing;
+            }
+            if (SCHEMAS.replace(key, prior, created)) {
+                return keys;
+            }
+        }
+    }
+
+    /**
+     * A fixed, sorted set of candidate keys. Callers resolve each key to its
+     * slot once and then build any number of maps from slot-indexed values.
+     */
+    static final class Schema<V> {
+
+        private final String[] keys;
+
+        Schema(Collection<String> keys) {
+            this.keys = schema(new TreeSet<>(keys).toArray(NO_KEYS));
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        /**
+         * Return the slot for key, or a negative number if key is not part of
+         * this schema.
+         */
+        int slotOf(String key) {
+            return Arrays.binarySearch(keys, key);
+        }
+
+        /**
+         * Build a map from values indexed by slot. Null values are omitted
+         * from the result. The values array is not retained.
+         */
+        CompactSortedMap<V> build(Object[] values) {
+            int present = 0;
+            for (Object value : values) {
+                if (value != null) {
+                    ++present;
+                }
+            }
+            if (present == 0) {
+                return empty();
+            } else if (present == keys.length) {
+                return new CompactSortedMap<>(keys, values.clone());
+            }
+            String[] subKeys = new String[present];
+            Object[] subValues = new Object[present];
+            int next = 0;
+            for (int ii = 0; ii < keys.length; ++ii) {
+                if (values[ii] != null) {
+                    subKeys[next] = keys[ii];
+                    subValues[next] = values[ii];
+                    ++next;
+                }
+            }
+            return new CompactSortedMap<>(schema(subKeys), subValues);
+        }
+    }
+
+    private final String[] keys;
+    private final Object[] values;
+    private int hash = 0;
+
+    private CompactSortedMap(String[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    private int indexOf(@Nullable Object key) {
+        if (key instanceof String) {
+            return Arrays.binarySearch(keys, (String) key);
+        } else {
+            return -1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(@Nullable Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    @Nullable
+    public V get(@Nullable Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                return new Iterator<Map.Entry<String, V>>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, V> next() {
+                        if (next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = next++;
+                        return new AbstractMap.SimpleImmutableEntry<>(
+                                keys[index], valueAt(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0 && keys.length > 0) {
+            for (int ii = 0; ii < keys.length; ++ii) {
+                result += keys[ii].hashCode() ^ values[ii].hashCode();
+            }
+            hash = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof CompactSortedMap) {
+            CompactSortedMap<?> other = (CompactSortedMap<?>) obj;
+            return hashCode() == other.hashCode()
+                    && Arrays.equals(keys, other.keys)
+                    && Arrays.equals(values, other.values);
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    @Nullable
+    public Comparator<? super String> comparator() {
+        // Natural ordering
+        return null;
+    }
+
+    @Override
+    public SortedMap<String, V> subMap(String fromKey, String toKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).subMap(fromKey, toKey));
+    }
+
+    @Override
+    public SortedMap<String, V> headMap(String toKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).headMap(toKey));
+    }
+
+    @Override
+    public SortedMap<String, V> tailMap(String fromKey) {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(this).tailMap(fromKey));
+    }
+
+    @Override
+    public String firstKey() {
+        if (keys.length == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[0];
+    }
+
+    @Override
+    public String lastKey() {
+        if (keys.length == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[keys.length - 1];
+    }
+}
@@ -28,9 +28,12 @@ package au.id.soundadvice.systemdesign.moduleapi.entity;
 
 import au.id.soundadvice.systemdesign.moduleapi.collection.RecordConnectionScope;
 import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -97,9 +100,9 @@ public class Record implements Identifiable, Comparable<Record> {
     }
 
     private final Table type;
-    private final SortedMap<String, String> meta;
-    private final SortedMap<String, String> fields;
-    private final SortedMap<String, RecordID> refs;
+    private final CompactSortedMap<String> meta;
+    private final CompactSortedMap<String> fields;
+    private final CompactSortedMap<RecordID> refs;
 
     private final RecordID identifier;
 
@@ -311,15 +314,11 @@ public class Record implements Identifiable, Comparable<Record> {
             return this;
         }
 
-        private static void fillMeta(SortedMap<String, String> map, String now, boolean newVersion) {
+        private static void fillMeta(SortedMap<String, String> map, String now) {
             if (map.get(MetaFields.identifier.name()) == null) {
                 map.put(MetaFields.identifier.name(), RecordID.create().toString());
             }
-            if (newVersion) {
-                map.put(MetaFields.lastChange.name(), now);
-            } else {
-                map.putIfAbsent(MetaFields.lastChange.name(), now);
-            }
+            map.put(MetaFields.lastChange.name(), now);
         }
 
         @CheckReturnValue
@@ -329,25 +328,25 @@ public class Record implements Identifiable, Comparable<Record> {
                 return was.get();
             } else {
                 initMeta();
-                fillMeta(meta.get(), now, true);
-                SortedMap<String, String> newFields;
+                fillMeta(meta.get(), now);
+                CompactSortedMap<String> newFields;
                 if (fields.isPresent()) {
-                    newFields = Collections.unmodifiableSortedMap(fields.get());
+                    newFields = CompactSortedMap.copyOf(fields.get());
                 } else if (was.isPresent()) {
                     newFields = was.get().fields;
                 } else {
-                    newFields = Collections.emptySortedMap();
+                    newFields = CompactSortedMap.empty();
                 }
-                SortedMap<String, RecordID> newRefs;
+                CompactSortedMap<RecordID> newRefs;
                 if (refs.isPresent()) {
-                    newRefs = Collections.unmodifiableSortedMap(refs.get());
+                    newRefs = CompactSortedMap.copyOf(refs.get());
                 } else if (was.isPresent()) {
                     newRefs = was.get().refs;
                 } else {
-                    newRefs = Collections.emptySortedMap();
+                    newRefs = CompactSortedMap.empty();
                 }
                 Record result = new Record(
-                        type, meta.get(), newFields, newRefs);
+                        type, CompactSortedMap.copyOf(meta.get()), newFields, newRefs);
                 meta = Optional.empty();
                 fields = Optional.empty();
                 refs = Optional.empty();
@@ -526,33 +525,113 @@ public class Record implements Identifiable, Comparable<Record> {
         }
     }
 
-    public static Record load(Table type, Map<String, String> allFields) {
-        SortedMap<String, String> newMetaFields = new TreeMap<>();
-        SortedMap<String, String> newFields = new TreeMap<>();
-        SortedMap<String, RecordID> newRefs = new TreeMap<>();
-        for (Map.Entry<String, String> entry : allFields.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            if (key.startsWith(References.PREFIX)) {
-                String suffix = key.substring(References.PREFIX.length());
-                Optional<RecordID> foreignKey = RecordID.load(value);
-                if (foreignKey.isPresent()) {
-                    newRefs.put(suffix, foreignKey.get());
+    private static final Set<String> META_FIELD_NAMES = Stream.of(MetaFields.values())
+            .map(MetaFields::name)
+            .collect(Collectors.toSet());
+
+    /**
+     * Loads records from rows that share a header. Each column is resolved to
+     * a meta field, field or reference slot once, when the loader is
+     * created, so that loading a row only needs to place its values.
+     */
+    public static final class Loader {
+
+        private static final int META = 0;
+        private static final int FIELD = 1;
+        private static final int REFERENCE = 2;
+
+        private final Table type;
+        private final int[] columnKinds;
+        private final int[] columnSlots;
+        private final CompactSortedMap.Schema<String> metaSchema;
+        private final CompactSortedMap.Schema<String> fieldSchema;
+        private final CompactSortedMap.Schema<RecordID> refSchema;
+        private final int identifierSlot;
+        private final int lastChangeSlot;
+
+        public Loader(Table type, String[] header) {
+            this.type = type;
+            List<String> fieldNames = new ArrayList<>();
+            List<String> refNames = new ArrayList<>();
+            for (String key : header) {
+                if (key.startsWith(References.PREFIX)) {
+                    refNames.add(key.substring(References.PREFIX.length()));
+                } else if (!META_FIELD_NAMES.contains(key)) {
+                    fieldNames.add(key);
                 }
-            } else if (!value.isEmpty()) {
-                try {
-                    // Throws if key is not meta
-                    MetaFields.valueOf(key);
-                    newMetaFields.put(key, value);
-                } catch (RuntimeException ex) {
-                    newFields.put(key, value);
+            }
+            this.metaSchema = new CompactSortedMap.Schema<>(META_FIELD_NAMES);
+            this.fieldSchema = new CompactSortedMap.Schema<>(fieldNames);
+            this.refSchema = new CompactSortedMap.Schema<>(refNames);
+            this.identifierSlot = metaSchema.slotOf(MetaFields.identifier.name());
+            this.lastChangeSlot = metaSchema.slotOf(MetaFields.lastChange.name());
+
+            this.columnKinds = new int[header.length];
+            this.columnSlots = new int[header.length];
+            for (int ii = 0; ii < header.length; ++ii) {
+                String key = header[ii];
+                if (key.startsWith(References.PREFIX)) {
+                    columnKinds[ii] = REFERENCE;
+                    columnSlots[ii] = refSchema.slotOf(
+                            key.substring(References.PREFIX.length()));
+                } else if (META_FIELD_NAMES.contains(key)) {
+                    columnKinds[ii] = META;
+                    columnSlots[ii] = metaSchema.slotOf(key);
+                } else {
+                    columnKinds[ii] = FIELD;
+                    columnSlots[ii] = fieldSchema.slotOf(key);
                 }
             }
         }
-        Builder.fillMeta(newMetaFields, ISO8601.EPOCH, false);
-        return new Record(type, Collections.unmodifiableSortedMap(newMetaFields),
-                Collections.unmodifiableSortedMap(newFields),
-                Collections.unmodifiableSortedMap(newRefs));
+
+        /**
+         * Load a record from a row. Columns missing from the end of the row
+         * are treated as empty, and columns beyond the header are ignored.
+         */
+        public Record load(String[] line) {
+            Object[] metaValues = new Object[metaSchema.size()];
+            Object[] fieldValues = new Object[fieldSchema.size()];
+            Object[] refValues = new Object[refSchema.size()];
+            int length = Math.min(line.length, columnKinds.length);
+            for (int ii = 0; ii < length; ++ii) {
+                String value = line[ii];
+                if (value.isEmpty()) {
+                    continue;
+                }
+                switch (columnKinds[ii]) {
+                    case META:
+                        metaValues[columnSlots[ii]] = value;
+                        break;
+                    case FIELD:
+                        fieldValues[columnSlots[ii]] = value;
+                        break;
+                    case REFERENCE:
+                        refValues[columnSlots[ii]] = RecordID.load(value).get();
+                        break;
+                }
+            }
+            if (metaValues[identifierSlot] == null) {
+                metaValues[identifierSlot] = RecordID.create().toString();
+            }
+            if (metaValues[lastChangeSlot] == null) {
+                metaValues[lastChangeSlot] = ISO8601.EPOCH;
+            }
+            return new Record(type, metaSchema.build(metaValues),
+                    fieldSchema.build(fieldValues),
+                    refSchema.build(refValues));
+        }
+    }
+
+    public static Record load(Table type, Map<String, String> allFields) {
+        String[] header = new String[allFields.size()];
+        String[] line = new String[allFields.size()];
+        int ii = 0;
+        for (Map.Entry<String, String> entry : allFields.entrySet()) {
+            header[ii] = entry.getKey();
+            line[ii] = entry.getValue();
+            ++ii;
+        }
+        return new Loader(type, header).load(line);
     }
 
     public static Record load(Table type, Stream<Map.Entry<String, String>> allFields) {
@@ -569,9 +648,9 @@ public class Record implements Identifiable, Comparable<Record> {
 
     private Record(
             Table type,
-            SortedMap<String, String> unmodifiableMeta,
-            SortedMap<String, String> unmodifiableFields,
-            SortedMap<String, RecordID> unmodifiableRefs) {
+            CompactSortedMap<String> unmodifiableMeta,
+            CompactSortedMap<String> unmodifiableFields,
+            CompactSortedMap<RecordID> unmodifiableRefs) {
         this.type = type;
         this.meta = unmodifiableMeta;
         this.fields = unmodifiableFields;
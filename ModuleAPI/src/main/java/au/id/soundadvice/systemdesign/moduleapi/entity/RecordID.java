@@ -26,50 +26,106 @@
  */
 package au.id.soundadvice.systemdesign.moduleapi.entity;
 
-import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /**
+ * A record identifier. Identifiers in canonical lower-case UUID form are
+ * stored as two longs; any other identifier is stored as an interned string.
+ * Either way the hash is computed once, on construction.
  *
  * @author fuzzy
  */
 public class RecordID implements Comparable<RecordID> {
 
     public static RecordID create() {
-        return new RecordID(UUID.randomUUID().toString());
+        UUID uuid = UUID.randomUUID();
+        return new RecordID(
+                uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
     }
 
     public static Optional<RecordID> load(String value) {
         if (value.isEmpty()) {
             return Optional.empty();
         } else {
-            return Optional.of(new RecordID(value));
+            return Optional.of(valueOf(value));
         }
     }
 
     public static RecordID of(Class<?> clazz) {
-        return new RecordID(clazz.getName());
+        return valueOf(clazz.getName());
     }
 
     public static RecordID concat(RecordID... segments) {
-        return new RecordID(
+        return valueOf(
                 Stream.of(segments)
                 .map(RecordID::toString)
                 .collect(Collectors.joining(":")));
     }
 
+    private static final int UUID_LENGTH = 36;
+
+    private static boolean isDash(int index) {
+        return index == 8 || index == 13 || index == 18 || index == 23;
+    }
+
+    /**
+     * Only the exact form produced by UUID.toString() takes the compact
+     * path, so toString() always reproduces the loaded text.
+     */
+    private static RecordID valueOf(String value) {
+        if (value.length() != UUID_LENGTH) {
+            return new RecordID(value.intern());
+        }
+        long mostSigBits = 0;
+        long leastSigBits = 0;
+        int digits = 0;
+        for (int ii = 0; ii < UUID_LENGTH; ++ii) {
+            char ch = value.charAt(ii);
+            if (isDash(ii)) {
+                if (ch != '-') {
+                    return new RecordID(value.intern());
+                }
+                continue;
+            }
+            long nibble;
+            if (ch >= '0' && ch <= '9') {
+                nibble = ch - '0';
+            } else if (ch >= 'a' && ch <= 'f') {
+                nibble = ch - 'a' + 10;
+            } else {
+                return new RecordID(value.intern());
+            }
+            if (digits < 16) {
+                mostSigBits = (mostSigBits << 4) | nibble;
+            } else {
+                leastSigBits = (leastSigBits << 4) | nibble;
+            }
+            ++digits;
+        }
+        return new RecordID(mostSigBits, leastSigBits);
+    }
+
     @Override
     public String toString() {
-        return id;
+        if (id != null) {
+            return id;
+        }
+        // Racy but safe, as for String.hashCode: at worst two threads each
+        // format the same text
+        String result = text;
+        if (result == null) {
+            result = new UUID(mostSigBits, leastSigBits).toString();
+            text = result;
+        }
+        return result;
     }
 
     @Override
     public int hashCode() {
-        int hash = 5;
-        hash = 83 * hash + Objects.hashCode(this.id);
         return hash;
     }
 
@@ -85,20 +141,64 @@ public class RecordID implements Comparable<RecordID> {
             return false;
         }
         final RecordID other = (RecordID) obj;
-        if (!Objects.equals(this.id, other.id)) {
+        if (this.hash != other.hash) {
             return false;
         }
-        return true;
+        if (this.id == null) {
+            return other.id == null
+                    && this.mostSigBits == other.mostSigBits
+                    && this.leastSigBits == other.leastSigBits;
+        } else {
+            // Strings are interned
+            return this.id == other.id;
+        }
+    }
+
+    private RecordID(long mostSigBits, long leastSigBits) {
+        this.id = null;
+        this.mostSigBits = mostSigBits;
+        this.leastSigBits = leastSigBits;
+        long bits = mostSigBits ^ leastSigBits;
+        this.hash = (int) (bits >> 32) ^ (int) bits;
     }
 
     private RecordID(String id) {
         this.id = id;
+        this.mostSigBits = 0;
+        this.leastSigBits = 0;
+        this.hash = id.hashCode();
     }
 
+    /**
+     * The identifier text, or null for an identifier held as a UUID.
+     */
+    @Nullable
     private final String id;
+    /**
+     * The formatted text of an identifier held as a UUID, once toString()
+     * has been called.
+     */
+    @Nullable
+    private String text = null;
+    private final long mostSigBits;
+    private final long leastSigBits;
+    private final int hash;
 
+    /**
+     * Orders identifiers as their string forms would order. Lower-case hex
+     * digits sort in numeric order, so two UUIDs compare as unsigned
+     * numbers without being formatted.
+     */
     @Override
     public int compareTo(RecordID other) {
-        return id.compareTo(other.id);
+        if (this.id == null && other.id == null) {
+            int result = Long.compareUnsigned(this.mostSigBits, other.mostSigBits);
+            if (result == 0) {
+                result = Long.compareUnsigned(this.leastSigBits, other.leastSigBits);
+            }
+            return result;
+        } else {
+            return toString().compareTo(other.toString());
+        }
     }
 }
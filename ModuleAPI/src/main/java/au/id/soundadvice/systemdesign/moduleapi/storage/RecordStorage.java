@@ -30,6 +30,7 @@ import au.id.soundadvice.systemdesign.moduleapi.collection.Baseline;
 import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
 import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.Stream;
 import au.id.soundadvice.systemdesign.moduleapi.entity.TableFactory;
@@ -56,6 +57,16 @@ public interface RecordStorage extends Closeable {
 
     public Stream<VersionInfo> getVersions() throws IOException;
 
+    /**
+     * Return one page of versions, newest first.
+     *
+     * @param start The number of versions to skip
+     * @param count The maximum number of versions to return
+     * @return The versions in the page
+     * @throws java.io.IOException The versions could not be listed
+     */
+    public List<VersionInfo> getVersions(int start, int count) throws IOException;
+
     /**
      * Save the whole baseline.
      *
@@ -64,6 +75,16 @@ public interface RecordStorage extends Closeable {
      */
     public void saveBaseline(Baseline relations) throws IOException;
 
+    /**
+     * Save the baseline, given the baseline that was last saved to this
+     * storage. Only tables that differ between the two need to be written.
+     *
+     * @param relations The baseline to store
+     * @param previous The baseline most recently saved to this storage
+     * @throws java.io.IOException The baseline could not be written
+     */
+    public void saveBaseline(Baseline relations, Baseline previous) throws IOException;
+
     public void commit(String message) throws IOException;
 
     public Optional<RecordStorage> getParent();
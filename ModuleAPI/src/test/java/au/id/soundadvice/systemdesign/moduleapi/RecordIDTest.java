@@ -0,0 +1,88 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.moduleapi;
+
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class RecordIDTest {
+
+    /**
+     * Test that loaded identifiers are saved exactly as they were read,
+     * whether or not they take the UUID representation.
+     */
+    @Test
+    public void testRoundTrip() {
+        List<String> values = Arrays.asList(
+                UUID.randomUUID().toString(),
+                "00000000-0000-0000-0000-000000000000",
+                "ffffffff-ffff-ffff-ffff-ffffffffffff",
+                "FFFFFFFF-FFFF-FFFF-FFFF-FFFFFFFFFFFF",
+                "0000000000000000000000000000000000000",
+                "0000000-00000-0000-0000-000000000000",
+                "au.id.soundadvice.systemdesign.Example",
+                "a:b");
+        for (String value : values) {
+            RecordID id = RecordID.load(value).get();
+            assertEquals(value, id.toString());
+            assertEquals(id, RecordID.load(value).get());
+            assertEquals(id.hashCode(), RecordID.load(value).get().hashCode());
+        }
+        assertFalse(RecordID.load("").isPresent());
+    }
+
+    /**
+     * Test that ordering matches the ordering of the string forms.
+     */
+    @Test
+    public void testCompareTo() {
+        List<RecordID> ids = Arrays.asList(
+                RecordID.create(), RecordID.create(), RecordID.create(),
+                RecordID.load("80000000-0000-0000-0000-000000000000").get(),
+                RecordID.load("7fffffff-ffff-ffff-8000-000000000000").get(),
+                RecordID.of(RecordIDTest.class),
+                RecordID.concat(RecordID.create(), RecordID.create()));
+        for (RecordID left : ids) {
+            for (RecordID right : ids) {
+                assertEquals(
+                        Integer.signum(left.toString().compareTo(right.toString())),
+                        Integer.signum(left.compareTo(right)));
+                assertEquals(left.toString().equals(right.toString()), left.equals(right));
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <http://unlicense.org/>
+ */
+package au.id.soundadvice.systemdesign.moduleapi;
+
+import au.id.soundadvice.systemdesign.moduleapi.entity.Record;
+import au.id.soundadvice.systemdesign.moduleapi.entity.RecordID;
+import au.id.soundadvice.systemdesign.moduleapi.entity.Table;
+import au.id.soundadvice.systemdesign.moduleapi.util.ISO8601;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Benjamin Carlyle <benjamincarlyle@soundadvice.id.au>
+ */
+public class RecordTest {
+
+    private static final Table TYPE = new Table.Default("test");
+
+    /**
+     * Test that a loaded row is split into meta fields, fields and
+     * references, with empty values omitted.
+     */
+    @Test
+    public void testLoad() {
+        RecordID identifier = RecordID.create();
+        RecordID container = RecordID.create();
+        String[] header = {"shortName", "identifier", "ref:container", "ref:viewOf", "desc", "longName"};
+        Record.Loader loader = new Record.Loader(TYPE, header);
+
+        Record record = loader.load(new String[]{
+            "F1", identifier.toString(), container.toString(), "", ""});
+        assertEquals(identifier, record.getIdentifier());
+        assertEquals(ISO8601.EPOCH, record.getLastChange());
+        assertEquals("F1", record.getShortName());
+        assertEquals(Optional.of(container), record.getContainer());
+        assertFalse(record.getViewOf().isPresent());
+        assertFalse(record.getFields().containsKey("desc"));
+        assertFalse(record.getFields().containsKey("longName"));
+        assertEquals(1, record.getFields().size());
+        assertEquals(1, record.getReferences().size());
+
+        Map<String, String> allFields = new HashMap<>();
+        for (int ii = 0; ii < 5; ++ii) {
+            allFields.put(header[ii], new String[]{
+                "F1", identifier.toString(), container.toString(), "", ""}[ii]);
+        }
+        assertEquals(record, Record.load(TYPE, allFields));
+        assertEquals(record, Record.load(TYPE, record.getAllFields()));
+    }
+
+    /**
+     * Test that rows without an identifier are given a fresh one.
+     */
+    @Test
+    public void testLoadWithoutIdentifier() {
+        Record.Loader loader = new Record.Loader(TYPE, new String[]{"longName"});
+        Record first = loader.load(new String[]{"a"});
+        Record second = loader.load(new String[]{"a"});
+        assertNotEquals(first.getIdentifier(), second.getIdentifier());
+        assertEquals("a", first.getLongName());
+    }
+}
@@ -114,4 +114,11 @@ public class PhysicalModule implements Module {
     public Stream<Tree> getTrees(WhyHowPair<Baseline> baselines) {
         return Stream.of(new PhysicalTree(menus, baselines));
     }
+
+    @Override
+    public boolean isTreeDrawnFrom(Table table) {
+        return table == Identity.identity
+                || table == Item.item
+                || table == Interface.iface;
+    }
 }
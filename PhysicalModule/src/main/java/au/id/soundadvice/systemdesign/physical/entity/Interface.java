@@ -94,8 +94,7 @@ public enum Interface implements Table {
      * @return
      */
     public static Optional<Record> get(Baseline baseline, RecordConnectionScope scope) {
-        return baseline.findByScope(scope.getScope())
-                .filter(record -> Interface.iface.equals(record.getType()))
+        return baseline.findByScope(scope.getScope(), Interface.iface)
                 .findAny();
     }
 
@@ -96,18 +96,37 @@ public enum ItemView implements Table {
         if (existingView.isPresent()) {
             return new Pair<>(baseline, existingView.get());
         } else {
-            Record view = Record.create(itemView)
-                    .setViewOf(item)
-                    .setOrigin(origin)
-                    .build(now);
+            Record view = newView(now, item, origin);
             baseline = baseline.add(view);
             return new Pair<>(baseline, view);
         }
     }
 
+    /**
+     * Create a new item view in a transient baseline, which is updated in
+     * place.
+     *
+     * @param baseline The baseline to update
+     * @param now The current time in ISO8601 format
+     * @param item The item this view refers to
+     * @param origin The location for the item on the screen
+     */
+    public static void create(
+            Baseline.Transient baseline, String now, Record item, Point2D origin) {
+        if (!findForItem(baseline, item).findAny().isPresent()) {
+            baseline.add(newView(now, item, origin));
+        }
+    }
+
+    private static Record newView(String now, Record item, Point2D origin) {
+        return Record.create(itemView)
+                .setViewOf(item)
+                .setOrigin(origin)
+                .build(now);
+    }
+
     @CheckReturnValue
     public WhyHowPair<Baseline> createNeededViews(WhyHowPair<Baseline> baselines, String now) {
-        WhyHowPair<Baseline> result = baselines;
         Map<RecordID, Record> itemsWithExistingViews
                 = ItemView.find(baselines.getChild())
                 .map(view -> ItemView.itemView.getItem(baselines.getChild(), view))
@@ -118,13 +137,12 @@ public enum ItemView implements Table {
         Iterator<Record> itemsToAdd = itemsForDrawing
                 .filter(function -> !itemsWithExistingViews.containsKey(function.getIdentifier()))
                 .iterator();
+        Baseline.Transient updatedChild = baselines.getChild().asTransient();
         while (itemsToAdd.hasNext()) {
             Record itemToAdd = itemsToAdd.next();
-            result = result.setChild(
-                    ItemView.create(result.getChild(), now, itemToAdd, ItemView.DEFAULT_ORIGIN)
-                    .getKey());
+            ItemView.create(updatedChild, now, itemToAdd, ItemView.DEFAULT_ORIGIN);
         }
-        return result;
+        return baselines.setChild(updatedChild.persistent());
     }
 
     public Record getItem(Baseline baseline, Record view) {